@@ -0,0 +1,319 @@
+package com.centit.support.compiler;
+
+import com.centit.support.common.ObjectException;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 编译后的表达式，由 VariableFormula.compile 生成
+ * 表达式只在编译时解析一次，求值时只遍历语法树；
+ * 对象不可变，同一个实例可以在多个线程中同时求值，求值的中间状态都在调用栈上，不需要同步
+ * <p>
+ * 可选的第二层：求值次数超过 codeGenThreshold 后，语法树被转换为 MethodHandle 树，
+ * 由 JIT 内联执行，结果和语法树解释执行完全一致
+ * <p>
+ * 批量求值：evaluateAll 和 evaluateColumns 对多条记录求值，记录数超过 parallelThreshold 时
+ * 分段在 ForkJoinPool 中并行计算，结果的顺序和输入一致
+ * <p>
+ * 性能统计见 FormulaProfiler，关闭时求值没有额外的开销
+ */
+public final class CompiledFormula {
+
+    /**
+     * 转换为 MethodHandle 的求值次数阈值，小于等于 0 表示不转换
+     */
+    private static volatile int codeGenThreshold = 0;
+
+    /**
+     * 批量求值时并行计算的记录数阈值，小于等于 0 表示不并行
+     */
+    private static volatile int parallelThreshold = 10000;
+    /**
+     * 并行计算时每一段的最少记录数
+     */
+    private static final int MIN_BATCH_SIZE = 2048;
+
+    private final String formula;
+    private final FormulaNode root;
+    /**
+     * 求值计数只用于判断是否达到阈值，不需要精确，所以没有同步
+     */
+    private int evaluateCount;
+    private volatile MethodHandle generatedCode;
+
+    CompiledFormula(String formula, FormulaNode root) {
+        this.formula = formula;
+        this.root = root;
+        this.evaluateCount = 0;
+        this.generatedCode = null;
+    }
+
+    /**
+     * @param threshold 求值次数超过这个值的表达式转换为 MethodHandle 执行，小于等于 0 关闭这个功能
+     */
+    public static void setCodeGenThreshold(int threshold) {
+        codeGenThreshold = threshold;
+    }
+
+    public static int getCodeGenThreshold() {
+        return codeGenThreshold;
+    }
+
+    /**
+     * @param threshold 批量求值的记录数达到这个值时并行计算，小于等于 0 关闭并行
+     */
+    public static void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * 立即将表达式转换为 MethodHandle，不等待求值次数达到阈值
+     *
+     * @return this
+     */
+    public CompiledFormula generateCode() {
+        if (generatedCode == null) {
+            generatedCode = FormulaCodeGenerator.generate(root);
+        }
+        return this;
+    }
+
+    public boolean isCodeGenerated() {
+        return generatedCode != null;
+    }
+
+    private static Object invokeCode(MethodHandle code, VariableTranslate varTrans) {
+        try {
+            return (Object) code.invokeExact(varTrans);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ObjectException(e);
+        }
+    }
+
+    /**
+     * 求值，不传入变量解释器时标识符被当作字符串
+     *
+     * @return 表达式的值
+     */
+    public Object evaluate() {
+        return evaluate((VariableTranslate) null);
+    }
+
+    /**
+     * @param varTrans 变量解释器
+     * @return 表达式的值
+     */
+    public Object evaluate(VariableTranslate varTrans) {
+        if (FormulaProfiler.enabled) {
+            return profiledEvaluate(varTrans);
+        }
+        return doEvaluate(varTrans);
+    }
+
+    private Object profiledEvaluate(VariableTranslate varTrans) {
+        int weight = FormulaProfiler.sample();
+        if (weight == 0) {
+            return doEvaluate(varTrans);
+        }
+        long startTime = System.nanoTime();
+        try {
+            return doEvaluate(varTrans);
+        } finally {
+            FormulaProfiler.recordFormula(formula, weight, System.nanoTime() - startTime);
+        }
+    }
+
+    private Object doEvaluate(VariableTranslate varTrans) {
+        MethodHandle code = generatedCode;
+        if (code != null) {
+            return invokeCode(code, varTrans);
+        }
+        int threshold = codeGenThreshold;
+        if (threshold > 0 && ++evaluateCount > threshold) {
+            return invokeCode(generateCode().generatedCode, varTrans);
+        }
+        return root.evaluate(varTrans);
+    }
+
+    /**
+     * @param varObj 变量对象，可以是一个Map 、JSON 或者Pojo
+     * @return 表达式的值
+     */
+    public Object evaluate(Object varObj) {
+        return evaluate(new ObjectTranslate(varObj));
+    }
+
+    /**
+     * 对每一条记录求值，记录可以是 Map 、JSON 或者 Pojo，和 evaluate(Object) 的结果一致
+     * 每一段记录共用一个变量解释器，不为每条记录创建对象
+     *
+     * @param rows 记录列表，比如 DatabaseAccess.findObjectsAsJSON 返回的 JSONArray
+     * @return 每条记录的值，顺序和 rows 一致
+     */
+    public List<Object> evaluateAll(List<?> rows) {
+        int rowCount = rows.size();
+        Object[] results = new Object[rowCount];
+        // 随机访问的列表才能分段，否则先复制成数组
+        List<?> source = rows instanceof RandomAccess ? rows : new ArrayList<>(rows);
+        runBatch(rowCount, (from, to) -> {
+            ObjectTranslate trans = new ObjectTranslate();
+            for (int i = from; i < to; i++) {
+                trans.setVarObject(source.get(i));
+                results[i] = evaluate(trans);
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 按列求值，第 i 条记录的变量值为 columns.get(变量名)[i]，不在 columns 中的变量值为 null
+     * 变量和列的对应关系在开始时按变量序号确定一次，求值时按序号取列，不再按变量名查找
+     *
+     * @param columns 变量名 -》 这个变量在每条记录中的值
+     * @return 每条记录的值，长度为最长的列的长度，短的列不足的部分为 null
+     */
+    public Object[] evaluateColumns(Map<String, Object[]> columns) {
+        List<FormulaNode.VariableNode> varNodes = new ArrayList<>();
+        collectVariables(root, varNodes);
+        int varCount = 0;
+        for (FormulaNode.VariableNode varNode : varNodes) {
+            varCount = Math.max(varCount, varNode.getVarIndex() + 1);
+        }
+        Object[][] bindings = new Object[varCount][];
+        for (FormulaNode.VariableNode varNode : varNodes) {
+            bindings[varNode.getVarIndex()] = columns.get(varNode.getVarName());
+        }
+        int rowCount = 0;
+        for (Object[] column : columns.values()) {
+            if (column != null && column.length > rowCount) {
+                rowCount = column.length;
+            }
+        }
+        Object[] results = new Object[rowCount];
+        runBatch(rowCount, (from, to) -> {
+            ColumnTranslate trans = new ColumnTranslate(columns, bindings);
+            for (int i = from; i < to; i++) {
+                trans.rowIndex = i;
+                results[i] = evaluate(trans);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * @return 表达式中引用的变量名，包括标识符和 ${} 形式的变量，按照出现的顺序
+     */
+    public Set<String> getVariableNames() {
+        List<FormulaNode.VariableNode> varNodes = new ArrayList<>();
+        collectVariables(root, varNodes);
+        Set<String> varNames = new LinkedHashSet<>();
+        for (FormulaNode.VariableNode varNode : varNodes) {
+            varNames.add(varNode.getVarName());
+        }
+        return varNames;
+    }
+
+    private static void collectVariables(FormulaNode node, List<FormulaNode.VariableNode> varNodes) {
+        if (node instanceof FormulaNode.VariableNode) {
+            varNodes.add((FormulaNode.VariableNode) node);
+            return;
+        }
+        for (FormulaNode operand : node.getOperands()) {
+            collectVariables(operand, varNodes);
+        }
+    }
+
+    private interface BatchRange {
+        void run(int from, int to);
+    }
+
+    private static void runBatch(int rowCount, BatchRange range) {
+        int threshold = parallelThreshold;
+        if (threshold <= 0 || rowCount < threshold) {
+            range.run(0, rowCount);
+            return;
+        }
+        int batchSize = Math.max(MIN_BATCH_SIZE,
+            rowCount / (ForkJoinPool.getCommonPoolParallelism() * 4) + 1);
+        ForkJoinPool.commonPool().invoke(new BatchTask(range, 0, rowCount, batchSize));
+    }
+
+    /**
+     * 将记录二分，直到每段不超过 batchSize 条，每段写入结果数组中自己的区间
+     */
+    private static final class BatchTask extends RecursiveAction {
+        private final BatchRange range;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+
+        BatchTask(BatchRange range, int from, int to, int batchSize) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                range.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(range, from, mid, batchSize),
+                new BatchTask(range, mid, to, batchSize));
+        }
+    }
+
+    /**
+     * 按列取值的变量解释器，一段记录共用一个，只移动行号；
+     * 变量节点按序号取值，bindings 的下标就是变量序号
+     */
+    private static final class ColumnTranslate implements IndexedVariableTranslate {
+        private final Map<String, Object[]> columns;
+        private final Object[][] bindings;
+        private int rowIndex;
+
+        ColumnTranslate(Map<String, Object[]> columns, Object[][] bindings) {
+            this.columns = columns;
+            this.bindings = bindings;
+        }
+
+        private Object columnValue(Object[] column) {
+            return column == null || rowIndex >= column.length ? null : column[rowIndex];
+        }
+
+        @Override
+        public Object getVarValue(int varIndex) {
+            return columnValue(bindings[varIndex]);
+        }
+
+        @Override
+        public Object getVarValue(String varName) {
+            return columnValue(columns.get(varName));
+        }
+    }
+
+    public String getFormula() {
+        return formula;
+    }
+
+    public FormulaNode getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return formula;
+    }
+}
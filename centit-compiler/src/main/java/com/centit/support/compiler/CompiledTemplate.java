@@ -0,0 +1,122 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.GeneralAlgorithm;
+import com.centit.support.algorithm.StringBaseOpt;
+
+import java.io.IOException;
+
+/**
+ * 编译后的文本模板，由 Pretreatment.compileTemplate 生成
+ * 模板只在编译时扫描一次，拆分为 文本、变量、文本、变量 …… 文本 ，转义符已经处理；
+ * 渲染时按顺序输出文本和变量的值，结果和 Pretreatment.mapTemplateString 一致
+ * 对象不可变，可以在多个线程中同时使用
+ */
+public final class CompiledTemplate {
+
+    /**
+     * 估算输出长度时每个变量的长度
+     */
+    private static final int VARIABLE_LENGTH_HINT = 16;
+
+    private final String template;
+    /**
+     * 文本片段，比 varNames 多一个；模板为空白时为 null
+     */
+    private final String[] literals;
+    private final String[] varNames;
+    private final int lengthHint;
+
+    CompiledTemplate(String template, String[] literals, String[] varNames) {
+        this.template = template;
+        this.literals = literals;
+        this.varNames = varNames;
+        int length = 0;
+        if (literals != null) {
+            for (String literal : literals) {
+                length += literal.length();
+            }
+            length += varNames.length * VARIABLE_LENGTH_HINT;
+        }
+        this.lengthHint = length;
+    }
+
+    /**
+     * @param varTrans  变量解释器，可以自定义变量的取值方式
+     * @param nullValue 找不到变量时的值，模板为空白时返回这个值
+     * @return 渲染结果
+     */
+    public String render(VariableTranslate varTrans, String nullValue) {
+        if (literals == null) {
+            return nullValue;
+        }
+        StringBuilder mapString = new StringBuilder(lengthHint);
+        render(mapString, varTrans, nullValue);
+        return mapString.toString();
+    }
+
+    /**
+     * @param object    传入的对象，可以是一个Map 、JSON 或者Pojo
+     * @param nullValue 找不到变量时的值
+     * @return 渲染结果
+     */
+    public String render(Object object, String nullValue) {
+        return render(new ObjectTranslate(object), nullValue);
+    }
+
+    public String render(Object object) {
+        return render(new ObjectTranslate(object), "");
+    }
+
+    /**
+     * 渲染到已有的 StringBuilder 中，避免产生中间字符串
+     */
+    public void render(StringBuilder mapString, VariableTranslate varTrans, String nullValue) {
+        if (literals == null) {
+            mapString.append(nullValue);
+            return;
+        }
+        int varCount = varNames.length;
+        for (int i = 0; i < varCount; i++) {
+            mapString.append(literals[i]).append(variableString(varTrans, varNames[i], nullValue));
+        }
+        mapString.append(literals[varCount]);
+    }
+
+    /**
+     * 渲染到 Writer 等输出目标中
+     *
+     * @throws IOException 输出目标写入失败
+     */
+    public void render(Appendable out, VariableTranslate varTrans, String nullValue) throws IOException {
+        if (literals == null) {
+            out.append(nullValue);
+            return;
+        }
+        int varCount = varNames.length;
+        for (int i = 0; i < varCount; i++) {
+            out.append(literals[i]).append(variableString(varTrans, varNames[i], nullValue));
+        }
+        out.append(literals[varCount]);
+    }
+
+    private static String variableString(VariableTranslate varTrans, String varName, String nullValue) {
+        return GeneralAlgorithm.nvl(
+            StringBaseOpt.objectToString(varTrans.getVarValue(varName)), nullValue);
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return 模板中的变量名，按照出现的顺序，可能重复
+     */
+    public String[] getVariableNames() {
+        return varNames == null ? new String[0] : varNames.clone();
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public abstract class EmbedFunc {
     public static final int functionsSum = 66;
@@ -95,56 +96,148 @@ public abstract class EmbedFunc {
         new FunctionInfo("getpy", 1, ConstDefine.FUNC_GET_PY, ConstDefine.TYPE_STR)//取汉字拼音
     };
     private static double COMPARE_MIN_DOUBLE = 0.0000001;
+    /**
+     * 函数名（小写）到 functionsList 下标的索引，同名的函数取第一个
+     */
+    private static final Map<String, Integer> FUNC_NO_MAP = new HashMap<>(functionsSum * 2);
+
+    static {
+        for (int i = 0; i < functionsSum; i++) {
+            FUNC_NO_MAP.putIfAbsent(functionsList[i].sName.toLowerCase(Locale.ROOT), i);
+        }
+    }
+
     private EmbedFunc() {
         throw new IllegalAccessError("Utility class");
     }
 
+    /**
+     * 模板参数为常量的 match 、regexmatch 和 regexmatchvalue 在编译时预先编译模板
+     *
+     * @param nFuncNo 函数编号
+     * @param params  函数参数
+     * @return 编译后的 WildcardMatcher 或者 Pattern ，不能预先编译时返回 null
+     */
+    static Object compilePatternParam(int nFuncNo, List<FormulaNode> params) {
+        if (params.size() < 2) {
+            return null;
+        }
+        try {
+            switch (nFuncNo) {
+                case ConstDefine.FUNC_MATCH:
+                    if (params.get(1) instanceof FormulaNode.ConstNode) {
+                        String templ = StringBaseOpt.objectToString(
+                            ((FormulaNode.ConstNode) params.get(1)).getValue());
+                        return templ == null ? null : WildcardMatcher.compile(templ);
+                    }
+                    return null;
+                case ConstDefine.FUNC_REG_MATCH:
+                case ConstDefine.FUNC_REG_MATCH_VALUES:
+                    if (params.get(0) instanceof FormulaNode.ConstNode) {
+                        String regex = StringBaseOpt.objectToString(
+                            ((FormulaNode.ConstNode) params.get(0)).getValue());
+                        return regex == null ? null : Pattern.compile(regex);
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        } catch (PatternSyntaxException e) {
+            // 错误的正则表达式在求值时报错，和没有预编译时一致
+            return null;
+        }
+    }
+
+    /**
+     * 使用预先编译的模板执行 match 、regexmatch 和 regexmatchvalue
+     */
+    static Object runFuncWithPattern(List<Object> slOperand, int nFuncNo, Object compiledPattern) {
+        if (nFuncNo == ConstDefine.FUNC_MATCH) {
+            return ((WildcardMatcher) compiledPattern).matches(
+                StringBaseOpt.objectToString(slOperand.get(0)));
+        }
+        return runRegexFunc((Pattern) compiledPattern, slOperand.get(1), nFuncNo);
+    }
+
+    private static Object runRegexFunc(Pattern p, Object value, int nFuncNo) {
+        String sValues = StringBaseOpt.objectToString(value);
+        if (nFuncNo == ConstDefine.FUNC_REG_MATCH) {
+            return p.matcher(sValues).matches();
+        }
+        Matcher m = p.matcher(sValues); // 获取 matcher 对象
+        List<String> matchValues = new ArrayList<>();
+        while (m.find()) {
+            matchValues.add(sValues.substring(m.start(), m.end()));
+        }
+        return matchValues;
+    }
+
+    /**
+     * 按名称查找内置函数，不区分大小写
+     *
+     * @param sFuncName 函数名
+     * @return functionsList 中的下标，没有返回 -1
+     */
     public static int getFuncNo(String sFuncName) {
-        for (int i = 0; i < functionsSum; i++) {
-            if (sFuncName.equalsIgnoreCase(functionsList[i].sName))
-                return i;
+        Integer funcNo = FUNC_NO_MAP.get(sFuncName);
+        if (funcNo == null) {
+            // 函数名中有大写字母时才需要转换
+            funcNo = FUNC_NO_MAP.get(sFuncName.toLowerCase(Locale.ROOT));
+        }
+        return funcNo == null ? -1 : funcNo;
+    }
+
+    /**
+     * case 函数的匹配方式
+     *
+     * @param caseValue case 的第一个参数
+     * @return 1 按布尔值匹配 ，2 按数字匹配， 0 按字符串匹配
+     */
+    static int getCaseMatchType(Object caseValue) {
+        String tempStr = StringBaseOpt.objectToString(caseValue);
+        if (tempStr.equalsIgnoreCase("true"))
+            return 1;
+        if (NumberBaseOpt.isNumber(caseValue))
+            return 2;
+        return 0;
+    }
+
+    static boolean isCaseMatched(Object caseValue, int matchType, Object whenValue) {
+        if (matchType == 1) {
+            return BooleanBaseOpt.castObjectToBoolean(whenValue, false);
+        } else if (matchType == 2) {
+            return NumberBaseOpt.isNumber(whenValue) &&
+                Math.abs(NumberBaseOpt.castObjectToDouble(caseValue) -
+                    NumberBaseOpt.castObjectToDouble(whenValue)) < COMPARE_MIN_DOUBLE;
         }
-        return -1;
+        return StringBaseOpt.objectToString(caseValue).equals(StringBaseOpt.objectToString(whenValue));
     }
 
     private static LeftRightPair<Integer, List<Object>> flatOperands(List<Object> slOperand) {
-        int nCount = 0;
         List<Object> ret = new ArrayList<>();
         if (slOperand != null && slOperand.size() > 0) {
             for (Object obj : slOperand) {
-                if (obj instanceof Object[]) {
-                    Object[] objs = (Object[]) obj;
-                    for (Object obj1 : objs) {
-                        ret.add(obj1);
-                        nCount++;
-                    }
-                } else if (obj instanceof Collection) {
-                    ret.addAll((Collection) obj);
-                    nCount += ((Collection) obj).size();
-                } else {
-                    ret.add(obj);
-                    nCount++;
-                }
+                flatOperand(obj, ret);
             }
         }
-        return new LeftRightPair<>(nCount, ret);
+        return new LeftRightPair<>(ret.size(), ret);
     }
 
-    private static LeftRightPair<Date, Object> fetchDateOpt(int nOpSum, List<Object> slOperand) {
-        Date dt = null;
-        Object ti = null;
-        if (nOpSum == 1) {
-            dt = DatetimeOpt.currentUtilDate();
-            if (NumberBaseOpt.isNumber(slOperand.get(0))) {
-                ti = slOperand.get(0);
-            }
-        } else if (nOpSum > 1) {
-            dt = DatetimeOpt.castObjectToDate(slOperand.get(0));
-            if (NumberBaseOpt.isNumber(slOperand.get(1))) {
-                ti = slOperand.get(1);
-            }
+    /**
+     * 聚合函数的参数展开，数组和集合展开为其中的元素（只展开一层），其他值原样添加；
+     * FormulaAggregator 的累加器也用它展开参数
+     *
+     * @param obj 参数值
+     * @param ret 展开后的值添加到这里
+     */
+    static void flatOperand(Object obj, List<Object> ret) {
+        if (obj instanceof Object[]) {
+            Collections.addAll(ret, (Object[]) obj);
+        } else if (obj instanceof Collection) {
+            ret.addAll((Collection) obj);
+        } else {
+            ret.add(obj);
         }
-        return new LeftRightPair<>(dt, ti);
     }
 
     public static Object runFuncWithObject(List<Object> slOperand, int funcID) {
@@ -223,23 +316,11 @@ public abstract class EmbedFunc {
                     StringBaseOpt.objectToString(slOperand.get(0)),
                     StringBaseOpt.objectToString(slOperand.get(1)));
             case ConstDefine.FUNC_REG_MATCH:
+            case ConstDefine.FUNC_REG_MATCH_VALUES:
                 if (nOpSum < 2)
                     return false;
-                return Pattern.matches(
-                    StringBaseOpt.objectToString(slOperand.get(0)),
-                    StringBaseOpt.objectToString(slOperand.get(1)));
-            case ConstDefine.FUNC_REG_MATCH_VALUES: {
-                if (nOpSum < 2)
-                    return false;
-                String sValues = StringBaseOpt.objectToString(slOperand.get(1));
-                Pattern p = Pattern.compile(StringBaseOpt.objectToString(slOperand.get(0)));
-                Matcher m = p.matcher(sValues); // 获取 matcher 对象
-                List<String> matchValues = new ArrayList<>();
-                while (m.find()) {
-                    matchValues.add(sValues.substring(m.start(), m.end()));
-                }
-                return matchValues;
-            }
+                return runRegexFunc(StringRegularOpt.getCachedPattern(
+                    StringBaseOpt.objectToString(slOperand.get(0))), slOperand.get(1), funcID);
             case ConstDefine.FUNC_CAPITAL:// 102
             {
                 if (nOpSum < 1) return null;
@@ -341,21 +422,7 @@ public abstract class EmbedFunc {
                     return null;
                 if (nOpSum < 2)
                     return slOperand.get(0);
-                if (slOperand.get(0) == null)
-                    return null;
-                int nStart = 0, nLength;
-                if (NumberBaseOpt.isNumber(slOperand.get(1)))
-                    nStart = NumberBaseOpt.castObjectToInteger(slOperand.get(1));
-                String tempStr = StringBaseOpt.objectToString(slOperand.get(0));
-                if (nOpSum > 2 && NumberBaseOpt.isNumber(slOperand.get(2)))
-                    nLength = NumberBaseOpt.castObjectToInteger(slOperand.get(2));
-                else
-                    nLength = tempStr.length();
-
-                if (nLength <= 0)
-                    nLength = 1;
-
-                return tempStr.substring(nStart, nStart + nLength);
+                return substr(slOperand.get(0), slOperand.get(1), nOpSum > 2 ? slOperand.get(2) : null);
             }
             case ConstDefine.FUNC_LPAD: {
                 if (nOpSum < 1)
@@ -407,12 +474,12 @@ public abstract class EmbedFunc {
             case ConstDefine.FUNC_UPCASE://upcase
             {
                 if (nOpSum < 1) return null;
-                return StringUtils.upperCase(StringBaseOpt.objectToString(slOperand.get(0)));
+                return upcase(slOperand.get(0));
             }
             case ConstDefine.FUNC_LOWCASE://lowcase
             {
                 if (nOpSum < 1) return null;
-                return StringUtils.lowerCase(StringBaseOpt.objectToString(slOperand.get(0)));
+                return lowcase(slOperand.get(0));
             }
             case ConstDefine.FUNC_FREQUENCE: {
                 if (nOpSum < 2) return -1;
@@ -443,120 +510,67 @@ public abstract class EmbedFunc {
             case ConstDefine.FUNC_INT: { //取整
                 if (nOpSum < 1)
                     return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0)))
-                    return slOperand.get(0);
-                return NumberBaseOpt.castObjectToInteger(slOperand.get(0));
+                return toInt(slOperand.get(0));
             }
 
             case ConstDefine.FUNC_ROUND: {
                 if (nOpSum < 1)
                     return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0)))
-                    return slOperand.get(0);
-                Double tempDouble = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                int pos = nOpSum > 1 ?
-                    NumberBaseOpt.castObjectToInteger(slOperand.get(1), 0)
-                    : 0;
-                if (pos != 0) {
-                    return NumberBaseOpt.round(tempDouble, pos);
-                }
-                return Math.round(tempDouble);
+                return round(slOperand.get(0), nOpSum > 1 ? slOperand.get(1) : null);
             }
             case ConstDefine.FUNC_FLOOR: {
                 if (nOpSum < 1)
                     return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0)))
-                    return slOperand.get(0);
-                Double tempDouble = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                int pos = nOpSum > 1 ?
-                    NumberBaseOpt.castObjectToInteger(slOperand.get(1), 0)
-                    : 0;
-                if (pos != 0) {
-                    return NumberBaseOpt.floor(tempDouble, pos);
-                }
-                //四舍五入
-                return Double.valueOf(Math.floor(tempDouble)).longValue();
+                return floor(slOperand.get(0), nOpSum > 1 ? slOperand.get(1) : null);
             }
             case ConstDefine.FUNC_CEIL: {
                 if (nOpSum < 1)
                     return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0)))
-                    return slOperand.get(0);
-                Double tempDouble = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                int pos = nOpSum > 1 ?
-                    NumberBaseOpt.castObjectToInteger(slOperand.get(1), 0)
-                    : 0;
-                if (pos != 0) {
-                    return NumberBaseOpt.ceil(tempDouble, pos);
-                }
-                return Double.valueOf(Math.ceil(tempDouble)).longValue();
+                return ceil(slOperand.get(0), nOpSum > 1 ? slOperand.get(1) : null);
             }
 
             case ConstDefine.FUNC_ISEMPTY: //判断参数是否为空
-                if (nOpSum < 1 || slOperand.get(0) == null)
-                    return true;
-                return StringUtils.isBlank(StringBaseOpt.objectToString(slOperand.get(0)));
+                return isEmpty(nOpSum < 1 ? null : slOperand.get(0));
 
             case ConstDefine.FUNC_NOTEMPTY: //判断参数是否为空
-                if (nOpSum < 1 || slOperand.get(0) == null)
-                    return false;
-                return StringUtils.isNotBlank(StringBaseOpt.objectToString(slOperand.get(0)));
+                return isNotEmpty(nOpSum < 1 ? null : slOperand.get(0));
 
             case ConstDefine.FUNC_LN: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.log(af);
+                return ln(slOperand.get(0));
             }
             case ConstDefine.FUNC_LOG: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.log10(af);
+                return log(slOperand.get(0));
             }
-            case ConstDefine.FUNC_SIN: {//sin
+            case ConstDefine.FUNC_SIN: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.sin(af);
+                return sin(slOperand.get(0));
             }
-            case ConstDefine.FUNC_COS: {//cos
+            case ConstDefine.FUNC_COS: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.cos(af);
+                return cos(slOperand.get(0));
             }
-            case ConstDefine.FUNC_TAN: {//tan
+            case ConstDefine.FUNC_TAN: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.tan(af);
-
+                return tan(slOperand.get(0));
             }
-            case ConstDefine.FUNC_CTAN: {//ctan
+            case ConstDefine.FUNC_CTAN: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.atan(af);
+                return ctan(slOperand.get(0));
             }
 
-            case ConstDefine.FUNC_FRAC: {//取小数
+            case ConstDefine.FUNC_FRAC: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                Double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return af - af.intValue();
+                return frac(slOperand.get(0));
             }
             case ConstDefine.FUNC_EXP: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.exp(af);
+                return exp(slOperand.get(0));
             }
             case ConstDefine.FUNC_SQRT: {
                 if (nOpSum < 1) return null;
-                if (!NumberBaseOpt.isNumber(slOperand.get(0))) return null;
-                double af = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                return Math.sqrt(af);
+                return sqrt(slOperand.get(0));
             }
 
             case ConstDefine.FUNC_IF: {// 108
@@ -573,38 +587,18 @@ public abstract class EmbedFunc {
 
             case ConstDefine.FUNC_CASE: {// 116
                 if (nOpSum < 2) return null;
-                String tempStr = StringBaseOpt.objectToString(slOperand.get(0));
-                int MatchType = 0;
-                if (tempStr.equalsIgnoreCase("true"))
-                    MatchType = 1;
-                else {
-                    if (NumberBaseOpt.isNumber(slOperand.get(0))) {
-                        dbtemp = NumberBaseOpt.castObjectToDouble(slOperand.get(0));
-                        MatchType = 2;
-                    }
-                }
-                int i = 1;
-                for (; i + 1 < nOpSum; i += 2) {
-                    if (MatchType == 1) {
-                        if (BooleanBaseOpt.castObjectToBoolean(slOperand.get(i), false))
-                            return slOperand.get(i + 1);
-                    } else if (MatchType == 2) {
-                        if (NumberBaseOpt.isNumber(slOperand.get(i))) {
-                            if (Math.abs(dbtemp -
-                                NumberBaseOpt.castObjectToDouble(slOperand.get(i))) < COMPARE_MIN_DOUBLE)
-                                return slOperand.get(i + 1);
-                        }
-                    } else {
-                        if (tempStr.equals(StringBaseOpt.objectToString(slOperand.get(i))))
-                            return slOperand.get(i + 1);
-                    }
+                Object caseValue = slOperand.get(0);
+                int matchType = getCaseMatchType(caseValue);
+                for (int i = 1; i + 1 < nOpSum; i += 2) {
+                    if (isCaseMatched(caseValue, matchType, slOperand.get(i)))
+                        return slOperand.get(i + 1);
                 }
                 if (nOpSum % 2 == 0)
                     return slOperand.get(nOpSum - 1);
                 return null;
             }
             case ConstDefine.FUNC_CURRENT_DATE: {//
-                return DatetimeOpt.truncateToDay(DatetimeOpt.currentUtilDate());
+                return new Date(DatetimeOpt.truncateToDay(System.currentTimeMillis()));
             }
 
             case ConstDefine.FUNC_CURRENT_DATETIME: { // 包括时间
@@ -616,22 +610,13 @@ public abstract class EmbedFunc {
             }
 
             case ConstDefine.FUNC_DAY: {//
-                Date dt = (nOpSum > 0) ? DatetimeOpt.castObjectToDate(slOperand.get(0)) : null;
-                if (dt == null)
-                    dt = DatetimeOpt.currentUtilDate();
-                return DatetimeOpt.getDay(dt);
+                return day(nOpSum > 0 ? slOperand.get(0) : null);
             }
             case ConstDefine.FUNC_MONTH: {//
-                Date dt = (nOpSum > 0) ? DatetimeOpt.castObjectToDate(slOperand.get(0)) : null;
-                if (dt == null)
-                    dt = DatetimeOpt.currentUtilDate();
-                return DatetimeOpt.getMonth(dt);
+                return month(nOpSum > 0 ? slOperand.get(0) : null);
             }
             case ConstDefine.FUNC_YEAR: {//
-                Date dt = (nOpSum > 0) ? DatetimeOpt.castObjectToDate(slOperand.get(0)) : null;
-                if (dt == null)
-                    dt = DatetimeOpt.currentUtilDate();
-                return DatetimeOpt.getYear(dt);
+                return year(nOpSum > 0 ? slOperand.get(0) : null);
             }
 
             case ConstDefine.FUNC_WEEK: {//
@@ -643,10 +628,7 @@ public abstract class EmbedFunc {
             }
 
             case ConstDefine.FUNC_WEEK_DAY: {//
-                Date dt = (nOpSum > 0) ? DatetimeOpt.castObjectToDate(slOperand.get(0)) : null;
-                if (dt == null)
-                    dt = DatetimeOpt.currentUtilDate();
-                return DatetimeOpt.getDayOfWeek(dt);
+                return weekday(nOpSum > 0 ? slOperand.get(0) : null);
             }
 
             case ConstDefine.FUNC_FORMAT_DATE: {//
@@ -672,47 +654,35 @@ public abstract class EmbedFunc {
 
             case ConstDefine.FUNC_DAY_SPAN: {//
                 if (nOpSum < 2) return null;
-                Date dt = DatetimeOpt.castObjectToDate(slOperand.get(0));
-                Date dt2 = DatetimeOpt.castObjectToDate(slOperand.get(1));
-                if (dt == null || dt2 == null)
-                    return null;
-                return DatetimeOpt.calcSpanDays(dt, dt2);
+                return daySpan(slOperand.get(0), slOperand.get(1));
             }
             case ConstDefine.FUNC_DATE_SPAN: {//
                 if (nOpSum < 2) return null;
-                Date dt = DatetimeOpt.castObjectToDate(slOperand.get(0));
-                Date dt2 = DatetimeOpt.castObjectToDate(slOperand.get(1));
-                if (dt == null || dt2 == null)
-                    return null;
-                return DatetimeOpt.calcDateSpan(dt, dt2);
+                return dateSpan(slOperand.get(0), slOperand.get(1));
             }
             case ConstDefine.FUNC_ADD_DATE: {//
-                LeftRightPair<Date, Object> dateOpt = fetchDateOpt(nOpSum, slOperand);
-                if (dateOpt.getLeft() == null || dateOpt.getRight() == null)
-                    return null;
-                return DatetimeOpt.addDays(dateOpt.getLeft(),
-                    NumberBaseOpt.castObjectToFloat(dateOpt.getRight()));
+                if (nOpSum < 1) return null;
+                // 只有一个参数时为当前时间加上这个数
+                return nOpSum == 1 ? addDate(DatetimeOpt.currentUtilDate(), slOperand.get(0)) :
+                    addDate(slOperand.get(0), slOperand.get(1));
             }
             case ConstDefine.FUNC_ADD_DAYS: {//
-                LeftRightPair<Date, Object> dateOpt = fetchDateOpt(nOpSum, slOperand);
-                if (dateOpt.getLeft() == null || dateOpt.getRight() == null)
-                    return null;
-                return DatetimeOpt.addDays(dateOpt.getLeft(),
-                    NumberBaseOpt.castObjectToInteger(dateOpt.getRight()));
+                if (nOpSum < 1) return null;
+                // 只有一个参数时为当前时间加上这个数
+                return nOpSum == 1 ? addDays(DatetimeOpt.currentUtilDate(), slOperand.get(0)) :
+                    addDays(slOperand.get(0), slOperand.get(1));
             }
             case ConstDefine.FUNC_ADD_MONTHS: {//
-                LeftRightPair<Date, Object> dateOpt = fetchDateOpt(nOpSum, slOperand);
-                if (dateOpt.getLeft() == null || dateOpt.getRight() == null)
-                    return null;
-                return DatetimeOpt.addMonths(dateOpt.getLeft(),
-                    NumberBaseOpt.castObjectToInteger(dateOpt.getRight()));
+                if (nOpSum < 1) return null;
+                // 只有一个参数时为当前时间加上这个数
+                return nOpSum == 1 ? addMonths(DatetimeOpt.currentUtilDate(), slOperand.get(0)) :
+                    addMonths(slOperand.get(0), slOperand.get(1));
             }
             case ConstDefine.FUNC_ADD_YEARS: {//
-                LeftRightPair<Date, Object> dateOpt = fetchDateOpt(nOpSum, slOperand);
-                if (dateOpt.getLeft() == null || dateOpt.getRight() == null)
-                    return null;
-                return DatetimeOpt.addYears(dateOpt.getLeft(),
-                    NumberBaseOpt.castObjectToInteger(dateOpt.getRight()));
+                if (nOpSum < 1) return null;
+                // 只有一个参数时为当前时间加上这个数
+                return nOpSum == 1 ? addYears(DatetimeOpt.currentUtilDate(), slOperand.get(0)) :
+                    addYears(slOperand.get(0), slOperand.get(1));
             }
 
             case ConstDefine.FUNC_TRUNC_DATE: {//
@@ -730,18 +700,18 @@ public abstract class EmbedFunc {
                 }
                 String tempStr = StringBaseOpt.objectToString(ti);
                 if ("M".equalsIgnoreCase(tempStr))
-                    return DatetimeOpt.truncateToMonth(dt);
+                    return new Date(DatetimeOpt.truncateToMonth(dt.getTime()));
                 else if ("Y".equalsIgnoreCase(tempStr))
-                    return DatetimeOpt.truncateToYear(dt);
+                    return new Date(DatetimeOpt.truncateToYear(dt.getTime()));
                 else
-                    return DatetimeOpt.truncateToDay(dt);
+                    return new Date(DatetimeOpt.truncateToDay(dt.getTime()));
             }
 
             case ConstDefine.FUNC_LAST_OF_MONTH: {//
                 Date dt = (nOpSum > 0) ? DatetimeOpt.castObjectToDate(slOperand.get(0)) : null;
                 if (dt == null)
                     dt = DatetimeOpt.currentUtilDate();
-                return DatetimeOpt.seekEndOfMonth(dt);
+                return new Date(DatetimeOpt.seekEndOfMonth(dt.getTime()));
             }
 
             case ConstDefine.FUNC_TO_DATE: {//
@@ -763,22 +733,14 @@ public abstract class EmbedFunc {
                 if (nOpSum < 1) {
                     return null;
                 }
-                String svalue = StringBaseOpt.castObjectToString(slOperand.get(0));
-                if (StringUtils.isBlank(svalue) && nOpSum > 1) {
-                    return slOperand.get(1);
-                }
-                return svalue;
+                return nOpSum > 1 ? toStr(slOperand.get(0), slOperand.get(1)) : toStr(slOperand.get(0));
             }
 
             case ConstDefine.FUNC_TO_NUMBER: {//
                 if (nOpSum < 1) {
                     return null;
                 }
-                Number num = NumberBaseOpt.castObjectToNumber(slOperand.get(0));
-                if (num == null && nOpSum > 1) {
-                    return slOperand.get(1);
-                }
-                return num;
+                return toNumber(slOperand.get(0), nOpSum > 1 ? slOperand.get(1) : null);
             }
 
             case ConstDefine.FUNC_GET_PY://
@@ -792,4 +754,214 @@ public abstract class EmbedFunc {
         }
         return null;
     }
+
+    /*
+     * 以下是常用内置函数的实现，参数个数固定，runFuncWithObject 和 FormulaCodeGenerator 都直接调用，
+     * 生成的 MethodHandle 绑定到这些方法上，不经过 runFuncWithObject 的 switch 分派，也不用把参数打包为列表；
+     * 可选的参数为 null 时和不传这个参数的结果一样
+     */
+
+    static Object round(Object value, Object pos) {
+        if (!NumberBaseOpt.isNumber(value))
+            return value;
+        Double tempDouble = NumberBaseOpt.castObjectToDouble(value);
+        int nPos = NumberBaseOpt.castObjectToInteger(pos, 0);
+        if (nPos != 0) {
+            return NumberBaseOpt.round(tempDouble, nPos);
+        }
+        return Math.round(tempDouble);
+    }
+
+    static Object floor(Object value, Object pos) {
+        if (!NumberBaseOpt.isNumber(value))
+            return value;
+        Double tempDouble = NumberBaseOpt.castObjectToDouble(value);
+        int nPos = NumberBaseOpt.castObjectToInteger(pos, 0);
+        if (nPos != 0) {
+            return NumberBaseOpt.floor(tempDouble, nPos);
+        }
+        return Double.valueOf(Math.floor(tempDouble)).longValue();
+    }
+
+    static Object ceil(Object value, Object pos) {
+        if (!NumberBaseOpt.isNumber(value))
+            return value;
+        Double tempDouble = NumberBaseOpt.castObjectToDouble(value);
+        int nPos = NumberBaseOpt.castObjectToInteger(pos, 0);
+        if (nPos != 0) {
+            return NumberBaseOpt.ceil(tempDouble, nPos);
+        }
+        return Double.valueOf(Math.ceil(tempDouble)).longValue();
+    }
+
+    static Object toInt(Object value) {
+        if (!NumberBaseOpt.isNumber(value))
+            return value;
+        return NumberBaseOpt.castObjectToInteger(value);
+    }
+
+    static Object frac(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        Double af = NumberBaseOpt.castObjectToDouble(value);
+        return af - af.intValue();
+    }
+
+    static Object ln(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.log(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object log(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.log10(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object sin(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.sin(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object cos(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.cos(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object tan(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.tan(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object ctan(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.atan(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object exp(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.exp(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object sqrt(Object value) {
+        if (!NumberBaseOpt.isNumber(value)) return null;
+        return Math.sqrt(NumberBaseOpt.castObjectToDouble(value));
+    }
+
+    static Object upcase(Object value) {
+        return StringUtils.upperCase(StringBaseOpt.objectToString(value));
+    }
+
+    static Object lowcase(Object value) {
+        return StringUtils.lowerCase(StringBaseOpt.objectToString(value));
+    }
+
+    static Object isEmpty(Object value) {
+        return value == null || StringUtils.isBlank(StringBaseOpt.objectToString(value));
+    }
+
+    static Object isNotEmpty(Object value) {
+        return value != null && StringUtils.isNotBlank(StringBaseOpt.objectToString(value));
+    }
+
+    static Object substr(Object value, Object start, Object length) {
+        if (value == null)
+            return null;
+        int nStart = 0, nLength;
+        if (NumberBaseOpt.isNumber(start))
+            nStart = NumberBaseOpt.castObjectToInteger(start);
+        String tempStr = StringBaseOpt.objectToString(value);
+        if (NumberBaseOpt.isNumber(length))
+            nLength = NumberBaseOpt.castObjectToInteger(length);
+        else
+            nLength = tempStr.length();
+
+        if (nLength <= 0)
+            nLength = 1;
+
+        return tempStr.substring(nStart, nStart + nLength);
+    }
+
+    static Object toStr(Object value) {
+        return StringBaseOpt.castObjectToString(value);
+    }
+
+    static Object toStr(Object value, Object defaultValue) {
+        String svalue = StringBaseOpt.castObjectToString(value);
+        if (StringUtils.isBlank(svalue)) {
+            return defaultValue;
+        }
+        return svalue;
+    }
+
+    static Object toNumber(Object value, Object defaultValue) {
+        Number num = NumberBaseOpt.castObjectToNumber(value);
+        if (num == null) {
+            return defaultValue;
+        }
+        return num;
+    }
+
+    private static Date dateOrNow(Object value) {
+        Date dt = DatetimeOpt.castObjectToDate(value);
+        return dt == null ? DatetimeOpt.currentUtilDate() : dt;
+    }
+
+    static Object day(Object date) {
+        return DatetimeOpt.getDay(dateOrNow(date).getTime());
+    }
+
+    static Object month(Object date) {
+        return DatetimeOpt.getMonth(dateOrNow(date).getTime());
+    }
+
+    static Object year(Object date) {
+        return DatetimeOpt.getYear(dateOrNow(date).getTime());
+    }
+
+    static Object weekday(Object date) {
+        return DatetimeOpt.getDayOfWeek(dateOrNow(date).getTime());
+    }
+
+    static Object daySpan(Object beginDate, Object endDate) {
+        Date dt = DatetimeOpt.castObjectToDate(beginDate);
+        Date dt2 = DatetimeOpt.castObjectToDate(endDate);
+        if (dt == null || dt2 == null)
+            return null;
+        return DatetimeOpt.calcSpanDays(dt.getTime(), dt2.getTime());
+    }
+
+    static Object dateSpan(Object beginDate, Object endDate) {
+        Date dt = DatetimeOpt.castObjectToDate(beginDate);
+        Date dt2 = DatetimeOpt.castObjectToDate(endDate);
+        if (dt == null || dt2 == null)
+            return null;
+        return DatetimeOpt.calcDateSpan(dt.getTime(), dt2.getTime());
+    }
+
+    static Object addDate(Object date, Object days) {
+        Date dt = DatetimeOpt.castObjectToDate(date);
+        if (dt == null || !NumberBaseOpt.isNumber(days))
+            return null;
+        return new Date(DatetimeOpt.addDays(dt.getTime(), NumberBaseOpt.castObjectToFloat(days)));
+    }
+
+    static Object addDays(Object date, Object days) {
+        Date dt = DatetimeOpt.castObjectToDate(date);
+        if (dt == null || !NumberBaseOpt.isNumber(days))
+            return null;
+        return new Date(DatetimeOpt.addDays(dt.getTime(), NumberBaseOpt.castObjectToInteger(days)));
+    }
+
+    static Object addMonths(Object date, Object months) {
+        Date dt = DatetimeOpt.castObjectToDate(date);
+        if (dt == null || !NumberBaseOpt.isNumber(months))
+            return null;
+        return new Date(DatetimeOpt.addMonths(dt.getTime(), NumberBaseOpt.castObjectToInteger(months)));
+    }
+
+    static Object addYears(Object date, Object years) {
+        Date dt = DatetimeOpt.castObjectToDate(date);
+        if (dt == null || !NumberBaseOpt.isNumber(years))
+            return null;
+        return new Date(DatetimeOpt.addYears(dt.getTime(), NumberBaseOpt.castObjectToInteger(years)));
+    }
 }
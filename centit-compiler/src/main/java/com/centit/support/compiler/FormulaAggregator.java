@@ -0,0 +1,574 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.GeneralAlgorithm;
+import com.centit.support.algorithm.NumberBaseOpt;
+import com.centit.support.algorithm.StringBaseOpt;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * 分组汇总，类似 sql 的 group by，分组字段和汇总字段都用表达式描述
+ * 比如 分组 dept -》 deptCode ，汇总 total -》 sum(amount * price)、avgPrice -》 round(ave(price), 2)
+ * <p>
+ * 汇总表达式中的 sum 、ave 、max 、min 、count 、countnotnull 、countnull 和 stddev 是聚合函数，
+ * 它们的参数对每一条记录求值，和 EmbedFunc 中一样展开数组和集合，结果累加到每个分组的累加器中，不保存记录；
+ * 没有参数的 count() 统计记录数；
+ * 聚合函数以外的部分在汇总结束后求值，其中的变量取分组字段的值
+ * <p>
+ * 记录逐条通过 Partial.add 输入，多个 Partial 可以分别在不同的线程中累加，最后用 merge 合并；
+ * 对象不可变，可以在多个线程中共用，Partial 不是线程安全的
+ */
+public final class FormulaAggregator {
+
+    private final String[] keyNames;
+    private final FormulaNode[] keyFormulas;
+    private final String[] aggregateNames;
+    /**
+     * 汇总表达式中聚合函数以外的部分，聚合函数被替换为 AggregateNode
+     */
+    private final FormulaNode[] aggregateFormulas;
+    /**
+     * 每个聚合函数的函数ID和参数
+     */
+    private final int[] aggregateFuncs;
+    private final FormulaNode[][] aggregateParams;
+
+    private FormulaAggregator(String[] keyNames, FormulaNode[] keyFormulas,
+                              String[] aggregateNames, FormulaNode[] aggregateFormulas,
+                              int[] aggregateFuncs, FormulaNode[][] aggregateParams) {
+        this.keyNames = keyNames;
+        this.keyFormulas = keyFormulas;
+        this.aggregateNames = aggregateNames;
+        this.aggregateFormulas = aggregateFormulas;
+        this.aggregateFuncs = aggregateFuncs;
+        this.aggregateParams = aggregateParams;
+    }
+
+    /**
+     * @param groupKeys  分组字段名 -》 表达式，为空时所有记录为一组
+     * @param aggregates 汇总字段名 -》 表达式
+     * @return 编译后的分组汇总
+     */
+    public static FormulaAggregator compile(Map<String, String> groupKeys, Map<String, String> aggregates) {
+        return compile(groupKeys, aggregates, null);
+    }
+
+    /**
+     * @param groupKeys     分组字段名 -》 表达式，为空时所有记录为一组
+     * @param aggregates    汇总字段名 -》 表达式
+     * @param extendFuncMap 扩展函数
+     * @return 编译后的分组汇总
+     */
+    public static FormulaAggregator compile(Map<String, String> groupKeys, Map<String, String> aggregates,
+                                            Map<String, Function<Object[], Object>> extendFuncMap) {
+        int keyCount = groupKeys == null ? 0 : groupKeys.size();
+        String[] keyNames = new String[keyCount];
+        FormulaNode[] keyFormulas = new FormulaNode[keyCount];
+        int n = 0;
+        if (groupKeys != null) {
+            for (Map.Entry<String, String> ent : groupKeys.entrySet()) {
+                keyNames[n] = ent.getKey();
+                keyFormulas[n] = VariableFormula.compile(ent.getValue(), extendFuncMap).getRoot();
+                n++;
+            }
+        }
+        String[] aggregateNames = new String[aggregates.size()];
+        FormulaNode[] aggregateFormulas = new FormulaNode[aggregates.size()];
+        List<FormulaNode.FunctionNode> funcNodes = new ArrayList<>();
+        n = 0;
+        for (Map.Entry<String, String> ent : aggregates.entrySet()) {
+            aggregateNames[n] = ent.getKey();
+            // 先替换聚合函数再优化，避免 count() 这样的调用被当作常量折叠
+            FormulaNode root = new FormulaParser(ent.getValue(), extendFuncMap).parseFormula();
+            aggregateFormulas[n] = FormulaOptimizer.optimize(replaceAggregates(root, funcNodes));
+            n++;
+        }
+        int[] aggregateFuncs = new int[funcNodes.size()];
+        FormulaNode[][] aggregateParams = new FormulaNode[funcNodes.size()][];
+        for (int i = 0; i < aggregateFuncs.length; i++) {
+            FormulaNode.FunctionNode funcNode = funcNodes.get(i);
+            aggregateFuncs[i] = funcNode.getFuncInfo().nFuncID;
+            List<FormulaNode> params = funcNode.getOperands();
+            aggregateParams[i] = new FormulaNode[params.size()];
+            for (int j = 0; j < params.size(); j++) {
+                aggregateParams[i][j] = FormulaOptimizer.optimize(params.get(j));
+            }
+        }
+        return new FormulaAggregator(keyNames, keyFormulas, aggregateNames, aggregateFormulas,
+            aggregateFuncs, aggregateParams);
+    }
+
+    private static boolean isAggregateFunc(int funcID) {
+        switch (funcID) {
+            case ConstDefine.FUNC_SUM:
+            case ConstDefine.FUNC_AVE:
+            case ConstDefine.FUNC_MAX:
+            case ConstDefine.FUNC_MIN:
+            case ConstDefine.FUNC_COUNT:
+            case ConstDefine.FUNC_COUNTNOTNULL:
+            case ConstDefine.FUNC_COUNTNULL:
+            case ConstDefine.FUNC_STDDEV:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static FormulaNode replaceAggregates(FormulaNode node, List<FormulaNode.FunctionNode> funcNodes) {
+        if (node instanceof FormulaNode.FunctionNode &&
+            isAggregateFunc(((FormulaNode.FunctionNode) node).getFuncInfo().nFuncID)) {
+            funcNodes.add((FormulaNode.FunctionNode) node);
+            return new AggregateNode(funcNodes.size() - 1);
+        }
+        List<FormulaNode> operands = node.getOperands();
+        if (operands.isEmpty()) {
+            return node;
+        }
+        List<FormulaNode> newOperands = new ArrayList<>(operands.size());
+        for (FormulaNode operand : operands) {
+            newOperands.add(replaceAggregates(operand, funcNodes));
+        }
+        return FormulaOptimizer.rebuild(node, newOperands);
+    }
+
+    /**
+     * @return 新的累加状态
+     */
+    public Partial newPartial() {
+        return new Partial();
+    }
+
+    /**
+     * 汇总所有记录，记录数超过 CompiledFormula.getParallelThreshold 时分段并行累加后合并
+     *
+     * @param rows 记录列表，记录可以是 Map 、JSON 或者 Pojo
+     * @return 每个分组一条结果，按分组第一次出现的顺序排列
+     */
+    public List<Map<String, Object>> aggregate(List<?> rows) {
+        int threshold = CompiledFormula.getParallelThreshold();
+        if (threshold <= 0 || rows.size() < threshold) {
+            return newPartial().addAll(rows).getResult();
+        }
+        int batchSize = Math.max(threshold / 4, 1024);
+        return ForkJoinPool.commonPool().invoke(new AggregateTask(rows, 0, rows.size(), batchSize)).getResult();
+    }
+
+    /**
+     * 逐条汇总，适合数据库游标等流式的数据，不需要把记录都保存在内存中
+     *
+     * @param rows 记录
+     * @return 每个分组一条结果，按分组第一次出现的顺序排列
+     */
+    public List<Map<String, Object>> aggregate(Iterator<?> rows) {
+        Partial partial = newPartial();
+        while (rows.hasNext()) {
+            partial.add(rows.next());
+        }
+        return partial.getResult();
+    }
+
+    /**
+     * 分组值中的整数统一为 Long ，避免 1 和 1L 被分为两组
+     */
+    private static Object normalizeKey(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    /**
+     * 累加状态，记录逐条累加到每个分组的累加器中
+     */
+    public final class Partial {
+        private final Map<List<Object>, Accumulator[]> groups = new LinkedHashMap<>();
+        private final ObjectTranslate rowTrans = new ObjectTranslate();
+        /**
+         * 展开后的参数值，逐条记录复用
+         */
+        private final List<Object> flatValues = new ArrayList<>();
+
+        private Partial() {
+        }
+
+        private Accumulator[] newAccumulators() {
+            Accumulator[] accumulators = new Accumulator[aggregateFuncs.length];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = Accumulator.create(aggregateFuncs[i]);
+            }
+            return accumulators;
+        }
+
+        /**
+         * @param row 一条记录，可以是 Map 、JSON 或者 Pojo
+         * @return this
+         */
+        public Partial add(Object row) {
+            rowTrans.setVarObject(row);
+            List<Object> key;
+            if (keyFormulas.length == 0) {
+                key = Collections.emptyList();
+            } else {
+                Object[] keyValues = new Object[keyFormulas.length];
+                for (int i = 0; i < keyFormulas.length; i++) {
+                    keyValues[i] = normalizeKey(keyFormulas[i].evaluate(rowTrans));
+                }
+                key = Arrays.asList(keyValues);
+            }
+            Accumulator[] accumulators = groups.get(key);
+            if (accumulators == null) {
+                accumulators = newAccumulators();
+                groups.put(key, accumulators);
+            }
+            for (int i = 0; i < accumulators.length; i++) {
+                FormulaNode[] params = aggregateParams[i];
+                if (params.length == 0) {
+                    accumulators[i].add(null);
+                } else {
+                    flatValues.clear();
+                    for (FormulaNode param : params) {
+                        EmbedFunc.flatOperand(param.evaluate(rowTrans), flatValues);
+                    }
+                    for (Object value : flatValues) {
+                        accumulators[i].add(value);
+                    }
+                }
+            }
+            return this;
+        }
+
+        public Partial addAll(Iterable<?> rows) {
+            for (Object row : rows) {
+                add(row);
+            }
+            return this;
+        }
+
+        /**
+         * 合并另一个累加状态，other 的分组排在后面
+         *
+         * @param other 同一个 FormulaAggregator 创建的累加状态
+         * @return this
+         */
+        public Partial merge(Partial other) {
+            for (Map.Entry<List<Object>, Accumulator[]> ent : other.groups.entrySet()) {
+                Accumulator[] accumulators = groups.get(ent.getKey());
+                if (accumulators == null) {
+                    groups.put(ent.getKey(), ent.getValue());
+                } else {
+                    Accumulator[] others = ent.getValue();
+                    for (int i = 0; i < accumulators.length; i++) {
+                        accumulators[i].merge(others[i]);
+                    }
+                }
+            }
+            return this;
+        }
+
+        public int getGroupCount() {
+            return groups.size();
+        }
+
+        /**
+         * @return 每个分组一条结果，包括分组字段和汇总字段；没有分组字段时总是返回一条结果
+         */
+        public List<Map<String, Object>> getResult() {
+            Map<List<Object>, Accumulator[]> results = groups;
+            if (keyFormulas.length == 0 && results.isEmpty()) {
+                results = Collections.singletonMap(Collections.emptyList(), newAccumulators());
+            }
+            List<Map<String, Object>> rows = new ArrayList<>(results.size());
+            for (Map.Entry<List<Object>, Accumulator[]> ent : results.entrySet()) {
+                Map<String, Object> row = new LinkedHashMap<>((keyNames.length + aggregateNames.length) * 2);
+                List<Object> key = ent.getKey();
+                for (int i = 0; i < keyNames.length; i++) {
+                    row.put(keyNames[i], key.get(i));
+                }
+                Object[] values = new Object[ent.getValue().length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = ent.getValue()[i].result();
+                }
+                ResultTranslate trans = new ResultTranslate(row, values);
+                for (int i = 0; i < aggregateNames.length; i++) {
+                    row.put(aggregateNames[i], aggregateFormulas[i].evaluate(trans));
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+
+    private final class AggregateTask extends RecursiveTask<Partial> {
+        private final List<?> rows;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+
+        AggregateTask(List<?> rows, int from, int to, int batchSize) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= batchSize) {
+                return newPartial().addAll(rows.subList(from, to));
+            }
+            int mid = (from + to) >>> 1;
+            AggregateTask right = new AggregateTask(rows, mid, to, batchSize);
+            right.fork();
+            Partial left = new AggregateTask(rows, from, mid, batchSize).compute();
+            return left.merge(right.join());
+        }
+    }
+
+    /**
+     * 汇总结束后求值，聚合函数取累加器的结果，变量取分组字段的值
+     */
+    private static final class ResultTranslate implements VariableTranslate {
+        private final Map<String, Object> row;
+        private final Object[] values;
+
+        ResultTranslate(Map<String, Object> row, Object[] values) {
+            this.row = row;
+            this.values = values;
+        }
+
+        @Override
+        public Object getVarValue(String varName) {
+            return row.get(varName);
+        }
+    }
+
+    /**
+     * 汇总表达式中的聚合函数
+     */
+    private static final class AggregateNode extends FormulaNode {
+        private final int slot;
+
+        AggregateNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            return trans instanceof ResultTranslate ? ((ResultTranslate) trans).values[slot] : null;
+        }
+    }
+
+    /**
+     * 聚合函数的累加器，空值的处理和结果的类型和 EmbedFunc 中对应的函数一致
+     */
+    private abstract static class Accumulator {
+        abstract void add(Object value);
+
+        abstract void merge(Accumulator other);
+
+        abstract Object result();
+
+        static Accumulator create(int funcID) {
+            switch (funcID) {
+                case ConstDefine.FUNC_SUM:
+                    return new SumAccumulator();
+                case ConstDefine.FUNC_AVE:
+                    return new AveAccumulator();
+                case ConstDefine.FUNC_MAX:
+                    return new ExtremeAccumulator(true);
+                case ConstDefine.FUNC_MIN:
+                    return new ExtremeAccumulator(false);
+                case ConstDefine.FUNC_STDDEV:
+                    return new StddevAccumulator();
+                default:
+                    return new CountAccumulator(funcID);
+            }
+        }
+    }
+
+    /**
+     * 整数按 Long 累加，避免大量记录求和时溢出；
+     * 参数都是 Integer 并且结果没有超出 int 范围时和 EmbedFunc 一样返回 Integer
+     */
+    private static final class SumAccumulator extends Accumulator {
+        private Object sum;
+        private boolean intOnly = true;
+
+        @Override
+        void add(Object value) {
+            if (value == null) {
+                return;
+            }
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                value = ((Number) value).longValue();
+            } else {
+                intOnly = false;
+            }
+            sum = sum == null ? value : GeneralAlgorithm.addTwoObject(sum, value);
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            SumAccumulator o = (SumAccumulator) other;
+            if (o.sum != null) {
+                boolean bothIntOnly = intOnly && o.intOnly;
+                add(o.sum);
+                intOnly = bothIntOnly;
+            }
+        }
+
+        @Override
+        Object result() {
+            if (intOnly && sum instanceof Long) {
+                long value = (Long) sum;
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+            }
+            return sum;
+        }
+    }
+
+    private static final class AveAccumulator extends Accumulator {
+        private double sum;
+        private long count;
+
+        @Override
+        void add(Object value) {
+            Double db = NumberBaseOpt.castObjectToDouble(value);
+            if (db != null) {
+                sum += db;
+                count++;
+            }
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            sum += ((AveAccumulator) other).sum;
+            count += ((AveAccumulator) other).count;
+        }
+
+        @Override
+        Object result() {
+            return count > 0 ? sum / count : null;
+        }
+    }
+
+    private static final class ExtremeAccumulator extends Accumulator {
+        private final boolean max;
+        private Object value;
+
+        ExtremeAccumulator(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void add(Object other) {
+            if (other == null) {
+                return;
+            }
+            if (value == null) {
+                value = other;
+                return;
+            }
+            int cmp = FormulaOperators.compare(other, value);
+            if (max ? cmp > 0 : cmp < 0) {
+                value = other;
+            }
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            add(((ExtremeAccumulator) other).value);
+        }
+
+        @Override
+        Object result() {
+            return value;
+        }
+    }
+
+    /**
+     * count 、countnotnull 和 countnull，和 EmbedFunc 一样返回 Integer
+     */
+    private static final class CountAccumulator extends Accumulator {
+        private final int funcID;
+        private int count;
+
+        CountAccumulator(int funcID) {
+            this.funcID = funcID;
+        }
+
+        private static boolean isBlank(Object value) {
+            if (value == null) {
+                return true;
+            }
+            String s = StringBaseOpt.objectToString(value);
+            return StringUtils.isBlank(s) || "''".equals(s) || "\"\"".equals(s);
+        }
+
+        @Override
+        void add(Object value) {
+            if (funcID == ConstDefine.FUNC_COUNT ||
+                (funcID == ConstDefine.FUNC_COUNTNULL) == isBlank(value)) {
+                count++;
+            }
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            count += ((CountAccumulator) other).count;
+        }
+
+        @Override
+        Object result() {
+            return count;
+        }
+    }
+
+    /**
+     * 样本标准差，用 Welford 算法逐条累加，合并时按分组的均值和方差合并
+     */
+    private static final class StddevAccumulator extends Accumulator {
+        private long count;
+        private double mean;
+        private double m2;
+
+        @Override
+        void add(Object value) {
+            if (!NumberBaseOpt.isNumber(value)) {
+                return;
+            }
+            double x = NumberBaseOpt.castObjectToDouble(value, 0.0);
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            StddevAccumulator o = (StddevAccumulator) other;
+            if (o.count == 0) {
+                return;
+            }
+            long total = count + o.count;
+            double delta = o.mean - mean;
+            m2 += o.m2 + delta * delta * count * o.count / total;
+            mean += delta * o.count / total;
+            count = total;
+        }
+
+        @Override
+        Object result() {
+            if (count < 2) {
+                return 0;
+            }
+            return Math.sqrt(m2 / (count - 1));
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.BooleanBaseOpt;
+import com.centit.support.algorithm.CollectionsOpt;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/**
+ * 将表达式语法树转换为 MethodHandle 树，类型为 (VariableTranslate)Object
+ * 运算符直接绑定到 FormulaOperators 中对应的方法，常用的内置函数（见 DIRECT_FUNCS）按参数个数
+ * 直接绑定到 EmbedFunc 中对应的静态方法，MethodHandle 被 JIT 定制后可以整体内联；
+ * 其他内置函数仍然通过 FunctionNode.call 进入 EmbedFunc.runFuncWithObject 的 switch 分派，
+ * 每次调用要把参数打包为数组和列表，这部分没有优化。求值的顺序和结果与语法树解释执行完全一致
+ * 短路运算、if 、case 和 in 只计算需要的运算项，和语法树一样；
+ * 不认识的节点回退为调用节点自身的 evaluate
+ */
+abstract class FormulaCodeGenerator {
+
+    /**
+     * MethodHandle 的参数个数不能超过 255，参数过多的节点回退为解释执行
+     */
+    private static final int MAX_OPERANDS = 200;
+
+    private static final MethodType EVALUATE_TYPE =
+        MethodType.methodType(Object.class, VariableTranslate.class);
+    private static final MethodType BINARY_TYPE =
+        MethodType.methodType(Object.class, Object.class, Object.class);
+
+    private static final MethodHandle NODE_EVALUATE;
+    private static final MethodHandle NOT_OPT;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle IS_TRUE;
+    private static final MethodHandle MATCH_ITEM;
+    private static final MethodHandle TO_LIST;
+    private static final MethodHandle RUN_FUNC;
+    private static final MethodHandle RUN_EXTEND_FUNC;
+    private static final MethodHandle SAMPLE_FUNCTION;
+    private static final MethodHandle RECORD_FUNCTION;
+    private static final MethodHandle NANO_TIME;
+    /**
+     * 直接绑定的内置函数，函数编号 -》 按参数个数排列的 MethodHandle（类型为 (Object...)Object）
+     */
+    private static final Map<Integer, MethodHandle[]> DIRECT_FUNCS;
+    private static final Map<Integer, MethodHandle> OPERATORS;
+    /**
+     * 短路运算符对左边运算项的判断，判断为真时结果为 SHORT_CIRCUIT_VALUES 中对应的值
+     */
+    private static final Map<Integer, MethodHandle> SHORT_CIRCUIT_TESTS;
+    private static final Map<Integer, Boolean> SHORT_CIRCUIT_VALUES;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            NODE_EVALUATE = lookup.findVirtual(FormulaNode.class, "evaluate", EVALUATE_TYPE);
+            NOT_OPT = lookup.findStatic(FormulaCodeGenerator.class, "not",
+                MethodType.methodType(Object.class, Object.class));
+            IS_NULL = lookup.findStatic(Objects.class, "isNull",
+                MethodType.methodType(boolean.class, Object.class));
+            IS_TRUE = lookup.findStatic(FormulaCodeGenerator.class, "isTrue",
+                MethodType.methodType(boolean.class, Object.class));
+            MATCH_ITEM = lookup.findStatic(FormulaNode.InNode.class, "matchItem",
+                MethodType.methodType(boolean.class, Object.class, Object.class));
+            TO_LIST = lookup.findStatic(FormulaCodeGenerator.class, "toList",
+                MethodType.methodType(Object.class, Object[].class));
+            RUN_FUNC = lookup.findStatic(FormulaCodeGenerator.class, "runFunc",
+                MethodType.methodType(Object.class, FormulaNode.FunctionNode.class, Object[].class));
+            RUN_EXTEND_FUNC = lookup.findStatic(FormulaCodeGenerator.class, "runExtendFunc",
+                MethodType.methodType(Object.class, FormulaNode.ExtendFuncNode.class, Object[].class));
+            SAMPLE_FUNCTION = lookup.findStatic(FormulaCodeGenerator.class, "sampleFunction",
+                MethodType.methodType(boolean.class));
+            RECORD_FUNCTION = lookup.findStatic(FormulaCodeGenerator.class, "recordFunction",
+                MethodType.methodType(Object.class, String.class, long.class, Object.class));
+            NANO_TIME = lookup.findStatic(System.class, "nanoTime", MethodType.methodType(long.class));
+
+            Map<Integer, MethodHandle[]> funcs = new HashMap<>(64);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ROUND, "round", 1, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_FLOOR, "floor", 1, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_CEIL, "ceil", 1, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_INT, "toInt", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_FRAC, "frac", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_LN, "ln", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_LOG, "log", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_SIN, "sin", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_COS, "cos", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_TAN, "tan", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_CTAN, "ctan", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_EXP, "exp", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_SQRT, "sqrt", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_UPCASE, "upcase", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_LOWCASE, "lowcase", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ISEMPTY, "isEmpty", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_NOTEMPTY, "isNotEmpty", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_SUBSTR, "substr", 2, 3);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_TO_STRING, "toStr", 1, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_TO_STRING, "toStr", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_TO_NUMBER, "toNumber", 1, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_DAY, "day", 0, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_MONTH, "month", 0, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_YEAR, "year", 0, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_WEEK_DAY, "weekday", 0, 1);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_DAY_SPAN, "daySpan", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_DATE_SPAN, "dateSpan", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ADD_DATE, "addDate", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ADD_DAYS, "addDays", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ADD_MONTHS, "addMonths", 2, 2);
+            bindFunc(lookup, funcs, ConstDefine.FUNC_ADD_YEARS, "addYears", 2, 2);
+            DIRECT_FUNCS = Collections.unmodifiableMap(funcs);
+
+            Map<Integer, MethodHandle> operators = new HashMap<>(32);
+            operators.put(ConstDefine.OP_LOGICOR, lookup.findStatic(FormulaOperators.class, "logicOr", BINARY_TYPE));
+            operators.put(ConstDefine.OP_AND, lookup.findStatic(FormulaOperators.class, "logicAnd", BINARY_TYPE));
+            operators.put(ConstDefine.OP_LOGICAND, operators.get(ConstDefine.OP_AND));
+            operators.put(ConstDefine.OP_OR, lookup.findStatic(FormulaOperators.class, "orOrConcat", BINARY_TYPE));
+            operators.put(ConstDefine.OP_ADD, lookup.findStatic(FormulaOperators.class, "add", BINARY_TYPE));
+            operators.put(ConstDefine.OP_SUB, lookup.findStatic(FormulaOperators.class, "subtract", BINARY_TYPE));
+            operators.put(ConstDefine.OP_MUL, lookup.findStatic(FormulaOperators.class, "multiply", BINARY_TYPE));
+            operators.put(ConstDefine.OP_DIV, lookup.findStatic(FormulaOperators.class, "divide", BINARY_TYPE));
+            operators.put(ConstDefine.OP_EQ, lookup.findStatic(FormulaOperators.class, "equal", BINARY_TYPE));
+            operators.put(ConstDefine.OP_BG, lookup.findStatic(FormulaOperators.class, "bigger", BINARY_TYPE));
+            operators.put(ConstDefine.OP_LT, lookup.findStatic(FormulaOperators.class, "less", BINARY_TYPE));
+            operators.put(ConstDefine.OP_EL, lookup.findStatic(FormulaOperators.class, "lessOrEqual", BINARY_TYPE));
+            operators.put(ConstDefine.OP_EB, lookup.findStatic(FormulaOperators.class, "biggerOrEqual", BINARY_TYPE));
+            operators.put(ConstDefine.OP_NE, lookup.findStatic(FormulaOperators.class, "notEqual", BINARY_TYPE));
+            operators.put(ConstDefine.OP_LMOV, lookup.findStatic(FormulaOperators.class, "leftMove", BINARY_TYPE));
+            operators.put(ConstDefine.OP_RMOV, lookup.findStatic(FormulaOperators.class, "rightMove", BINARY_TYPE));
+            operators.put(ConstDefine.OP_LIKE, lookup.findStatic(FormulaOperators.class, "like", BINARY_TYPE));
+            operators.put(ConstDefine.OP_MOD, lookup.findStatic(FormulaOperators.class, "mod", BINARY_TYPE));
+            operators.put(ConstDefine.OP_DBMOD, lookup.findStatic(FormulaOperators.class, "dbMod", BINARY_TYPE));
+            operators.put(ConstDefine.OP_POWER, lookup.findStatic(FormulaOperators.class, "power", BINARY_TYPE));
+            OPERATORS = Collections.unmodifiableMap(operators);
+
+            MethodType testType = MethodType.methodType(boolean.class, Object.class);
+            Map<Integer, MethodHandle> tests = new HashMap<>(8);
+            Map<Integer, Boolean> values = new HashMap<>(8);
+            tests.put(ConstDefine.OP_AND, lookup.findStatic(FormulaOperators.class, "isAndShortCircuit", testType));
+            values.put(ConstDefine.OP_AND, Boolean.FALSE);
+            tests.put(ConstDefine.OP_LOGICAND, tests.get(ConstDefine.OP_AND));
+            values.put(ConstDefine.OP_LOGICAND, Boolean.FALSE);
+            tests.put(ConstDefine.OP_LOGICOR, lookup.findStatic(FormulaOperators.class, "isLogicOrShortCircuit", testType));
+            values.put(ConstDefine.OP_LOGICOR, Boolean.TRUE);
+            tests.put(ConstDefine.OP_OR, lookup.findStatic(FormulaOperators.class, "isOrShortCircuit", testType));
+            values.put(ConstDefine.OP_OR, Boolean.TRUE);
+            SHORT_CIRCUIT_TESTS = Collections.unmodifiableMap(tests);
+            SHORT_CIRCUIT_VALUES = Collections.unmodifiableMap(values);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 绑定 EmbedFunc 中参数个数为 maxParams 的静态方法，参数少于 maxParams （不少于 minParams）时后面的参数传 null
+     */
+    private static void bindFunc(MethodHandles.Lookup lookup, Map<Integer, MethodHandle[]> funcs,
+                                 int funcID, String methodName, int minParams, int maxParams)
+        throws ReflectiveOperationException {
+        MethodHandle handle = lookup.findStatic(EmbedFunc.class, methodName,
+            MethodType.genericMethodType(maxParams));
+        MethodHandle[] byParams = funcs.get(funcID);
+        if (byParams == null || byParams.length <= maxParams) {
+            byParams = byParams == null ? new MethodHandle[maxParams + 1] : Arrays.copyOf(byParams, maxParams + 1);
+            funcs.put(funcID, byParams);
+        }
+        for (int n = minParams; n <= maxParams; n++) {
+            byParams[n] = MethodHandles.insertArguments(handle, n, new Object[maxParams - n]);
+        }
+    }
+
+    private FormulaCodeGenerator() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    private static Object not(Object operand) {
+        return !BooleanBaseOpt.castObjectToBoolean(operand, false);
+    }
+
+    private static boolean isTrue(Object operand) {
+        return BooleanBaseOpt.castObjectToBoolean(operand, false);
+    }
+
+    private static Object toList(Object[] items) {
+        return new ArrayList<>(Arrays.asList(items));
+    }
+
+    private static Object runFunc(FormulaNode.FunctionNode node, Object[] params) {
+        return node.call(Arrays.asList(params));
+    }
+
+    /**
+     * 直接绑定的内置函数是否计时，和 FunctionNode.call 中的判断一样
+     */
+    private static boolean sampleFunction() {
+        return FormulaProfiler.enabled && FormulaProfiler.sample() > 0;
+    }
+
+    private static Object recordFunction(String funcName, long startTime, Object result) {
+        FormulaProfiler.recordFunction(funcName, FormulaProfiler.getSampleRate(), System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * @return 直接绑定到 EmbedFunc 静态方法的函数，类型为 (Object...)Object，不能直接绑定时返回 null
+     */
+    private static MethodHandle directFunc(FunctionInfo funcInfo, int paramCount) {
+        MethodHandle[] byParams = DIRECT_FUNCS.get(funcInfo.nFuncID);
+        if (byParams == null || paramCount >= byParams.length || byParams[paramCount] == null) {
+            return null;
+        }
+        MethodHandle direct = byParams[paramCount];
+        List<Class<?>> paramTypes = direct.type().parameterList();
+        // 开启性能统计时：(args) -> recordFunction(name, nanoTime(), direct(args))，只计函数本身
+        MethodHandle profiled = MethodHandles.foldArguments(
+            MethodHandles.collectArguments(MethodHandles.insertArguments(RECORD_FUNCTION, 0, funcInfo.sName),
+                1, direct),
+            MethodHandles.dropArguments(NANO_TIME, 0, paramTypes));
+        return MethodHandles.guardWithTest(
+            MethodHandles.dropArguments(SAMPLE_FUNCTION, 0, paramTypes), profiled, direct);
+    }
+
+    private static Object runExtendFunc(FormulaNode.ExtendFuncNode node, Object[] params) {
+        List<Object> slOperand = new ArrayList<>(params.length);
+        for (Object item : params) {
+            if (item != null) {
+                slOperand.add(item);
+            }
+        }
+        return node.call(CollectionsOpt.listToArray(slOperand));
+    }
+
+    /**
+     * @param root 语法树
+     * @return 类型为 (VariableTranslate)Object 的 MethodHandle
+     */
+    static MethodHandle generate(FormulaNode root) {
+        return generateNode(root);
+    }
+
+    private static MethodHandle interpreted(FormulaNode node) {
+        return NODE_EVALUATE.bindTo(node);
+    }
+
+    private static MethodHandle constant(Object value) {
+        return MethodHandles.dropArguments(
+            MethodHandles.constant(Object.class, value), 0, VariableTranslate.class);
+    }
+
+    private static List<MethodHandle> generateNodes(List<FormulaNode> nodes) {
+        List<MethodHandle> handles = new ArrayList<>(nodes.size());
+        for (FormulaNode node : nodes) {
+            handles.add(generateNode(node));
+        }
+        return handles;
+    }
+
+    /**
+     * 将 n 个参数的 target 和 n 个 (VariableTranslate)Object 组合为 (VariableTranslate)R，
+     * 按照从左到右的顺序计算参数
+     */
+    private static MethodHandle combine(MethodHandle target, List<MethodHandle> operands) {
+        int n = operands.size();
+        if (n == 0) {
+            return MethodHandles.dropArguments(target, 0, VariableTranslate.class);
+        }
+        // 参数逆序排列，这样每次 fold 的结果都放在最前面
+        int[] reorder = new int[n];
+        for (int i = 0; i < n; i++) {
+            reorder[i] = n - 1 - i;
+        }
+        MethodHandle handle = MethodHandles.permuteArguments(target, target.type(), reorder);
+        handle = MethodHandles.dropArguments(handle, n, VariableTranslate.class);
+        for (int k = n - 1; k >= 0; k--) {
+            Class<?>[] leading = new Class<?>[k];
+            Arrays.fill(leading, Object.class);
+            handle = MethodHandles.foldArguments(handle,
+                MethodHandles.dropArguments(operands.get(k), 0, leading));
+        }
+        return handle;
+    }
+
+    private static MethodHandle collector(int n) {
+        return MethodHandles.identity(Object[].class).asCollector(Object[].class, n);
+    }
+
+    private static MethodHandle generateNode(FormulaNode node) {
+        if (node.getOperands().size() > MAX_OPERANDS) {
+            return interpreted(node);
+        }
+        if (node instanceof FormulaNode.ConstNode) {
+            return constant(((FormulaNode.ConstNode) node).getValue());
+        }
+        if (node instanceof FormulaNode.VariableNode) {
+            // 变量节点自己区分按名称和按序号取值
+            return interpreted(node);
+        }
+        if (node instanceof FormulaNode.OperatorNode) {
+            int optID = ((FormulaNode.OperatorNode) node).getOptID();
+            MethodHandle opt = OPERATORS.get(optID);
+            if (opt == null) {
+                opt = MethodHandles.dropArguments(
+                    MethodHandles.constant(Object.class, null), 0, Object.class, Object.class);
+            }
+            MethodHandle test = SHORT_CIRCUIT_TESTS.get(optID);
+            if (test == null) {
+                return combine(opt, generateNodes(node.getOperands()));
+            }
+            List<FormulaNode> operands = node.getOperands();
+            // (left, trans) -> test(left) ? value : opt(left, right(trans))
+            MethodHandle branch = MethodHandles.guardWithTest(
+                MethodHandles.dropArguments(test, 1, VariableTranslate.class),
+                MethodHandles.dropArguments(constant(SHORT_CIRCUIT_VALUES.get(optID)), 0, Object.class),
+                MethodHandles.filterArguments(opt, 1, generateNode(operands.get(1))));
+            return MethodHandles.foldArguments(branch, generateNode(operands.get(0)));
+        }
+        if (node instanceof FormulaNode.NotNode) {
+            return MethodHandles.filterReturnValue(generateNode(node.getOperands().get(0)), NOT_OPT);
+        }
+        if (node instanceof FormulaNode.InNode) {
+            List<FormulaNode> operands = node.getOperands();
+            // 从最后一项开始向前构造：(value, trans) -> matchItem(value, item(trans)) ? true : next(value, trans)
+            MethodHandle chain = MethodHandles.dropArguments(constant(Boolean.FALSE), 0, Object.class);
+            MethodHandle matched = MethodHandles.dropArguments(constant(Boolean.TRUE), 0, Object.class);
+            for (int i = operands.size() - 1; i > 0; i--) {
+                chain = MethodHandles.guardWithTest(
+                    MethodHandles.filterArguments(MATCH_ITEM, 1, generateNode(operands.get(i))),
+                    matched, chain);
+            }
+            return MethodHandles.foldArguments(chain, generateNode(operands.get(0)));
+        }
+        if (node instanceof FormulaNode.ListNode) {
+            List<FormulaNode> operands = node.getOperands();
+            return MethodHandles.filterReturnValue(
+                combine(collector(operands.size()), generateNodes(operands)), TO_LIST);
+        }
+        if (node instanceof FormulaNode.FunctionNode) {
+            FunctionInfo funcInfo = ((FormulaNode.FunctionNode) node).getFuncInfo();
+            List<FormulaNode> params = node.getOperands();
+            if (funcInfo.nFuncID == ConstDefine.FUNC_IF) {
+                MethodHandle thenHandle = MethodHandles.dropArguments(
+                    generateNode(params.get(1)), 0, Object.class);
+                MethodHandle elseHandle = MethodHandles.dropArguments(params.size() > 2 ?
+                    generateNode(params.get(2)) : constant(null), 0, Object.class);
+                MethodHandle nullHandle = MethodHandles.dropArguments(constant(null), 0, Object.class);
+                // (condition, trans) -> condition == null ? null : (isTrue(condition) ? then : else)
+                MethodHandle branch = MethodHandles.guardWithTest(IS_NULL, nullHandle,
+                    MethodHandles.guardWithTest(IS_TRUE, thenHandle, elseHandle));
+                return MethodHandles.foldArguments(branch, generateNode(params.get(0)));
+            }
+            if (funcInfo.nFuncID == ConstDefine.FUNC_CASE) {
+                // case 的分支逐个匹配，语法树中已经是按需计算，直接使用
+                return interpreted(node);
+            }
+            MethodHandle target = ((FormulaNode.FunctionNode) node).hasCompiledPattern() ? null :
+                directFunc(funcInfo, params.size());
+            if (target == null) {
+                target = MethodHandles.filterReturnValue(collector(params.size()),
+                    MethodHandles.insertArguments(RUN_FUNC, 0, node));
+            }
+            return combine(target, generateNodes(params));
+        }
+        if (node instanceof FormulaNode.ExtendFuncNode) {
+            List<FormulaNode> params = node.getOperands();
+            MethodHandle target = MethodHandles.filterReturnValue(collector(params.size()),
+                MethodHandles.insertArguments(RUN_EXTEND_FUNC, 0, node));
+            return combine(target, generateNodes(params));
+        }
+        return interpreted(node);
+    }
+}
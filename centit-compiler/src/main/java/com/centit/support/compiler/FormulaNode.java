@@ -0,0 +1,389 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.BooleanBaseOpt;
+import com.centit.support.algorithm.CollectionsOpt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 表达式语法树的节点，由 FormulaParser 生成，节点创建后不可变
+ * 求值规则见 VariableFormula 的说明，短路运算、if 、case 和 in 只计算需要的子节点
+ */
+public abstract class FormulaNode {
+
+    private static final List<FormulaNode> NO_OPERANDS = Collections.emptyList();
+
+    /**
+     * 求值
+     *
+     * @param trans 变量解释器，为 null 时标识符作为字符串
+     * @return 节点的值
+     */
+    public abstract Object evaluate(VariableTranslate trans);
+
+    /**
+     * @return 子节点，按照表达式中出现的顺序
+     */
+    public List<FormulaNode> getOperands() {
+        return NO_OPERANDS;
+    }
+
+    /**
+     * 常量，数字、字符串 以及 语法错误时的 null
+     */
+    public static final class ConstNode extends FormulaNode {
+        static final ConstNode NULL_NODE = new ConstNode(null);
+
+        private final Object value;
+
+        ConstNode(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            return value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * 变量，标识符 或者 ${变量名}
+     */
+    public static final class VariableNode extends FormulaNode {
+        private final String varName;
+        /**
+         * 没有变量解释器时的值，标识符为其本身，${} 形式的变量为 null
+         */
+        private final Object defaultValue;
+        /**
+         * 变量在表达式中的序号，同名的变量序号相同，按列求值时用它代替变量名取值
+         */
+        private final int varIndex;
+
+        VariableNode(String varName, Object defaultValue, int varIndex) {
+            this.varName = varName;
+            this.defaultValue = defaultValue;
+            this.varIndex = varIndex;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            if (trans == null) {
+                return defaultValue;
+            }
+            return trans instanceof IndexedVariableTranslate ?
+                ((IndexedVariableTranslate) trans).getVarValue(varIndex) : trans.getVarValue(varName);
+        }
+
+        public String getVarName() {
+            return varName;
+        }
+
+        public int getVarIndex() {
+            return varIndex;
+        }
+
+        public Object getDefaultValue() {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 双目运算符，运算符编号见 ConstDefine.OP_*
+     */
+    public static final class OperatorNode extends FormulaNode {
+        private final int optID;
+        private final FormulaNode operand;
+        private final FormulaNode operand2;
+
+        OperatorNode(int optID, FormulaNode operand, FormulaNode operand2) {
+            this.optID = optID;
+            this.operand = operand;
+            this.operand2 = operand2;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            Object value = operand.evaluate(trans);
+            Boolean decided = FormulaOperators.shortCircuit(optID, value);
+            if (decided != null) {
+                return decided;
+            }
+            return VariableFormula.calcOperate(value, operand2.evaluate(trans), optID);
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            List<FormulaNode> operands = new ArrayList<>(2);
+            operands.add(operand);
+            operands.add(operand2);
+            return operands;
+        }
+
+        public int getOptID() {
+            return optID;
+        }
+    }
+
+    /**
+     * 逻辑非 ! 或者 not， 只作用于紧跟的一个运算项
+     */
+    public static final class NotNode extends FormulaNode {
+        private final FormulaNode operand;
+
+        NotNode(FormulaNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            return !BooleanBaseOpt.castObjectToBoolean(operand.evaluate(trans), false);
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            return Collections.singletonList(operand);
+        }
+    }
+
+    /**
+     * in 运算，列表中的数组和集合会被展开比较，匹配成功后不再计算后面的项
+     */
+    public static final class InNode extends FormulaNode {
+        private final FormulaNode operand;
+        private final List<FormulaNode> items;
+
+        InNode(FormulaNode operand, List<FormulaNode> items) {
+            this.operand = operand;
+            this.items = items;
+        }
+
+        static boolean matchItem(Object value, Object item) {
+            if (item instanceof Object[]) {
+                for (Object obj : (Object[]) item) {
+                    if (FormulaOperators.compare(value, obj) == 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (item instanceof Collection) {
+                for (Object obj : (Collection<?>) item) {
+                    if (FormulaOperators.compare(value, obj) == 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return FormulaOperators.compare(value, item) == 0;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            Object value = operand.evaluate(trans);
+            for (FormulaNode item : items) {
+                if (matchItem(value, item.evaluate(trans))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            List<FormulaNode> operands = new ArrayList<>(items.size() + 1);
+            operands.add(operand);
+            operands.addAll(items);
+            return operands;
+        }
+    }
+
+    /**
+     * 数组 [a,b,c]，每次求值都返回一个新的 List
+     */
+    public static final class ListNode extends FormulaNode {
+        private final List<FormulaNode> items;
+
+        ListNode(List<FormulaNode> items) {
+            this.items = items;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            List<Object> slOperand = new ArrayList<>(items.size());
+            for (FormulaNode item : items) {
+                slOperand.add(item.evaluate(trans));
+            }
+            return slOperand;
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            return Collections.unmodifiableList(items);
+        }
+    }
+
+    /**
+     * 内置函数，见 EmbedFunc.functionsList
+     * if 和 case 只计算选中的分支
+     */
+    public static final class FunctionNode extends FormulaNode {
+        private final FunctionInfo funcInfo;
+        private final List<FormulaNode> params;
+        /**
+         * 常量模板预先编译的结果，见 EmbedFunc.compilePatternParam
+         */
+        private final Object compiledPattern;
+
+        FunctionNode(FunctionInfo funcInfo, List<FormulaNode> params) {
+            this.funcInfo = funcInfo;
+            this.params = params;
+            this.compiledPattern = EmbedFunc.compilePatternParam(funcInfo.nFuncID, params);
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            // IF 语句单独处理，只计算选中的分支
+            if (funcInfo.nFuncID == ConstDefine.FUNC_IF) {
+                Object sCondition = params.get(0).evaluate(trans);
+                if (sCondition == null) {
+                    return null;
+                }
+                if (BooleanBaseOpt.castObjectToBoolean(sCondition, false)) {
+                    return params.get(1).evaluate(trans);
+                }
+                return params.size() > 2 ? params.get(2).evaluate(trans) : null;
+            }
+            if (funcInfo.nFuncID == ConstDefine.FUNC_CASE) {
+                return evaluateCase(trans);
+            }
+            List<Object> slOperand = new ArrayList<>(params.size());
+            for (FormulaNode param : params) {
+                slOperand.add(param.evaluate(trans));
+            }
+            return call(slOperand);
+        }
+
+        boolean hasCompiledPattern() {
+            return compiledPattern != null;
+        }
+
+        /**
+         * 用计算好的参数调用函数，生成的 MethodHandle 中没有直接绑定的函数也调用这个方法
+         */
+        Object call(List<Object> slOperand) {
+            if (FormulaProfiler.enabled) {
+                int weight = FormulaProfiler.sample();
+                if (weight > 0) {
+                    long startTime = System.nanoTime();
+                    try {
+                        return runFunc(slOperand);
+                    } finally {
+                        FormulaProfiler.recordFunction(funcInfo.sName, weight, System.nanoTime() - startTime);
+                    }
+                }
+            }
+            return runFunc(slOperand);
+        }
+
+        private Object runFunc(List<Object> slOperand) {
+            if (compiledPattern != null) {
+                return EmbedFunc.runFuncWithPattern(slOperand, funcInfo.nFuncID, compiledPattern);
+            }
+            return EmbedFunc.runFuncWithObject(slOperand, funcInfo.nFuncID);
+        }
+
+        /**
+         * case(值, 条件1, 结果1, 条件2, 结果2, ..., 默认值)
+         * 依次计算条件，只计算第一个匹配条件对应的结果
+         */
+        private Object evaluateCase(VariableTranslate trans) {
+            int nOpSum = params.size();
+            if (nOpSum < 2) return null;
+            Object caseValue = params.get(0).evaluate(trans);
+            int matchType = EmbedFunc.getCaseMatchType(caseValue);
+            for (int i = 1; i + 1 < nOpSum; i += 2) {
+                if (EmbedFunc.isCaseMatched(caseValue, matchType, params.get(i).evaluate(trans)))
+                    return params.get(i + 1).evaluate(trans);
+            }
+            if (nOpSum % 2 == 0)
+                return params.get(nOpSum - 1).evaluate(trans);
+            return null;
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            return Collections.unmodifiableList(params);
+        }
+
+        public FunctionInfo getFuncInfo() {
+            return funcInfo;
+        }
+    }
+
+    /**
+     * 扩展函数，外部函数不可以传入 null 数值参数
+     */
+    public static final class ExtendFuncNode extends FormulaNode {
+        private final String funcName;
+        private final Function<Object[], Object> func;
+        private final List<FormulaNode> params;
+
+        ExtendFuncNode(String funcName, Function<Object[], Object> func, List<FormulaNode> params) {
+            this.funcName = funcName;
+            this.func = func;
+            this.params = params;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            List<Object> slOperand = new ArrayList<>(params.size());
+            for (FormulaNode param : params) {
+                Object item = param.evaluate(trans);
+                if (item != null) {
+                    slOperand.add(item);
+                }
+            }
+            return call(CollectionsOpt.listToArray(slOperand));
+        }
+
+        /**
+         * 用计算好的参数（已去掉 null）调用扩展函数，生成的 MethodHandle 也调用这个方法
+         */
+        Object call(Object[] args) {
+            if (FormulaProfiler.enabled) {
+                int weight = FormulaProfiler.sample();
+                if (weight > 0) {
+                    long startTime = System.nanoTime();
+                    try {
+                        return func.apply(args);
+                    } finally {
+                        FormulaProfiler.recordFunction("ext:" + funcName, weight, System.nanoTime() - startTime);
+                    }
+                }
+            }
+            return func.apply(args);
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            return Collections.unmodifiableList(params);
+        }
+
+        public String getFuncName() {
+            return funcName;
+        }
+
+        public Function<Object[], Object> getFunction() {
+            return func;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.*;
+
+import java.math.BigDecimal;
+
+/**
+ * 双目运算符的实现，每个运算符一个方法
+ * VariableFormula.calcOperate 按运算符编号分派到这里，
+ * 代码生成时直接绑定这些方法，不再经过 switch
+ */
+abstract class FormulaOperators {
+
+    /**
+     * 数字快速运算的类型，按照 GeneralAlgorithm 的类型提升顺序排列
+     */
+    private static final int KIND_INT = 1;
+    private static final int KIND_LONG = 2;
+    private static final int KIND_DOUBLE = 3;
+    private static final int KIND_OTHER = 9;
+
+    private FormulaOperators() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    private static int numberKind(Object operand) {
+        if (operand == null) {
+            return KIND_OTHER;
+        }
+        Class<?> c = operand.getClass();
+        if (c == Integer.class) {
+            return KIND_INT;
+        }
+        if (c == Long.class) {
+            return KIND_LONG;
+        }
+        if (c == Double.class) {
+            return KIND_DOUBLE;
+        }
+        return KIND_OTHER;
+    }
+
+    /*
+     * 四则运算和比较的快速路径：两个运算项都是 Integer 、Long 或者 Double 时直接用基本类型计算，
+     * 类型提升和 GeneralAlgorithm 一致：int 和 int 得到 int ，有 long 得到 long ，有 double 得到 double；
+     * 其他情况（BigDecimal 、BigInteger 、Float 、字符串、日期、集合）交给 GeneralAlgorithm
+     */
+    static Object add(Object operand, Object operand2) {
+        switch (Math.max(numberKind(operand), numberKind(operand2))) {
+            case KIND_INT:
+                return (Integer) operand + (Integer) operand2;
+            case KIND_LONG:
+                return ((Number) operand).longValue() + ((Number) operand2).longValue();
+            case KIND_DOUBLE:
+                return ((Number) operand).doubleValue() + ((Number) operand2).doubleValue();
+            default:
+                return GeneralAlgorithm.addTwoObject(operand, operand2);
+        }
+    }
+
+    static Object subtract(Object operand, Object operand2) {
+        switch (Math.max(numberKind(operand), numberKind(operand2))) {
+            case KIND_INT:
+                return (Integer) operand - (Integer) operand2;
+            case KIND_LONG:
+                return ((Number) operand).longValue() - ((Number) operand2).longValue();
+            case KIND_DOUBLE:
+                return ((Number) operand).doubleValue() - ((Number) operand2).doubleValue();
+            default:
+                return GeneralAlgorithm.subtractTwoObject(operand, operand2);
+        }
+    }
+
+    static Object multiply(Object operand, Object operand2) {
+        switch (Math.max(numberKind(operand), numberKind(operand2))) {
+            case KIND_INT:
+                return (Integer) operand * (Integer) operand2;
+            case KIND_LONG:
+                return ((Number) operand).longValue() * ((Number) operand2).longValue();
+            case KIND_DOUBLE:
+                return ((Number) operand).doubleValue() * ((Number) operand2).doubleValue();
+            default:
+                return GeneralAlgorithm.multiplyTwoObject(operand, operand2);
+        }
+    }
+
+    /**
+     * 除数为 0 时结果为 null
+     */
+    static Object divide(Object operand, Object operand2) {
+        switch (Math.max(numberKind(operand), numberKind(operand2))) {
+            case KIND_INT: {
+                int divisor = (Integer) operand2;
+                return divisor == 0 ? null : (Integer) operand / divisor;
+            }
+            case KIND_LONG: {
+                long divisor = ((Number) operand2).longValue();
+                return divisor == 0 ? null : ((Number) operand).longValue() / divisor;
+            }
+            case KIND_DOUBLE: {
+                double divisor = ((Number) operand2).doubleValue();
+                if (Double.isFinite(divisor)) {
+                    return divisor == 0 ? null : ((Number) operand).doubleValue() / divisor;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return GeneralAlgorithm.divideTwoObject(operand, operand2);
+    }
+
+    /**
+     * 和 GeneralAlgorithm.compareTwoObject 一致，数字按照 double 比较
+     */
+    static int compare(Object operand, Object operand2) {
+        if (Math.max(numberKind(operand), numberKind(operand2)) != KIND_OTHER) {
+            return Double.compare(((Number) operand).doubleValue(), ((Number) operand2).doubleValue());
+        }
+        return GeneralAlgorithm.compareTwoObject(operand, operand2);
+    }
+
+    /**
+     * 短路求值：左边的值已经决定结果时，右边的运算项不再计算
+     * && 、& 和 and 左边为假时结果为 false；or 左边为真时结果为 true；
+     * || 和 | 只有左边是布尔值 true 时才短路，因为左边为数字时可能是字符串连接
+     *
+     * @param optID   运算符
+     * @param operand 左边运算项的值
+     * @return 短路的结果，null 表示需要计算右边的运算项
+     */
+    static Boolean shortCircuit(int optID, Object operand) {
+        switch (optID) {
+            case ConstDefine.OP_AND:
+            case ConstDefine.OP_LOGICAND:
+                return isAndShortCircuit(operand) ? Boolean.FALSE : null;
+            case ConstDefine.OP_LOGICOR:
+                return isLogicOrShortCircuit(operand) ? Boolean.TRUE : null;
+            case ConstDefine.OP_OR:
+                return isOrShortCircuit(operand) ? Boolean.TRUE : null;
+            default:
+                return null;
+        }
+    }
+
+    static boolean isAndShortCircuit(Object operand) {
+        return !BooleanBaseOpt.castObjectToBoolean(operand, false);
+    }
+
+    static boolean isLogicOrShortCircuit(Object operand) {
+        return BooleanBaseOpt.castObjectToBoolean(operand, false);
+    }
+
+    static boolean isOrShortCircuit(Object operand) {
+        return Boolean.TRUE.equals(operand);
+    }
+
+    static Object logicOr(Object operand, Object operand2) {
+        return BooleanBaseOpt.castObjectToBoolean(operand, false) ||
+            BooleanBaseOpt.castObjectToBoolean(operand2, false);
+    }
+
+    static Object logicAnd(Object operand, Object operand2) {
+        return BooleanBaseOpt.castObjectToBoolean(operand, false) &&
+            BooleanBaseOpt.castObjectToBoolean(operand2, false);
+    }
+
+    /**
+     * | 和 || ，布尔值或者数字做逻辑或运算，否则连接字符串
+     */
+    static Object orOrConcat(Object operand, Object operand2) {
+        if ((BooleanBaseOpt.isBoolean(operand) || NumberBaseOpt.isNumber(operand))
+            && (BooleanBaseOpt.isBoolean(operand2) || NumberBaseOpt.isNumber(operand2))) {
+            return BooleanBaseOpt.castObjectToBoolean(operand) ||
+                BooleanBaseOpt.castObjectToBoolean(operand2);
+        }
+        return StringBaseOpt.concat(operand, operand2);
+    }
+
+    static Object equal(Object operand, Object operand2) {
+        return compare(operand, operand2) == 0;
+    }
+
+    static Object bigger(Object operand, Object operand2) {
+        return compare(operand, operand2) > 0;
+    }
+
+    static Object less(Object operand, Object operand2) {
+        return compare(operand, operand2) < 0;
+    }
+
+    static Object lessOrEqual(Object operand, Object operand2) {
+        return compare(operand, operand2) <= 0;
+    }
+
+    static Object biggerOrEqual(Object operand, Object operand2) {
+        return compare(operand, operand2) >= 0;
+    }
+
+    static Object notEqual(Object operand, Object operand2) {
+        return compare(operand, operand2) != 0;
+    }
+
+    /**
+     * 数字左移，字符串去掉左边的字符
+     */
+    static Object leftMove(Object operand, Object operand2) {
+        if (NumberBaseOpt.isNumber(operand2)) {
+            int nP2 = NumberBaseOpt.castObjectToInteger(operand2);
+
+            if (NumberBaseOpt.isNumber(operand)) {
+                int nP = NumberBaseOpt.castObjectToInteger(operand);
+                return nP << nP2;
+            }
+            String str1 = StringBaseOpt.objectToString(operand);
+
+            if (nP2 >= 0 && str1.length() > nP2) {
+                return str1.substring(nP2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 数字右移，字符串去掉右边的字符
+     */
+    static Object rightMove(Object operand, Object operand2) {
+        if (NumberBaseOpt.isNumber(operand2)) {
+            int nP2 = NumberBaseOpt.castObjectToInteger(operand2);
+            if (NumberBaseOpt.isNumber(operand)) {
+                int nP = NumberBaseOpt.castObjectToInteger(operand);
+                return nP >> nP2;
+            }
+            String str1 = StringBaseOpt.objectToString(operand);
+
+            if (nP2 >= 0 && str1.length() > nP2) {
+                return str1.substring(0, str1.length() - nP2);
+            }
+        }
+        return null;
+    }
+
+    static Object like(Object operand, Object operand2) {
+        return StringRegularOpt.isMatch(StringBaseOpt.objectToString(operand),
+            StringBaseOpt.objectToString(operand2));
+    }
+
+    static Object mod(Object operand, Object operand2) {
+        Long dbop2 = NumberBaseOpt.castObjectToLong(operand2);
+        if (dbop2 == null || dbop2 == 0)
+            return null;
+        Long dbop = NumberBaseOpt.castObjectToLong(operand);
+        return dbop % dbop2;
+    }
+
+    static Object dbMod(Object operand, Object operand2) {
+        BigDecimal dbop2 = NumberBaseOpt.castObjectToBigDecimal(operand2);
+        if (dbop2 == null || dbop2.compareTo(BigDecimal.ZERO) == 0)
+            return null;
+        return GeneralAlgorithm.modTwoObject(operand, operand2);
+    }
+
+    static Object power(Object operand, Object operand2) {
+        Double dbop = NumberBaseOpt.castObjectToDouble(operand);
+        Double dbop2 = NumberBaseOpt.castObjectToDouble(operand2);
+        if (dbop == null || dbop2 == null)
+            return null;
+        return Math.pow(dbop, dbop2);
+    }
+
+    /**
+     * 不能作为双目运算的运算符（比如 ! 和 in 出现在双目运算的位置）结果为 null
+     */
+    static Object undefined(Object operand, Object operand2) {
+        return null;
+    }
+}
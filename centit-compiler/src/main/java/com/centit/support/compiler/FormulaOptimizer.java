@@ -0,0 +1,152 @@
+package com.centit.support.compiler;
+
+import java.util.*;
+
+/**
+ * 编译时对语法树的优化：
+ * 1. 常量折叠，运算项都是常量的运算符和内置函数在编译时计算，结果替换为常量；
+ * 2. 短路运算和 if 的条件是常量时，直接选择对应的分支。
+ * 扩展函数和取当前时间的日期函数不折叠；结果是日期、集合等可变对象的也不折叠
+ */
+abstract class FormulaOptimizer {
+
+    /**
+     * 日期相关的函数，缺省参数时会取当前时间，不能在编译时计算
+     */
+    private static final Set<Integer> TIME_DEPENDENT_FUNCS = new HashSet<>(Arrays.asList(
+        ConstDefine.FUNC_CURRENT_DATE, ConstDefine.FUNC_CURRENT_DATETIME, ConstDefine.FUNC_CURRENT_TIMESTAMP,
+        ConstDefine.FUNC_DAY, ConstDefine.FUNC_MONTH, ConstDefine.FUNC_YEAR,
+        ConstDefine.FUNC_WEEK, ConstDefine.FUNC_WEEK_DAY, ConstDefine.FUNC_FORMAT_DATE, ConstDefine.FUNC_DATE_INFO,
+        ConstDefine.FUNC_DAY_SPAN, ConstDefine.FUNC_DATE_SPAN, ConstDefine.FUNC_MONTH_SPAN, ConstDefine.FUNC_YEAR_SPAN,
+        ConstDefine.FUNC_ADD_DATE, ConstDefine.FUNC_ADD_DAYS, ConstDefine.FUNC_ADD_MONTHS, ConstDefine.FUNC_ADD_YEARS,
+        ConstDefine.FUNC_TRUNC_DATE, ConstDefine.FUNC_LAST_OF_MONTH, ConstDefine.FUNC_TO_DATE));
+
+    private FormulaOptimizer() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    private static boolean allConst(List<FormulaNode> nodes) {
+        for (FormulaNode node : nodes) {
+            if (!(node instanceof FormulaNode.ConstNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object constValue(FormulaNode node) {
+        return ((FormulaNode.ConstNode) node).getValue();
+    }
+
+    /**
+     * 在编译时计算节点，只保留不可变的结果；计算出错的节点保留到运行时再报错
+     */
+    private static FormulaNode fold(FormulaNode node) {
+        Object value;
+        try {
+            value = node.evaluate(null);
+        } catch (RuntimeException e) {
+            return node;
+        }
+        if (value == null) {
+            return FormulaNode.ConstNode.NULL_NODE;
+        }
+        if (value instanceof Number || value instanceof String || value instanceof Boolean) {
+            return new FormulaNode.ConstNode(value);
+        }
+        return node;
+    }
+
+    private static List<FormulaNode> optimizeNodes(List<FormulaNode> nodes) {
+        List<FormulaNode> optimized = new ArrayList<>(nodes.size());
+        for (FormulaNode node : nodes) {
+            optimized.add(optimize(node));
+        }
+        return optimized;
+    }
+
+    /**
+     * @param node 语法树
+     * @return 优化后的语法树，求值结果和优化前一致
+     */
+    static FormulaNode optimize(FormulaNode node) {
+        if (node instanceof FormulaNode.OperatorNode) {
+            int optID = ((FormulaNode.OperatorNode) node).getOptID();
+            List<FormulaNode> operands = optimizeNodes(node.getOperands());
+            FormulaNode operand = operands.get(0);
+            if (operand instanceof FormulaNode.ConstNode) {
+                Boolean decided = FormulaOperators.shortCircuit(optID, constValue(operand));
+                if (decided != null) {
+                    return new FormulaNode.ConstNode(decided);
+                }
+            }
+            FormulaNode optimized = new FormulaNode.OperatorNode(optID, operand, operands.get(1));
+            return allConst(operands) ? fold(optimized) : optimized;
+        }
+        if (node instanceof FormulaNode.NotNode) {
+            FormulaNode operand = optimize(node.getOperands().get(0));
+            FormulaNode optimized = new FormulaNode.NotNode(operand);
+            return operand instanceof FormulaNode.ConstNode ? fold(optimized) : optimized;
+        }
+        if (node instanceof FormulaNode.InNode) {
+            List<FormulaNode> operands = optimizeNodes(node.getOperands());
+            FormulaNode optimized = new FormulaNode.InNode(operands.get(0),
+                new ArrayList<>(operands.subList(1, operands.size())));
+            return allConst(operands) ? fold(optimized) : optimized;
+        }
+        if (node instanceof FormulaNode.ListNode) {
+            return new FormulaNode.ListNode(optimizeNodes(node.getOperands()));
+        }
+        if (node instanceof FormulaNode.FunctionNode) {
+            FunctionInfo funcInfo = ((FormulaNode.FunctionNode) node).getFuncInfo();
+            List<FormulaNode> params = optimizeNodes(node.getOperands());
+            if (funcInfo.nFuncID == ConstDefine.FUNC_IF && params.get(0) instanceof FormulaNode.ConstNode) {
+                Object condition = constValue(params.get(0));
+                if (condition == null) {
+                    return FormulaNode.ConstNode.NULL_NODE;
+                }
+                if (FormulaOperators.isLogicOrShortCircuit(condition)) {
+                    return params.get(1);
+                }
+                return params.size() > 2 ? params.get(2) : FormulaNode.ConstNode.NULL_NODE;
+            }
+            FormulaNode optimized = new FormulaNode.FunctionNode(funcInfo, params);
+            return allConst(params) && !TIME_DEPENDENT_FUNCS.contains(funcInfo.nFuncID) ?
+                fold(optimized) : optimized;
+        }
+        if (node instanceof FormulaNode.ExtendFuncNode) {
+            FormulaNode.ExtendFuncNode funcNode = (FormulaNode.ExtendFuncNode) node;
+            return new FormulaNode.ExtendFuncNode(funcNode.getFuncName(), funcNode.getFunction(),
+                optimizeNodes(node.getOperands()));
+        }
+        return node;
+    }
+
+    /**
+     * 用新的运算项构造一个同类型的节点，其他类型的节点原样返回
+     */
+    static FormulaNode rebuild(FormulaNode node, List<FormulaNode> operands) {
+        if (node instanceof FormulaNode.OperatorNode) {
+            return new FormulaNode.OperatorNode(((FormulaNode.OperatorNode) node).getOptID(),
+                operands.get(0), operands.get(1));
+        }
+        if (node instanceof FormulaNode.NotNode) {
+            return new FormulaNode.NotNode(operands.get(0));
+        }
+        if (node instanceof FormulaNode.InNode) {
+            return new FormulaNode.InNode(operands.get(0),
+                new ArrayList<>(operands.subList(1, operands.size())));
+        }
+        if (node instanceof FormulaNode.FunctionNode) {
+            return new FormulaNode.FunctionNode(((FormulaNode.FunctionNode) node).getFuncInfo(), operands);
+        }
+        if (node instanceof FormulaNode.ListNode) {
+            return new FormulaNode.ListNode(operands);
+        }
+        if (node instanceof FormulaNode.ExtendFuncNode) {
+            FormulaNode.ExtendFuncNode funcNode = (FormulaNode.ExtendFuncNode) node;
+            return new FormulaNode.ExtendFuncNode(funcNode.getFuncName(), funcNode.getFunction(), operands);
+        }
+        return node;
+    }
+}
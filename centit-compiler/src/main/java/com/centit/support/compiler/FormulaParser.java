@@ -0,0 +1,236 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.NumberBaseOpt;
+import com.centit.support.algorithm.StringRegularOpt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 将表达式解析为语法树，VariableFormula 的静态计算、编译和逐个表达式计算都通过它解析；
+ * 语法错误的地方得到值为 null 的常量节点
+ */
+class FormulaParser {
+
+    private Lexer lex;
+    private Map<String, Function<Object[], Object>> extendFuncMap;
+    /**
+     * 变量名 -》 变量序号，按第一次出现的顺序编号
+     */
+    private Map<String, Integer> varIndexes;
+
+    FormulaParser(String formula, Map<String, Function<Object[], Object>> extendFuncMap) {
+        this(new Lexer(formula), extendFuncMap);
+    }
+
+    /**
+     * 从词法分析器的当前位置开始解析，解析完成后词法分析器停在表达式后面
+     */
+    FormulaParser(Lexer lex, Map<String, Function<Object[], Object>> extendFuncMap) {
+        this.lex = lex;
+        this.extendFuncMap = extendFuncMap;
+        this.varIndexes = new HashMap<>();
+    }
+
+    private FormulaNode.VariableNode createVariable(String varName, Object defaultValue) {
+        Integer varIndex = varIndexes.computeIfAbsent(varName, k -> varIndexes.size());
+        return new FormulaNode.VariableNode(varName, defaultValue, varIndex);
+    }
+
+    /**
+     * 先找调用时传入的扩展函数，再找全局注册的扩展函数
+     */
+    private Function<Object[], Object> findExtendFunc(String funcName) {
+        if (extendFuncMap != null) {
+            Function<Object[], Object> func = extendFuncMap.get(funcName);
+            if (func != null) {
+                return func;
+            }
+        }
+        return VariableFormula.getGlobalExtendFunc(funcName);
+    }
+
+    private FormulaNode parseItem() {
+        String str = lex.getAWord();
+        if (str == null || str.length() == 0) return FormulaNode.ConstNode.NULL_NODE;
+        if (str.charAt(0) == ')' || str.charAt(0) == ',') {
+            lex.writeBackAWord(str);
+            return FormulaNode.ConstNode.NULL_NODE;
+        }
+        if (str.charAt(0) == '(') {
+            FormulaNode node = parseFormula();
+            str = lex.getAWord();
+            if (str == null || str.length() == 0 || str.charAt(0) != ')') return FormulaNode.ConstNode.NULL_NODE;
+            return node;
+        } else if ((str.charAt(0) == '!') || str.equalsIgnoreCase("NOT")) {
+            return new FormulaNode.NotNode(parseItem());
+        } else if (str.charAt(0) == '$') {
+            str = lex.getAWord();
+            if ("{".equals(str)) {
+                str = lex.getStringUntil("}");
+                return createVariable(str, null);
+            } else {
+                return FormulaNode.ConstNode.NULL_NODE;
+            }
+        } else if (str.charAt(0) == '[') {
+            List<FormulaNode> items = new ArrayList<>();
+            while (true) {
+                items.add(parseFormula());
+                str = lex.getAWord();
+                if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals("]")))
+                    return FormulaNode.ConstNode.NULL_NODE;
+                if (str.equals("]")) {
+                    return new FormulaNode.ListNode(items);
+                }
+            }
+        }
+
+        Function<Object[], Object> func = findExtendFunc(str);
+        if (func != null) {
+            String nextWord = lex.getAWord();
+            if ("(".equals(nextWord)) {
+                List<FormulaNode> params = parseParams();
+                return params == null ? FormulaNode.ConstNode.NULL_NODE
+                    : new FormulaNode.ExtendFuncNode(str, func, params);
+            }
+            lex.writeBackAWord(nextWord);
+        }
+
+        int funcNo = EmbedFunc.getFuncNo(str);
+        if (funcNo != -1) {
+            String nextWord = lex.getAWord();
+            if ("(".equals(nextWord)) {
+                return parseFunc(EmbedFunc.functionsList[funcNo]);
+            }
+            lex.writeBackAWord(nextWord);
+        }
+
+        if (Lexer.isLabel(str)) {
+            return createVariable(str, StringRegularOpt.trimString(str));
+        }
+
+        if (StringRegularOpt.isNumber(str)) {
+            return new FormulaNode.ConstNode(NumberBaseOpt.castObjectToNumber(str));
+        }
+        return new FormulaNode.ConstNode(StringRegularOpt.trimString(str));
+    }
+
+    FormulaNode parseFormula() {
+        List<FormulaNode> slOperand = new ArrayList<>();
+        OptStack optStack = new OptStack();
+
+        String str;
+        while (true) {
+            FormulaNode item = parseItem();
+            slOperand.add(0, item);
+            str = lex.getAWord();
+            if (str == null || str.length() == 0)
+                break;
+
+            int optID = VariableFormula.getOptID(str);
+            if (optID == -1) {
+                lex.writeBackAWord(str);
+                break;
+            }
+            //--------run OP_IN----------------------------------
+            if (optID == ConstDefine.OP_IN) {
+                FormulaNode operand = slOperand.remove(0);
+                str = lex.getAWord();
+                if (str == null || str.length() == 0 || !str.equals("(")) return FormulaNode.ConstNode.NULL_NODE;
+                List<FormulaNode> items = new ArrayList<>();
+                while (true) {
+                    items.add(parseFormula());
+                    str = lex.getAWord();
+                    if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals(")")))
+                        return FormulaNode.ConstNode.NULL_NODE;
+                    if (str.equals(")")) {
+                        lex.writeBackAWord(str);
+                        break;
+                    }
+                }
+                lex.seekToRightBracket();
+                slOperand.add(0, new FormulaNode.InNode(operand, items));
+                str = lex.getAWord();
+                optID = VariableFormula.getOptID(str);
+                if (optID == -1) {
+                    lex.writeBackAWord(str);
+                    break;
+                }
+            }
+            //----------end opt in--------------------------------
+            for (int op = optStack.pushOpt(optID); op != 0; op = optStack.pushOpt(optID)) {
+                FormulaNode operand2 = slOperand.remove(0);
+                FormulaNode operand = slOperand.remove(0);
+                slOperand.add(0, new FormulaNode.OperatorNode(op, operand, operand2));
+            }
+        }
+
+        for (int op = optStack.popOpt(); op != 0; op = optStack.popOpt()) {
+            FormulaNode operand2 = slOperand.remove(0);
+            FormulaNode operand = slOperand.remove(0);
+            slOperand.add(0, new FormulaNode.OperatorNode(op, operand, operand2));
+        }
+        return slOperand.get(0);
+    }
+
+    /**
+     * 解析 if(条件, 真值, 假值)，假值可以省略
+     */
+    private FormulaNode parseIf(FunctionInfo funcInfo) {
+        List<FormulaNode> params = new ArrayList<>(3);
+        params.add(parseFormula());
+        String str = lex.getAWord();
+        if (str == null || str.length() == 0 || !str.equals(",")) return FormulaNode.ConstNode.NULL_NODE;
+        params.add(parseFormula());
+        str = lex.getAWord();
+        if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals(")")))
+            return FormulaNode.ConstNode.NULL_NODE;
+        if (str.equals(",")) {
+            params.add(parseFormula());
+            str = lex.getAWord();
+            if (str == null || str.length() == 0 || !str.equals(")")) return FormulaNode.ConstNode.NULL_NODE;
+        }
+        return new FormulaNode.FunctionNode(funcInfo, params);
+    }
+
+    private FormulaNode parseFunc(FunctionInfo funcInfo) {
+        if (funcInfo.nFuncID == ConstDefine.FUNC_IF) {
+            return parseIf(funcInfo);
+        }
+        List<FormulaNode> params = parseParams();
+        if (params == null) {
+            return FormulaNode.ConstNode.NULL_NODE;
+        }
+        if (funcInfo.nPrmSum != -1 && params.size() < funcInfo.nPrmSum) {
+            return FormulaNode.ConstNode.NULL_NODE;
+        }
+        return new FormulaNode.FunctionNode(funcInfo, params);
+    }
+
+    /**
+     * 解析函数参数直到右括号
+     *
+     * @return 参数列表，格式不正确返回 null
+     */
+    private List<FormulaNode> parseParams() {
+        List<FormulaNode> params = new ArrayList<>(5);
+        String str;
+        while (true) {
+            str = lex.getAWord();
+            if (str.equals(")")) {
+                break;
+            }
+            lex.writeBackAWord(str);
+            params.add(parseFormula());
+            str = lex.getAWord();
+            if (!",".equals(str)) break;
+        }
+        if (!")".equals(str)) {
+            return null;
+        }
+        return params;
+    }
+}
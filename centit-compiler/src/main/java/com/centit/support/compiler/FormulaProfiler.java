@@ -0,0 +1,192 @@
+package com.centit.support.compiler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 表达式求值的性能统计，默认关闭
+ * 开启后统计每个表达式（CompiledFormula 以及静态 calculate 方法）的求值次数和累计耗时，
+ * 以及每个内置函数和扩展函数的调用次数和耗时（只计函数本身，不含参数的计算）；
+ * 关闭时求值只多一次布尔变量的判断
+ * <p>
+ * 采样模式：enable(n) 每次求值以 1/n 的概率计时，计数和耗时按 n 倍累加，是总量的估计值
+ * <p>
+ * 统计按表达式文本区分，动态拼接的表达式会产生大量不同的文本，所以最多统计 MAX_STATS 个表达式（函数也一样），
+ * 超出后新出现的表达式合计到 OTHERS 中，reset 后重新计数。
+ * 生成代码（CompiledFormula.generateCode）后直接绑定的内置函数只计函数本身；
+ * 解释执行以及没有直接绑定的函数，耗时包含 EmbedFunc.runFuncWithObject 的分派
+ */
+public final class FormulaProfiler {
+
+    /**
+     * 求值路径上直接读这个变量，关闭时没有其他开销
+     */
+    static volatile boolean enabled = false;
+    private static volatile int sampleRate = 1;
+
+    /**
+     * 表达式和函数各自最多统计的条数
+     */
+    public static final int MAX_STATS = 1000;
+    /**
+     * 超出 MAX_STATS 后新出现的表达式或函数合计在这个名称下
+     */
+    public static final String OTHERS = "(others)";
+
+    private static final ConcurrentHashMap<String, ProfileStat> FORMULA_STATS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ProfileStat> FUNCTION_STATS = new ConcurrentHashMap<>();
+
+    private FormulaProfiler() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * 开启统计，每次求值都计时
+     */
+    public static void enable() {
+        enable(1);
+    }
+
+    /**
+     * @param rate 采样倍数，每 rate 次求值计时一次，小于等于 1 时每次都计时
+     */
+    public static void enable(int rate) {
+        sampleRate = Math.max(rate, 1);
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public static void reset() {
+        FORMULA_STATS.clear();
+        FUNCTION_STATS.clear();
+    }
+
+    /**
+     * @return 这次求值的权重，0 表示不计时
+     */
+    static int sample() {
+        int rate = sampleRate;
+        if (rate <= 1) {
+            return 1;
+        }
+        return ThreadLocalRandom.current().nextInt(rate) == 0 ? rate : 0;
+    }
+
+    static void recordFormula(String formula, int weight, long nanos) {
+        record(FORMULA_STATS, formula == null ? "" : formula, weight, nanos);
+    }
+
+    static void recordFunction(String funcName, int weight, long nanos) {
+        record(FUNCTION_STATS, funcName, weight, nanos);
+    }
+
+    private static void record(ConcurrentHashMap<String, ProfileStat> stats, String name, int weight, long nanos) {
+        ProfileStat stat = stats.get(name);
+        if (stat == null) {
+            // 超过上限时不再增加新的条目，并发时可能略微超出上限
+            stat = stats.computeIfAbsent(stats.size() < MAX_STATS ? name : OTHERS, ProfileStat::new);
+        }
+        stat.count.add(weight);
+        stat.totalNanos.add(nanos * weight);
+    }
+
+    private static List<ProfileStat> topN(Map<String, ProfileStat> stats, int topN) {
+        List<ProfileStat> list = new ArrayList<>(stats.values());
+        list.sort((a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+        return topN > 0 && list.size() > topN ? new ArrayList<>(list.subList(0, topN)) : list;
+    }
+
+    /**
+     * @param topN 返回的条数，小于等于 0 返回全部
+     * @return 按累计耗时从大到小排列的表达式统计
+     */
+    public static List<ProfileStat> getFormulaStats(int topN) {
+        return topN(FORMULA_STATS, topN);
+    }
+
+    /**
+     * @param topN 返回的条数，小于等于 0 返回全部
+     * @return 按累计耗时从大到小排列的函数统计，扩展函数名前面加 ext:
+     */
+    public static List<ProfileStat> getFunctionStats(int topN) {
+        return topN(FUNCTION_STATS, topN);
+    }
+
+    /**
+     * @param topN 表达式和函数各输出的条数
+     * @return 文本格式的统计报告
+     */
+    public static String report(int topN) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("formula profile, sample rate ").append(sampleRate).append('\n');
+        sb.append("-- formulas: count, total ms, avg ns\n");
+        for (ProfileStat stat : getFormulaStats(topN)) {
+            appendStat(sb, stat);
+        }
+        sb.append("-- functions: count, total ms, avg ns\n");
+        for (ProfileStat stat : getFunctionStats(topN)) {
+            appendStat(sb, stat);
+        }
+        return sb.toString();
+    }
+
+    private static void appendStat(StringBuilder sb, ProfileStat stat) {
+        sb.append(stat.getCount()).append('\t')
+            .append(stat.getTotalNanos() / 1000000).append('\t')
+            .append(stat.getAverageNanos()).append('\t')
+            .append(stat.getName()).append('\n');
+    }
+
+    /**
+     * 一个表达式或者一个函数的统计
+     */
+    public static final class ProfileStat {
+        private final String name;
+        private final LongAdder count;
+        private final LongAdder totalNanos;
+
+        ProfileStat(String name) {
+            this.name = name;
+            this.count = new LongAdder();
+            this.totalNanos = new LongAdder();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getAverageNanos() {
+            long c = count.sum();
+            return c == 0 ? 0 : totalNanos.sum() / c;
+        }
+
+        @Override
+        public String toString() {
+            return name + " count:" + getCount() + " nanos:" + getTotalNanos();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.centit.support.compiler;
+
+import com.centit.support.common.ObjectException;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 一组相互引用的计算字段，比如表单中的多个计算项
+ * 编译时从每个表达式中提取引用的变量，建立字段之间的依赖关系（有向无环图），
+ * 有循环引用时在编译时报错；
+ * 输入变量改变后只按拓扑顺序重新计算受影响的字段，不需要计算全部字段
+ * <p>
+ * 变量按名称的第一段判断依赖，比如 order.amount 和 order[0] 都依赖 order；
+ * 计算字段的值优先于输入对象中的同名属性。对象不可变，可以在多个线程中共用
+ */
+public final class FormulaSet {
+
+    /**
+     * 计算字段，按照拓扑顺序排列，被引用的字段在前面
+     */
+    private final String[] fieldNames;
+    private final CompiledFormula[] formulas;
+    private final Map<String, Integer> fieldIndexes;
+    /**
+     * 变量名（第一段） -》 直接引用这个变量的字段下标
+     */
+    private final Map<String, int[]> dependents;
+
+    private FormulaSet(String[] fieldNames, CompiledFormula[] formulas, Map<String, int[]> dependents) {
+        this.fieldNames = fieldNames;
+        this.formulas = formulas;
+        this.dependents = dependents;
+        this.fieldIndexes = new HashMap<>(fieldNames.length * 2);
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldIndexes.put(fieldNames[i], i);
+        }
+    }
+
+    /**
+     * @param fieldFormulas 字段名 -》 表达式
+     * @return 编译后的计算字段集合
+     * @throws ObjectException 字段之间有循环引用
+     */
+    public static FormulaSet compile(Map<String, String> fieldFormulas) {
+        return compile(fieldFormulas, null);
+    }
+
+    /**
+     * @param fieldFormulas 字段名 -》 表达式
+     * @param extendFuncMap 扩展函数
+     * @return 编译后的计算字段集合
+     * @throws ObjectException 字段之间有循环引用
+     */
+    public static FormulaSet compile(Map<String, String> fieldFormulas,
+                                     Map<String, Function<Object[], Object>> extendFuncMap) {
+        int fieldCount = fieldFormulas.size();
+        String[] names = new String[fieldCount];
+        CompiledFormula[] compiled = new CompiledFormula[fieldCount];
+        Map<String, Integer> indexes = new HashMap<>(fieldCount * 2);
+        int n = 0;
+        for (Map.Entry<String, String> ent : fieldFormulas.entrySet()) {
+            names[n] = ent.getKey();
+            compiled[n] = VariableFormula.compile(ent.getValue(), extendFuncMap);
+            indexes.put(ent.getKey(), n);
+            n++;
+        }
+        // 每个字段引用的变量，以及字段之间的引用关系
+        List<Set<String>> references = new ArrayList<>(fieldCount);
+        List<List<Integer>> usedBy = new ArrayList<>(fieldCount);
+        int[] inDegree = new int[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            usedBy.add(new ArrayList<>());
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            Set<String> refs = new LinkedHashSet<>();
+            for (String varName : compiled[i].getVariableNames()) {
+                refs.add(rootName(varName));
+            }
+            references.add(refs);
+            for (String ref : refs) {
+                Integer dep = indexes.get(ref);
+                if (dep != null) {
+                    usedBy.get(dep).add(i);
+                    inDegree[i]++;
+                }
+            }
+        }
+        // 拓扑排序
+        int[] order = new int[fieldCount];
+        int head = 0, tail = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            if (inDegree[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int i = order[head++];
+            for (int user : usedBy.get(i)) {
+                if (--inDegree[user] == 0) {
+                    order[tail++] = user;
+                }
+            }
+        }
+        if (tail < fieldCount) {
+            throw new ObjectException(ObjectException.LOGICAL_RULE_ERROE,
+                "计算字段循环引用：" + describeCycle(names, indexes, references, inDegree));
+        }
+
+        String[] sortedNames = new String[fieldCount];
+        CompiledFormula[] sortedFormulas = new CompiledFormula[fieldCount];
+        int[] position = new int[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            sortedNames[i] = names[order[i]];
+            sortedFormulas[i] = compiled[order[i]];
+            position[order[i]] = i;
+        }
+        Map<String, List<Integer>> users = new HashMap<>();
+        for (int i = 0; i < fieldCount; i++) {
+            for (String ref : references.get(i)) {
+                users.computeIfAbsent(ref, k -> new ArrayList<>()).add(position[i]);
+            }
+        }
+        Map<String, int[]> dependents = new HashMap<>(users.size() * 2);
+        for (Map.Entry<String, List<Integer>> ent : users.entrySet()) {
+            int[] fields = new int[ent.getValue().size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = ent.getValue().get(i);
+            }
+            dependents.put(ent.getKey(), fields);
+        }
+        return new FormulaSet(sortedNames, sortedFormulas, dependents);
+    }
+
+    /**
+     * 变量名的第一段，order.amount 和 order[0] 都为 order
+     */
+    static String rootName(String varName) {
+        int n = varName.length();
+        for (int i = 0; i < n; i++) {
+            char c = varName.charAt(i);
+            if (c == '.' || c == '[') {
+                return varName.substring(0, i).trim();
+            }
+        }
+        return varName.trim();
+    }
+
+    /**
+     * 拓扑排序后剩下的字段中一定有环，从任意一个开始沿着引用找到重复的字段
+     */
+    private static String describeCycle(String[] names, Map<String, Integer> indexes,
+                                        List<Set<String>> references, int[] inDegree) {
+        int start = 0;
+        while (inDegree[start] == 0) {
+            start++;
+        }
+        List<Integer> path = new ArrayList<>();
+        int[] visitedAt = new int[names.length];
+        Arrays.fill(visitedAt, -1);
+        int current = start;
+        while (visitedAt[current] < 0) {
+            visitedAt[current] = path.size();
+            path.add(current);
+            for (String ref : references.get(current)) {
+                Integer dep = indexes.get(ref);
+                if (dep != null && inDegree[dep] > 0) {
+                    current = dep;
+                    break;
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = visitedAt[current]; i < path.size(); i++) {
+            sb.append(names[path.get(i)]).append(" -> ");
+        }
+        return sb.append(names[current]).toString();
+    }
+
+    /**
+     * 计算所有字段
+     *
+     * @param record 输入对象，可以是一个Map 、JSON 或者Pojo
+     * @return 字段名 -》 值，按照计算顺序排列
+     */
+    public Map<String, Object> calculate(Object record) {
+        Map<String, Object> results = new LinkedHashMap<>(fieldNames.length * 2);
+        VariableTranslate trans = new FieldTranslate(results, record);
+        for (int i = 0; i < fieldNames.length; i++) {
+            results.put(fieldNames[i], formulas[i].evaluate(trans));
+        }
+        return results;
+    }
+
+    /**
+     * 输入变量改变后，只重新计算直接或者间接引用这些变量的字段，结果直接写入 results
+     *
+     * @param results          上次 calculate 或者 recalculate 的结果
+     * @param record           改变后的输入对象
+     * @param changedVariables 改变的变量名，可以是输入变量也可以是计算字段（比如手工修改了字段值）
+     * @return 重新计算的字段，按照计算顺序排列
+     */
+    public List<String> recalculate(Map<String, Object> results, Object record,
+                                    Collection<String> changedVariables) {
+        boolean[] dirty = new boolean[fieldNames.length];
+        int first = fieldNames.length;
+        for (String varName : changedVariables) {
+            String root = rootName(varName);
+            first = Math.min(first, markDependents(root, dirty));
+        }
+        List<String> recalculated = new ArrayList<>();
+        VariableTranslate trans = new FieldTranslate(results, record);
+        // 按拓扑顺序计算，字段的值改变后标记引用它的字段
+        for (int i = first; i < fieldNames.length; i++) {
+            if (!dirty[i]) {
+                continue;
+            }
+            Object oldValue = results.get(fieldNames[i]);
+            Object newValue = formulas[i].evaluate(trans);
+            results.put(fieldNames[i], newValue);
+            recalculated.add(fieldNames[i]);
+            if (!Objects.equals(oldValue, newValue)) {
+                markDependents(fieldNames[i], dirty);
+            }
+        }
+        return recalculated;
+    }
+
+    public List<String> recalculate(Map<String, Object> results, Object record, String... changedVariables) {
+        return recalculate(results, record, Arrays.asList(changedVariables));
+    }
+
+    /**
+     * @return 标记的字段中最小的下标，没有时为字段数
+     */
+    private int markDependents(String varName, boolean[] dirty) {
+        int[] fields = dependents.get(varName);
+        int first = fieldNames.length;
+        if (fields != null) {
+            for (int field : fields) {
+                dirty[field] = true;
+                first = Math.min(first, field);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @param varNames 变量名
+     * @return 直接或者间接引用这些变量的字段，按照计算顺序排列
+     */
+    public List<String> getAffectedFields(Collection<String> varNames) {
+        boolean[] dirty = new boolean[fieldNames.length];
+        for (String varName : varNames) {
+            markDependents(rootName(varName), dirty);
+        }
+        List<String> affected = new ArrayList<>();
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (dirty[i]) {
+                affected.add(fieldNames[i]);
+                markDependents(fieldNames[i], dirty);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * @return 字段名，按照计算顺序排列
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(Arrays.asList(fieldNames));
+    }
+
+    public CompiledFormula getFormula(String fieldName) {
+        Integer ind = fieldIndexes.get(fieldName);
+        return ind == null ? null : formulas[ind];
+    }
+
+    /**
+     * 计算字段的值优先，其他变量从输入对象中获取
+     */
+    private static final class FieldTranslate implements VariableTranslate {
+        private final Map<String, Object> results;
+        private final ObjectTranslate recordTrans;
+
+        FieldTranslate(Map<String, Object> results, Object record) {
+            this.results = results;
+            this.recordTrans = new ObjectTranslate(record);
+        }
+
+        @Override
+        public Object getVarValue(String varName) {
+            if (results.containsKey(varName)) {
+                return results.get(varName);
+            }
+            String root = rootName(varName);
+            if (root.length() < varName.length() && results.containsKey(root)) {
+                return VariableAccessor.attainValue(results, varName);
+            }
+            return recordTrans.getVarValue(varName);
+        }
+    }
+}
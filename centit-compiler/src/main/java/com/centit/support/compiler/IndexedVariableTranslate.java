@@ -0,0 +1,13 @@
+package com.centit.support.compiler;
+
+/**
+ * 按变量序号取值的变量解释器，序号由 FormulaParser 在解析时按变量名分配，
+ * 同一个表达式中同名的变量序号相同，只对解析出这个序号的表达式有效
+ */
+interface IndexedVariableTranslate extends VariableTranslate {
+    /**
+     * @param varIndex 变量序号，见 FormulaNode.VariableNode.getVarIndex
+     * @return 变量的值
+     */
+    Object getVarValue(int varIndex);
+}
@@ -20,7 +20,26 @@ public class Lexer {
      * SQL 的注释方式 用 -- 单行注释，/* 多行注释
      */
     public static final int LANG_TYPE_SQL = 2;
+
+    /**
+     * 单词流模式中的单词类型
+     * TOKEN_KEYWORD 为作为运算符的单词，and or not in like div mod dbmod ，不区分大小写
+     */
+    public static final int TOKEN_EOF = 0;
+    public static final int TOKEN_NUMBER = 1;
+    public static final int TOKEN_LABEL = 2;
+    public static final int TOKEN_KEYWORD = 3;
+    public static final int TOKEN_STRING = 4;
+    public static final int TOKEN_OPERATOR = 5;
+    public static final int TOKEN_DELIMITER = 6;
+    public static final int TOKEN_OTHER = 7;
+    private static final int TOKEN_ERROR = -1;
+
+    private static final String[] KEY_WORDS = {"and", "or", "not", "in", "like", "div", "mod", "dbmod"};
+
     private String curWord;
+    private int tokenStart;
+    private int tokenType;
     private boolean isBack;
     private String formulaSen;
     private boolean canAcceptOpt;
@@ -78,6 +97,19 @@ public class Lexer {
         return true;
     }
 
+    private static boolean isKeyWord(String sentence, int bp, int ep) {
+        int len = ep - bp;
+        if (len < 2 || len > 5) {
+            return false;
+        }
+        for (String keyWord : KEY_WORDS) {
+            if (keyWord.length() == len && sentence.regionMatches(true, bp, keyWord, 0, len)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 将一个字符串按照 某个单词分割，或略 括号 和 “” 中 相同的单词
      *
@@ -140,6 +172,10 @@ public class Lexer {
         canAcceptOpt = false;
     }
 
+    public String getFormula() {
+        return formulaSen;
+    }
+
     public boolean isCanAcceptOpt() {
         return canAcceptOpt;
     }
@@ -152,14 +188,20 @@ public class Lexer {
         return startPos;
     }
 
-    public String getARawWord() {
+    /**
+     * 扫描一个原始单词，单词的位置为 [tokenStart, startPos)
+     *
+     * @return 单词类型 TOKEN_*
+     */
+    private int scanRawWord() {
         int sl = formulaSen.length();
 
         while ((startPos < sl) && (formulaSen.charAt(startPos) == ' ' || formulaSen.charAt(startPos) == 9 || formulaSen.charAt(startPos) == 10 || formulaSen.charAt(startPos) == 13))
             startPos++;
-        if (startPos >= sl) return "";
-
+        tokenStart = startPos;
+        if (startPos >= sl) return TOKEN_EOF;
 
+        int tokenType;
         int bp = startPos;
         // 数字
         if ((formulaSen.charAt(startPos) >= '0' && formulaSen.charAt(startPos) <= '9') ||
@@ -178,6 +220,9 @@ public class Lexer {
                 startPos++;
             }
             canAcceptOpt = true;
+            // 单独的正负号
+            tokenType = startPos - bp == 1 && (formulaSen.charAt(bp) == '-' || formulaSen.charAt(bp) == '+') ?
+                TOKEN_OPERATOR : TOKEN_NUMBER;
             // 标识符
         } else if ((formulaSen.charAt(startPos) >= 'a' && formulaSen.charAt(startPos) <= 'z') ||
             (formulaSen.charAt(startPos) >= 'A' && formulaSen.charAt(startPos) <= 'Z') ||
@@ -192,8 +237,10 @@ public class Lexer {
                       formulaSen.charAt(startPos)=='@'*/))
                 startPos++;
             canAcceptOpt = true;
+            tokenType = isKeyWord(formulaSen, bp, startPos) ? TOKEN_KEYWORD : TOKEN_LABEL;
         } else {
             canAcceptOpt = false;
+            tokenType = TOKEN_OPERATOR;
             switch (formulaSen.charAt(startPos)) {
                 case '+':
                     ++startPos;
@@ -247,9 +294,14 @@ public class Lexer {
                     ++startPos;
                     if ((startPos < sl) && (formulaSen.charAt(startPos) == '&')) startPos++;
                     break;
+                case '^':
+                case '%':
+                    startPos++;
+                    break;
                 case '\"': //字符串
                 case '\'': //字符串
                     canAcceptOpt = true;
+                    tokenType = TOKEN_STRING;
                     startPos++;
                     break;
                 case '.':
@@ -258,51 +310,90 @@ public class Lexer {
                         (formulaSen.charAt(startPos) >= '0' && formulaSen.charAt(startPos) <= '9')) {
                         startPos++;
                     }
+                    tokenType = startPos - bp > 1 ? TOKEN_NUMBER : TOKEN_OTHER;
                     break;
                 case ')':
                     canAcceptOpt = true;
+                    tokenType = TOKEN_DELIMITER;
+                    startPos++;
+                    break;
+                case '(':
+                case '[':
+                case ']':
+                case '{':
+                case '}':
+                case ',':
+                case ';':
+                    tokenType = TOKEN_DELIMITER;
                     startPos++;
                     break;
                 default: // \\ "
+                    tokenType = TOKEN_OTHER;
                     startPos++;
                     break;
             }
         }
+        return tokenType;
+    }
 
-        return formulaSen.substring(bp, startPos);
+    public String getARawWord() {
+        if (scanRawWord() == TOKEN_EOF) return "";
+        return formulaSen.substring(tokenStart, startPos);
     }
 
-    public String getARegularWord() {
-        String s = getARawWord();
-        int sl = formulaSen.length();
-        if ("\"".equals(s)) {
-            int bp = startPos - 1;
-            while (startPos < sl && formulaSen.charAt(startPos) != '\"') {
-                if (this.languageType == LANG_TYPE_JAVA && formulaSen.charAt(startPos) == '\\') {
-                    startPos++;
-                }
-                startPos++;
-            }
-            if (startPos >= sl)//没有找到配对的\"
-                return null;
-            startPos++;
-            canAcceptOpt = true;
-            s = formulaSen.substring(bp, startPos);
-        } else if ("\'".equals(s)) {
-            int bp = startPos - 1;
-            while (startPos < sl && formulaSen.charAt(startPos) != '\'') {
+    /**
+     * 扫描一个单词，字符串常量作为一个整体
+     *
+     * @return 单词类型 TOKEN_*，字符串没有结束的引号时返回 TOKEN_ERROR
+     */
+    private int scanRegularWord() {
+        int tokenType = scanRawWord();
+        if (tokenType == TOKEN_STRING) {
+            int sl = formulaSen.length();
+            char quote = formulaSen.charAt(tokenStart);
+            while (startPos < sl && formulaSen.charAt(startPos) != quote) {
                 if (this.languageType == LANG_TYPE_JAVA && formulaSen.charAt(startPos) == '\\') {
                     startPos++;
                 }
                 startPos++;
             }
-            if (startPos >= sl)//没有找到配对的\'
-                return null;
+            if (startPos >= sl)//没有找到配对的引号
+                return TOKEN_ERROR;
             startPos++;
             canAcceptOpt = true;
-            s = formulaSen.substring(bp, startPos);
         }
-        return s;
+        return tokenType;
+    }
+
+    public String getARegularWord() {
+        int tokenType = scanRegularWord();
+        if (tokenType == TOKEN_ERROR) return null;
+        if (tokenType == TOKEN_EOF) return "";
+        return formulaSen.substring(tokenStart, startPos);
+    }
+
+    private boolean isTokenChars(char c, char c2) {
+        return startPos - tokenStart == 2 && formulaSen.charAt(tokenStart) == c
+            && formulaSen.charAt(tokenStart + 1) == c2;
+    }
+
+    /**
+     * 扫描一个单词并跳过注释
+     *
+     * @return 单词类型 TOKEN_*
+     */
+    private int scanWord() {
+        while (true) {
+            int tokenType = scanRegularWord();
+            if (tokenType == TOKEN_OPERATOR &&
+                ((this.languageType == LANG_TYPE_JAVA && isTokenChars('/', '/')) ||
+                    (this.languageType == LANG_TYPE_SQL && isTokenChars('-', '-'))))
+                this.seekToLineEnd();
+            else if (tokenType == TOKEN_OPERATOR && this.languageType != LANG_TYPE_DEFAULT && isTokenChars('/', '*'))
+                this.seekToAnnotateEnd();
+            else
+                return tokenType;
+        }
     }
 
     /**
@@ -317,20 +408,105 @@ public class Lexer {
             isBack = false;
             return curWord;
         }
+        int tokenType = scanWord();
+        if (tokenType == TOKEN_ERROR)
+            curWord = null;
+        else if (tokenType == TOKEN_EOF)
+            curWord = "";
+        else
+            curWord = formulaSen.substring(tokenStart, startPos);
+        return curWord;
+    }
 
-        while (true) {
-            curWord = getARegularWord();
-            if (curWord == null || "".equals(curWord))
-                break;
-            else if ((this.languageType == LANG_TYPE_JAVA && "//".equals(curWord)) ||
-                (this.languageType == LANG_TYPE_SQL && "--".equals(curWord)))
-                this.seekToLineEnd();
-            else if (this.languageType != LANG_TYPE_DEFAULT && "/*".equals(curWord))
-                this.seekToAnnotateEnd();
-            else
-                break;
+    /**
+     * 单词流模式：读取下一个单词（跳过注释），不生成字符串，
+     * 单词的位置通过 getTokenStart 、getTokenEnd 获取，用 tokenEquals 等方法比较；
+     * 这个模式和 writeBackAWord 不能混用，调用前写回的单词会被丢弃
+     *
+     * @return 单词类型 TOKEN_* ，结束（包括字符串没有结束的引号）时返回 TOKEN_EOF
+     */
+    public int nextToken() {
+        isBack = false;
+        tokenType = scanWord();
+        if (tokenType == TOKEN_ERROR) {
+            tokenType = TOKEN_EOF;
         }
-        return curWord;
+        if (tokenType == TOKEN_EOF) {
+            tokenStart = startPos;
+        }
+        return tokenType;
+    }
+
+    public int nextToken(boolean bAcceptOpt) {
+        canAcceptOpt = bAcceptOpt;
+        return nextToken();
+    }
+
+    /**
+     * 单词流模式：从当前位置开始连续读取单词，每个单词以 (类型, 开始位置, 结束位置) 三个整数
+     * 依次写入 buffer，buffer 可以重复使用；读到结束或者 buffer 写满为止
+     *
+     * @param buffer 存放单词的缓冲区，长度应该是 3 的倍数
+     * @return 读取的单词个数，0 表示已经结束
+     */
+    public int readTokens(int[] buffer) {
+        int nTokens = 0;
+        int maxTokens = buffer.length / 3;
+        while (nTokens < maxTokens && nextToken() != TOKEN_EOF) {
+            buffer[nTokens * 3] = tokenType;
+            buffer[nTokens * 3 + 1] = tokenStart;
+            buffer[nTokens * 3 + 2] = startPos;
+            nTokens++;
+        }
+        return nTokens;
+    }
+
+    public int getTokenType() {
+        return tokenType;
+    }
+
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    public int getTokenEnd() {
+        return startPos;
+    }
+
+    public int getTokenLength() {
+        return startPos - tokenStart;
+    }
+
+    /**
+     * @param index 单词中的位置
+     * @return 单词中的字符
+     */
+    public char tokenCharAt(int index) {
+        return formulaSen.charAt(tokenStart + index);
+    }
+
+    /**
+     * @return 当前单词是否为单个字符 c
+     */
+    public boolean isTokenChar(char c) {
+        return startPos - tokenStart == 1 && formulaSen.charAt(tokenStart) == c;
+    }
+
+    public boolean tokenEquals(String word) {
+        return word.length() == startPos - tokenStart &&
+            formulaSen.regionMatches(tokenStart, word, 0, word.length());
+    }
+
+    public boolean tokenEqualsIgnoreCase(String word) {
+        return word.length() == startPos - tokenStart &&
+            formulaSen.regionMatches(true, tokenStart, word, 0, word.length());
+    }
+
+    /**
+     * @return 当前单词，需要时才生成字符串
+     */
+    public String getTokenString() {
+        return formulaSen.substring(tokenStart, startPos);
     }
 
     public String getAWord(boolean bAcceptOpt) {
@@ -343,6 +519,26 @@ public class Lexer {
         return getARawWord();
     }
 
+    /**
+     * 括号匹配等内部扫描使用，读取下一个单词但不生成字符串；有写回的单词时先返回写回的单词
+     *
+     * @param bAcceptOpt 同 getAWord(bAcceptOpt)
+     * @return 单个字符的单词返回这个字符，其他单词返回 0 ，结束返回 -1
+     */
+    private int nextWordChar(boolean bAcceptOpt) {
+        canAcceptOpt = bAcceptOpt;
+        if (isBack) {
+            isBack = false;
+            if (curWord == null || curWord.isEmpty())
+                return -1;
+            return curWord.length() == 1 ? curWord.charAt(0) : 0;
+        }
+        int type = scanWord();
+        if (type == TOKEN_ERROR || type == TOKEN_EOF)
+            return -1;
+        return startPos - tokenStart == 1 ? formulaSen.charAt(tokenStart) : 0;
+    }
+
     public void seekToLineEnd() {
         int sl = formulaSen.length();
         while ((startPos < sl) && (formulaSen.charAt(startPos) != 10))
@@ -370,12 +566,12 @@ public class Lexer {
     public boolean seekToRightBracket() {
         int nBracket = 1;
         while (true) {
-            String sWord = getAWord(false);
-            if (sWord == null || sWord.equals(""))
+            int c = nextWordChar(false);
+            if (c < 0)
                 return false;
-            if (sWord.equals("("))
+            if (c == '(')
                 nBracket++;
-            else if (sWord.equals(")"))
+            else if (c == ')')
                 nBracket--;
             if (nBracket == 0)
                 return true;
@@ -390,12 +586,12 @@ public class Lexer {
     public boolean seekToRightSquareBracket() {
         int nBracket = 1;
         while (true) {
-            String sWord = getAWord(false);
-            if (sWord == null || sWord.equals(""))
+            int c = nextWordChar(false);
+            if (c < 0)
                 return false;
-            if (sWord.equals("["))
+            if (c == '[')
                 nBracket++;
-            else if (sWord.equals("]"))
+            else if (c == ']')
                 nBracket--;
             if (nBracket == 0)
                 return true;
@@ -410,12 +606,12 @@ public class Lexer {
     public boolean seekToRightBrace() {
         int nBracket = 1;
         while (true) {
-            String sWord = getAWord(false);
-            if (sWord == null || sWord.equals(""))
+            int c = nextWordChar(false);
+            if (c < 0)
                 return false;
-            if (sWord.equals("{"))
+            if (c == '{')
                 nBracket++;
-            else if (sWord.equals("}"))
+            else if (c == '}')
                 nBracket--;
             if (nBracket == 0)
                 return true;
@@ -424,14 +620,13 @@ public class Lexer {
 
     public void skipAOperand() {
         int nBracket = 0;
-        String sWord;
         while (true) {
-            sWord = getAWord();
-            if (sWord == null || sWord.equals(""))
+            int c = nextWordChar(canAcceptOpt);
+            if (c < 0)
                 return;
-            if (sWord.equals("("))
+            if (c == '(')
                 nBracket++;
-            else if (sWord.equals(")")) {
+            else if (c == ')') {
                 nBracket--;
                 if (nBracket < 0) {
                     writeBackAWord(")");
@@ -439,7 +634,7 @@ public class Lexer {
                 }
             }
 
-            if (sWord.equals(",")) {
+            if (c == ',') {
                 if (nBracket == 0) {
                     writeBackAWord(",");
                     return;
@@ -1,7 +1,5 @@
 package com.centit.support.compiler;
 
-import com.centit.support.algorithm.ReflectionOpt;
-
 public class ObjectTranslate implements VariableTranslate {
 
     private Object varObj;
@@ -28,8 +26,8 @@ public class ObjectTranslate implements VariableTranslate {
     public Object getVarValue(String varName) {
         if (varObj == null)
             return null;
-        return ReflectionOpt.attainExpressionValue
-            /*ReflectionOpt.forceGetProperty*/(varObj, varName);
+        // 和 ReflectionOpt.attainExpressionValue 结果一致，路径和 getter 只解析一次
+        return VariableAccessor.attainValue(varObj, varName);
     }
 
     public void setVarObject(Object varObj) {
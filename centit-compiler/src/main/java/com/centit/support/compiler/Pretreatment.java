@@ -1,12 +1,21 @@
 package com.centit.support.compiler;
 
 import com.centit.support.algorithm.*;
+import com.centit.support.common.LruCachedMap;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public abstract class Pretreatment {
 
+    /**
+     * 编译后的模板，键值为模板
+     */
+    private static final LruCachedMap<String, CompiledTemplate> TEMPLATE_CACHE =
+        new LruCachedMap<>(1024);
+
     private Pretreatment() {
         throw new IllegalAccessError("Utility class");
     }
@@ -93,85 +102,112 @@ public abstract class Pretreatment {
         Lexer varMorp = new Lexer();
         varMorp.setFormula(szFormula);
         StringBuilder sDesFormula = new StringBuilder();
-        String sWord = varMorp.getAWord();
 
-        while (sWord != null && !sWord.equals("")) {
-            if (sWord.equals("$")) {
-                sWord = varMorp.getAWord();
-                if (sWord.equals("{")) {
-                    sWord = varMorp.getStringUntil("}");
+        int tokenType = varMorp.nextToken();
+        while (tokenType != Lexer.TOKEN_EOF) {
+            if (varMorp.isTokenChar('$')) {
+                varMorp.nextToken();
+                if (varMorp.isTokenChar('{')) {
+                    String sWord = varMorp.getStringUntil("}");
                     sDesFormula.append(objectToFormulaString(varTrans.getVarValue(sWord)))
                         .append(" ");
                 } else
-                    sDesFormula.append("$" + sWord + " ");
-            } else if (Lexer.isLabel(sWord) && !VariableFormula.isKeyWord(sWord) && EmbedFunc.getFuncNo(sWord) == -1) {
-                sDesFormula.append(objectToFormulaString(varTrans.getVarValue(sWord)))
+                    sDesFormula.append('$').append(szFormula, varMorp.getTokenStart(), varMorp.getTokenEnd())
+                        .append(" ");
+            } else if (tokenType == Lexer.TOKEN_LABEL && EmbedFunc.getFuncNo(varMorp.getTokenString()) == -1) {
+                sDesFormula.append(objectToFormulaString(varTrans.getVarValue(varMorp.getTokenString())))
                     .append(" ");
             } else
-                sDesFormula.append(sWord).append(" ");
+                sDesFormula.append(szFormula, varMorp.getTokenStart(), varMorp.getTokenEnd()).append(" ");
 
-            sWord = varMorp.getAWord();
+            tokenType = varMorp.nextToken();
         }
         return sDesFormula.toString();
     }
 
 
     /**
-     * mapTemplateString
-     * 变量 形式如 {变量名} 注意这个和上面的不一，变量必须放在{}中
+     * 编译模板，变量 形式如 {变量名}，\ 为转义符
+     * 模板被拆分为文本和变量，编译结果不可变，可以反复渲染
      *
-     * @param template  模板，比如： 你的姓名是{usreCode} , 传入有userCode建的map或者有userCode属性的对象
-     * @param varTrans  变量解释其
-     * @param nullValue 找不到变量时的值
-     * @return 新的表达式
+     * @param template 模板，比如： 你的姓名是{usreCode}
+     * @return 编译后的模板
      */
-    public static String mapTemplateString(String template, VariableTranslate varTrans, String nullValue) {
+    public static CompiledTemplate compileTemplate(String template) {
         if (StringUtils.isBlank(template)) {
-            return nullValue;
+            return new CompiledTemplate(template, null, null);
         }
         Lexer varTemplate = new Lexer();
         varTemplate.setFormula(template);
-        StringBuilder mapString = new StringBuilder();
+        List<String> literals = new ArrayList<>();
+        List<String> varNames = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
         int nlen = template.length();
         int bp = 0;
         while (true) {
-            String aword = varTemplate.getAWord();
+            int tokenType = varTemplate.nextToken();
             while (true) {
                 // 检查转义符
-                if ("\\".equals(aword)) {
+                if (varTemplate.isTokenChar('\\')) {
                     int ep = varTemplate.getCurrPos();
-                    mapString.append(template.substring(bp, ep - 1));
+                    literal.append(template, bp, ep - 1);
                     //获取 \\ 后面的一个字符
-                    mapString.append(template.charAt(ep));
+                    literal.append(template.charAt(ep));
                     varTemplate.setPosition(ep + 1);
                     bp = varTemplate.getCurrPos();
-                    //aword = varTemplate.getAWord();
-                } else if ("{".equals(aword) || aword == null || "".equals(aword)) {
+                } else if (tokenType == Lexer.TOKEN_EOF || varTemplate.isTokenChar('{')) {
                     break;
                 }
-                aword = varTemplate.getAWord();
+                tokenType = varTemplate.nextToken();
             }
-            if (!"{".equals(aword))
+            if (tokenType == Lexer.TOKEN_EOF)
                 break;
 
             int ep = varTemplate.getCurrPos();
             if (ep - 1 > bp) {
-                mapString.append(template.substring(bp, ep - 1));
+                literal.append(template, bp, ep - 1);
             }
 
             varTemplate.seekToRightBrace();
             bp = varTemplate.getCurrPos();
             if (bp - 1 > ep) {
-                String valueName = template.substring(ep, bp - 1);
-                mapString.append(GeneralAlgorithm.nvl(
-                    StringBaseOpt.objectToString(
-                        varTrans.getVarValue(valueName)), nullValue));
-                /*ReflectionOpt.attainExpressionValue(object,valueName)*/
+                literals.add(literal.toString());
+                literal.setLength(0);
+                varNames.add(template.substring(ep, bp - 1));
             }
         }
         if (bp < nlen)
-            mapString.append(template.substring(bp));
-        return mapString.toString();
+            literal.append(template, bp, nlen);
+        literals.add(literal.toString());
+        return new CompiledTemplate(template,
+            literals.toArray(new String[0]), varNames.toArray(new String[0]));
+    }
+
+    /**
+     * 从缓存中获取编译后的模板，没有则编译并放入缓存
+     *
+     * @param template 模板
+     * @return 编译后的模板
+     */
+    public static CompiledTemplate compileTemplateWithCache(String template) {
+        return TEMPLATE_CACHE.get(template, Pretreatment::compileTemplate);
+    }
+
+    /**
+     * mapTemplateString
+     * 变量 形式如 {变量名} 注意这个和上面的不一，变量必须放在{}中
+     * 编译后的模板保存在有限大小的缓存中
+     *
+     * @param template  模板，比如： 你的姓名是{usreCode} , 传入有userCode建的map或者有userCode属性的对象
+     * @param varTrans  变量解释其
+     * @param nullValue 找不到变量时的值
+     * @return 新的表达式
+     */
+    public static String mapTemplateString(String template, VariableTranslate varTrans, String nullValue) {
+        if (StringUtils.isBlank(template)) {
+            return nullValue;
+        }
+        return compileTemplateWithCache(template).render(varTrans, nullValue);
     }
 
     /**
@@ -0,0 +1,309 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.BooleanBaseOpt;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 一组布尔条件（规则），比如工作流的路由条件，对同一个上下文对象一次求值，返回成立的规则
+ * 编译时合并所有规则中相同的子表达式（包括变量），每个子表达式在一次求值中最多计算一次，
+ * 求值的代价和不同的子表达式个数有关，和规则的总长度无关
+ * <p>
+ * 合并只针对完全相同的子表达式，不做交换律等变换；短路运算、if 和 case 仍然只计算需要的部分；
+ * 扩展函数可能有副作用，不合并，但是它的参数可以合并。对象不可变，可以在多个线程中共用
+ */
+public final class RuleSet {
+
+    private final String[] ruleIds;
+    private final FormulaNode[] rules;
+    /**
+     * 需要缓存计算结果的子表达式个数
+     */
+    private final int slotCount;
+    private final int distinctNodeCount;
+
+    private RuleSet(String[] ruleIds, FormulaNode[] rules, int slotCount, int distinctNodeCount) {
+        this.ruleIds = ruleIds;
+        this.rules = rules;
+        this.slotCount = slotCount;
+        this.distinctNodeCount = distinctNodeCount;
+    }
+
+    /**
+     * @param rules 规则ID -》 条件表达式
+     * @return 编译后的规则集合
+     */
+    public static RuleSet compile(Map<String, String> rules) {
+        return compile(rules, null);
+    }
+
+    /**
+     * @param rules         规则ID -》 条件表达式
+     * @param extendFuncMap 扩展函数
+     * @return 编译后的规则集合
+     */
+    public static RuleSet compile(Map<String, String> rules,
+                                  Map<String, Function<Object[], Object>> extendFuncMap) {
+        Builder builder = new Builder();
+        int ruleCount = rules.size();
+        String[] ids = new String[ruleCount];
+        FormulaNode[] roots = new FormulaNode[ruleCount];
+        int n = 0;
+        for (Map.Entry<String, String> ent : rules.entrySet()) {
+            ids[n] = ent.getKey();
+            roots[n] = builder.share(VariableFormula.compile(ent.getValue(), extendFuncMap).getRoot());
+            n++;
+        }
+        builder.countReferences(roots);
+        for (int i = 0; i < ruleCount; i++) {
+            roots[i] = builder.memoize(roots[i]);
+        }
+        return new RuleSet(ids, roots, builder.slotCount, builder.nodeIds.size());
+    }
+
+    /**
+     * 求值所有规则
+     *
+     * @param varTrans 变量解释器，为 null 时标识符作为字符串，这时不缓存子表达式的结果
+     * @return 条件成立的规则ID，按照规则的顺序
+     */
+    public List<String> evaluate(VariableTranslate varTrans) {
+        VariableTranslate context = varTrans == null ? null : new EvaluateContext(varTrans, slotCount);
+        List<String> matched = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            if (BooleanBaseOpt.castObjectToBoolean(rules[i].evaluate(context), false)) {
+                matched.add(ruleIds[i]);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @param varObj 上下文对象，可以是一个Map 、JSON 或者Pojo
+     * @return 条件成立的规则ID，按照规则的顺序
+     */
+    public List<String> evaluate(Object varObj) {
+        return evaluate(new ObjectTranslate(varObj));
+    }
+
+    /**
+     * @param varTrans 变量解释器
+     * @return 规则ID -》 表达式的值
+     */
+    public Map<String, Object> evaluateValues(VariableTranslate varTrans) {
+        VariableTranslate context = varTrans == null ? null : new EvaluateContext(varTrans, slotCount);
+        Map<String, Object> values = new LinkedHashMap<>(rules.length * 2);
+        for (int i = 0; i < rules.length; i++) {
+            values.put(ruleIds[i], rules[i].evaluate(context));
+        }
+        return values;
+    }
+
+    public List<String> getRuleIds() {
+        return Collections.unmodifiableList(Arrays.asList(ruleIds));
+    }
+
+    /**
+     * @return 合并后不同的子表达式个数
+     */
+    public int getDistinctNodeCount() {
+        return distinctNodeCount;
+    }
+
+    /**
+     * @return 被多处引用、求值时缓存结果的子表达式个数
+     */
+    public int getSharedNodeCount() {
+        return slotCount;
+    }
+
+    /**
+     * 一次求值的上下文，保存共用子表达式的计算结果
+     */
+    private static final class EvaluateContext implements VariableTranslate {
+        private static final Object NOT_EVALUATED = new Object();
+
+        private final VariableTranslate varTrans;
+        private final Object[] values;
+
+        EvaluateContext(VariableTranslate varTrans, int slotCount) {
+            this.varTrans = varTrans;
+            this.values = new Object[slotCount];
+            Arrays.fill(values, NOT_EVALUATED);
+        }
+
+        @Override
+        public Object getVarValue(String labelName) {
+            return varTrans.getVarValue(labelName);
+        }
+    }
+
+    /**
+     * 被多处引用的子表达式，同一个上下文中只计算一次
+     */
+    private static final class SharedNode extends FormulaNode {
+        private final int slot;
+        private final FormulaNode node;
+
+        SharedNode(int slot, FormulaNode node) {
+            this.slot = slot;
+            this.node = node;
+        }
+
+        @Override
+        public Object evaluate(VariableTranslate trans) {
+            if (!(trans instanceof EvaluateContext)) {
+                return node.evaluate(trans);
+            }
+            EvaluateContext context = (EvaluateContext) trans;
+            Object value = context.values[slot];
+            if (value == EvaluateContext.NOT_EVALUATED) {
+                value = node.evaluate(trans);
+                context.values[slot] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public List<FormulaNode> getOperands() {
+            return Collections.singletonList(node);
+        }
+    }
+
+    private static final class Builder {
+        /**
+         * 子表达式的结构 -》 合并后的节点
+         */
+        private final Map<String, FormulaNode> sharedNodes = new HashMap<>();
+        private final Map<FormulaNode, Integer> nodeIds = new IdentityHashMap<>();
+        private final Map<FormulaNode, Integer> refCounts = new IdentityHashMap<>();
+        private final Map<FormulaNode, FormulaNode> memoized = new IdentityHashMap<>();
+        private int slotCount = 0;
+
+        private int nodeId(FormulaNode node) {
+            return nodeIds.get(node);
+        }
+
+        private String operandsKey(List<FormulaNode> operands) {
+            StringBuilder key = new StringBuilder();
+            for (FormulaNode operand : operands) {
+                key.append(nodeId(operand)).append(',');
+            }
+            return key.toString();
+        }
+
+        private List<FormulaNode> shareNodes(List<FormulaNode> nodes) {
+            List<FormulaNode> shared = new ArrayList<>(nodes.size());
+            for (FormulaNode node : nodes) {
+                shared.add(share(node));
+            }
+            return shared;
+        }
+
+        private FormulaNode register(String key, FormulaNode node) {
+            if (key != null) {
+                FormulaNode existing = sharedNodes.putIfAbsent(key, node);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            nodeIds.put(node, nodeIds.size());
+            return node;
+        }
+
+        /**
+         * 自底向上合并结构相同的节点
+         */
+        FormulaNode share(FormulaNode node) {
+            if (node instanceof FormulaNode.ConstNode) {
+                Object value = ((FormulaNode.ConstNode) node).getValue();
+                return register("C" + (value == null ? "null" :
+                    value.getClass().getName() + ':' + value), node);
+            }
+            if (node instanceof FormulaNode.VariableNode) {
+                FormulaNode.VariableNode varNode = (FormulaNode.VariableNode) node;
+                return register("V" + varNode.getVarName() + '\u0000' + varNode.getDefaultValue(), node);
+            }
+            List<FormulaNode> operands = shareNodes(node.getOperands());
+            if (node instanceof FormulaNode.OperatorNode) {
+                int optID = ((FormulaNode.OperatorNode) node).getOptID();
+                return register("O" + optID + '(' + operandsKey(operands),
+                    new FormulaNode.OperatorNode(optID, operands.get(0), operands.get(1)));
+            }
+            if (node instanceof FormulaNode.NotNode) {
+                return register("N(" + operandsKey(operands), new FormulaNode.NotNode(operands.get(0)));
+            }
+            if (node instanceof FormulaNode.InNode) {
+                return register("I(" + operandsKey(operands), new FormulaNode.InNode(operands.get(0),
+                    new ArrayList<>(operands.subList(1, operands.size()))));
+            }
+            if (node instanceof FormulaNode.FunctionNode) {
+                FunctionInfo funcInfo = ((FormulaNode.FunctionNode) node).getFuncInfo();
+                return register("F" + funcInfo.nFuncID + '(' + operandsKey(operands),
+                    new FormulaNode.FunctionNode(funcInfo, operands));
+            }
+            if (node instanceof FormulaNode.ListNode) {
+                // 每次求值返回新的列表，不合并
+                return register(null, new FormulaNode.ListNode(operands));
+            }
+            if (node instanceof FormulaNode.ExtendFuncNode) {
+                FormulaNode.ExtendFuncNode funcNode = (FormulaNode.ExtendFuncNode) node;
+                return register(null, new FormulaNode.ExtendFuncNode(
+                    funcNode.getFuncName(), funcNode.getFunction(), operands));
+            }
+            return register(null, node);
+        }
+
+        /**
+         * 统计合并后每个节点被多少个父节点和规则引用
+         */
+        void countReferences(FormulaNode[] roots) {
+            Set<FormulaNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (FormulaNode root : roots) {
+                refCounts.merge(root, 1, Integer::sum);
+                countChildren(root, visited);
+            }
+        }
+
+        private void countChildren(FormulaNode node, Set<FormulaNode> visited) {
+            if (!visited.add(node)) {
+                return;
+            }
+            for (FormulaNode operand : node.getOperands()) {
+                refCounts.merge(operand, 1, Integer::sum);
+                countChildren(operand, visited);
+            }
+        }
+
+        /**
+         * 被多处引用的节点包装为 SharedNode
+         */
+        FormulaNode memoize(FormulaNode node) {
+            FormulaNode result = memoized.get(node);
+            if (result != null) {
+                return result;
+            }
+            result = node;
+            if (!(node instanceof FormulaNode.ConstNode)) {
+                List<FormulaNode> operands = node.getOperands();
+                List<FormulaNode> newOperands = new ArrayList<>(operands.size());
+                boolean changed = false;
+                for (FormulaNode operand : operands) {
+                    FormulaNode newOperand = memoize(operand);
+                    changed |= newOperand != operand;
+                    newOperands.add(newOperand);
+                }
+                if (changed) {
+                    result = FormulaOptimizer.rebuild(node, newOperands);
+                }
+                if (refCounts.getOrDefault(node, 0) > 1 && !(node instanceof FormulaNode.ListNode)
+                    && !(node instanceof FormulaNode.ExtendFuncNode)) {
+                    result = new SharedNode(slotCount++, result);
+                }
+            }
+            memoized.put(node, result);
+            return result;
+        }
+    }
+}
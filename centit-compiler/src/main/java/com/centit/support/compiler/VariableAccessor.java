@@ -0,0 +1,289 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.NumberBaseOpt;
+import com.centit.support.algorithm.ReflectionOpt;
+import com.centit.support.algorithm.StringRegularOpt;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 预编译的变量路径，取值结果和 ReflectionOpt.attainExpressionValue 一致
+ * 路径 a.b[1].c 只解析一次，每一级记住上一次遇到的类和它的 getter（MethodHandle），
+ * 同一个类的对象再次取值时直接调用 getter，不再拼接方法名和查找方法
+ */
+final class VariableAccessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariableAccessor.class);
+
+    /**
+     * 缓存的路径数量上限，超过后新的路径不再缓存
+     */
+    private static final int MAX_CACHED_PATHS = 4096;
+    private static final ConcurrentHashMap<String, VariableAccessor> PATH_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 每个类的属性 getter，键值为属性名
+     */
+    private static final ClassValue<ConcurrentHashMap<String, PropertyGetter>> CLASS_GETTERS =
+        new ClassValue<ConcurrentHashMap<String, PropertyGetter>>() {
+            @Override
+            protected ConcurrentHashMap<String, PropertyGetter> computeValue(Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * 路径的结尾：返回当前对象
+     */
+    private static final VariableAccessor END = new VariableAccessor(null, -1, null);
+    /**
+     * 路径的结尾：空白的表达式，返回 null
+     */
+    private static final VariableAccessor BLANK = new VariableAccessor(null, -1, null);
+
+    /**
+     * 属性名，为 null 时取当前对象本身（比如 [1]）
+     */
+    private final String fieldName;
+    /**
+     * 下标，-1 表示集合和数组的每个元素都取值
+     */
+    private final int arrayIndex;
+    private final VariableAccessor next;
+    /**
+     * 上一次取值的类和 getter，只是一个提示，并发时被覆盖也没有关系
+     */
+    private volatile PropertyGetter lastGetter;
+
+    private VariableAccessor(String fieldName, int arrayIndex, VariableAccessor next) {
+        this.fieldName = fieldName;
+        this.arrayIndex = arrayIndex;
+        this.next = next;
+    }
+
+    /**
+     * 获取预编译的路径，相同的路径共用一个对象
+     *
+     * @param expression 表达式 a.b[1].c
+     * @return 路径
+     */
+    static VariableAccessor getAccessor(String expression) {
+        if (expression == null) {
+            return BLANK;
+        }
+        VariableAccessor accessor = PATH_CACHE.get(expression);
+        if (accessor == null) {
+            accessor = compile(expression);
+            if (PATH_CACHE.size() < MAX_CACHED_PATHS) {
+                VariableAccessor old = PATH_CACHE.putIfAbsent(expression, accessor);
+                if (old != null) {
+                    accessor = old;
+                }
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * 和 ReflectionOpt.attainExpressionValue(sourceObj, expression) 结果一致
+     */
+    static Object attainValue(Object sourceObj, String expression) {
+        return getAccessor(expression).getValue(sourceObj);
+    }
+
+    private static VariableAccessor compile(String expression) {
+        if (StringUtils.isBlank(expression)) {
+            return BLANK;
+        }
+        if (".".equals(expression)) {
+            return END;
+        }
+        int nPos = expression.indexOf('.');
+        String fieldValue;
+        String restExpression = ".";
+        if (nPos > 0) {
+            fieldValue = expression.substring(0, nPos).trim();
+            if (expression.length() > nPos + 1) {
+                restExpression = expression.substring(nPos + 1);
+            }
+        } else if (nPos == 0) {
+            return compile(expression.substring(1));
+        } else {
+            fieldValue = expression.trim();
+        }
+
+        int nAarrayInd = -1;
+        nPos = fieldValue.indexOf('[');
+        if (nPos >= 0) {
+            String sArrayInd = fieldValue.substring(nPos + 1, fieldValue.length() - 1);
+            if (StringRegularOpt.isNumber(sArrayInd)) {
+                nAarrayInd = NumberBaseOpt.castObjectToInteger(sArrayInd, 0);
+            }
+            fieldValue = fieldValue.substring(0, nPos);
+        }
+        return new VariableAccessor(StringUtils.isBlank(fieldValue) ? null : fieldValue,
+            nAarrayInd, compile(restExpression));
+    }
+
+    Object getValue(Object sourceObj) {
+        if (sourceObj == null || this == BLANK) {
+            return null;
+        }
+        if (this == END) {
+            return sourceObj;
+        }
+
+        Object retObj;
+        if (fieldName == null) {
+            retObj = sourceObj;
+        } else if (sourceObj instanceof Map) {
+            retObj = ((Map<?, ?>) sourceObj).get(fieldName);
+        } else {
+            retObj = getPropertyValue(sourceObj);
+        }
+        if (retObj == null)
+            return null;
+
+        if (retObj instanceof Collection) {
+            Collection<?> objlist = (Collection<?>) retObj;
+            int objSize = objlist.size();
+            if (objSize < 1)
+                return null;
+            if (arrayIndex >= 0) {
+                if (arrayIndex < objSize) {
+                    int i = 0;
+                    for (Object obj : objlist) {
+                        if (arrayIndex == i) {
+                            return next.getValue(obj);
+                        }
+                        i++;
+                    }
+                }
+                return null;
+            }
+            Object[] retObjArray = new Object[objSize];
+            int i = 0;
+            for (Object obj : objlist) {
+                retObjArray[i] = next.getValue(obj);
+                i++;
+            }
+            return retObjArray;
+        } else if (retObj instanceof Object[]) {
+            Object[] objs = (Object[]) retObj;
+            int objSize = objs.length;
+            if (objSize < 1)
+                return null;
+            if (arrayIndex >= 0) {
+                return arrayIndex < objSize ? next.getValue(objs[arrayIndex]) : null;
+            }
+            Object[] retObjArray = new Object[objSize];
+            for (int i = 0; i < objSize; i++) {
+                retObjArray[i] = next.getValue(objs[i]);
+            }
+            return retObjArray;
+        }
+        return next.getValue(retObj);
+    }
+
+    private Object getPropertyValue(Object sourceObj) {
+        Class<?> beanClass = sourceObj.getClass();
+        PropertyGetter getter = lastGetter;
+        if (getter == null || getter.beanClass != beanClass) {
+            getter = CLASS_GETTERS.get(beanClass)
+                .computeIfAbsent(fieldName, name -> new PropertyGetter(beanClass, name));
+            lastGetter = getter;
+        }
+        return getter.getValue(sourceObj);
+    }
+
+    /**
+     * 一个类的一个属性的取值方法，查找顺序和 ReflectionOpt.getFieldValue 一致：
+     * get 方法、is 方法、直接读取字段；标量类型没有属性
+     */
+    private static final class PropertyGetter {
+        private final Class<?> beanClass;
+        private final String fieldName;
+        /**
+         * 类型为 (Object)Object，为 null 时没有这个属性或者需要反射读取
+         */
+        private final MethodHandle handle;
+        private final boolean useReflection;
+
+        PropertyGetter(Class<?> beanClass, String fieldName) {
+            this.beanClass = beanClass;
+            this.fieldName = fieldName;
+            MethodHandle getter = null;
+            boolean reflection = false;
+            if (!ReflectionOpt.isScalarType(beanClass)) {
+                try {
+                    getter = unreflectGetter(beanClass, fieldName);
+                } catch (IllegalAccessException | RuntimeException e) {
+                    // 没有访问权限的类，退回到每次反射
+                    reflection = true;
+                }
+            }
+            this.handle = getter;
+            this.useReflection = reflection;
+        }
+
+        private static MethodHandle unreflectGetter(Class<?> beanClass, String fieldName)
+            throws IllegalAccessException {
+            Method md = findMethod(beanClass, "get" + StringUtils.capitalize(fieldName));
+            if (md == null) {
+                md = findMethod(beanClass, "is" + StringUtils.capitalize(fieldName));
+            }
+            if (md != null) {
+                if (void.class.equals(md.getReturnType())) {
+                    return MethodHandles.dropArguments(
+                        MethodHandles.constant(Object.class, null), 0, Object.class);
+                }
+                return MethodHandles.publicLookup().unreflect(md).asType(GETTER_TYPE);
+            }
+            Field field;
+            try {
+                field = ReflectionOpt.getDeclaredField(beanClass, fieldName);
+            } catch (NoSuchFieldException e) {
+                logger.debug(e.getMessage());
+                return null;
+            }
+            if (Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalAccessException("static field " + fieldName);
+            }
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        }
+
+        private static Method findMethod(Class<?> beanClass, String methodName) {
+            try {
+                return beanClass.getMethod(methodName);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        Object getValue(Object sourceObj) {
+            if (handle != null) {
+                try {
+                    return (Object) handle.invokeExact(sourceObj);
+                } catch (Throwable e) {
+                    logger.error(e.getMessage());
+                    return null;
+                }
+            }
+            return useReflection ? ReflectionOpt.getFieldValue(sourceObj, fieldName) : null;
+        }
+    }
+}
@@ -1,13 +1,61 @@
 package com.centit.support.compiler;
 
 import com.centit.support.algorithm.*;
+import com.centit.support.common.LruCachedMap;
 
-import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
+/**
+ * 表达式计算
+ * <p>
+ * 求值的语义是确定的：&amp;&amp; 、&amp; 、and 左边为假时，or 、|| 、| 左边为真时不计算右边的运算项
+ * （|| 和 | 左边为数字或字符串时是字符串连接，不短路）；
+ * if 和 case 只计算选中的分支；in 匹配成功后不再计算后面的项。
+ * 所以右边的运算项可以依赖左边的判断，比如 b != 0 &amp;&amp; a / b &gt; 1 ，扩展函数也不会被多余地调用
+ * <p>
+ * 线程安全：VariableFormula 实例保存了词法分析的位置、变量解释器和扩展函数，只能在一个线程中使用；
+ * 解析状态和求值状态是分开的，compile 得到的 CompiledFormula 不可变，不保留对词法分析器和 extendFuncMap 的引用，
+ * 可以在任意多个线程（包括虚拟线程）中同时求值，不需要同步。静态的 calculate 方法也是线程安全的
+ */
 public class VariableFormula {
 
+    /**
+     * 静态 calculate 方法使用的编译结果缓存，键值为表达式；
+     * 只缓存没有传入 extendFuncMap 的表达式（只用到内置函数和全局扩展函数）
+     */
+    private static final LruCachedMap<String, CompiledFormula> FORMULA_CACHE =
+        new LruCachedMap<>(4096);
+
+    /**
+     * 全局扩展函数的版本，注册或注销扩展函数时递增；
+     * 编译开始前记下版本，放入缓存后版本变了说明编译时可能绑定的是旧函数，要从缓存中移除
+     */
+    private static final AtomicLong EXTEND_FUNCS_GENERATION = new AtomicLong();
+
+    /**
+     * 单词形式的运算符，键值为小写
+     */
+    private static final Map<String, Integer> WORD_OPERATORS = new HashMap<>(16);
+
+    /**
+     * 全局注册的扩展函数，键值为小写的函数名
+     */
+    private static final Map<String, Function<Object[], Object>> GLOBAL_EXTEND_FUNCS = new ConcurrentHashMap<>();
+
+    static {
+        WORD_OPERATORS.put("like", ConstDefine.OP_LIKE);
+        WORD_OPERATORS.put("and", ConstDefine.OP_LOGICAND);
+        WORD_OPERATORS.put("or", ConstDefine.OP_LOGICOR);
+        WORD_OPERATORS.put("not", ConstDefine.OP_NOT);
+        WORD_OPERATORS.put("in", ConstDefine.OP_IN);
+        WORD_OPERATORS.put("div", ConstDefine.OP_DIV);
+        WORD_OPERATORS.put("mod", ConstDefine.OP_MOD);
+        WORD_OPERATORS.put("dbmod", ConstDefine.OP_DBMOD);
+    }
+
     private Lexer lex;
     private VariableTranslate trans;
     private Map<String, Function<Object[], Object>> extendFuncMap;
@@ -83,23 +131,13 @@ public class VariableFormula {
                 }
                 return (ConstDefine.OP_NOT);//m_iPreIsn = ConstDefine.OP_NOT; return  ConstDefine.OP_NOT;
         }
-        if (sOptName.equalsIgnoreCase("LIKE"))
-            return (ConstDefine.OP_LIKE);
-        if (sOptName.equalsIgnoreCase("AND"))
-            return (ConstDefine.OP_LOGICAND);
-        if (sOptName.equalsIgnoreCase("OR"))
-            return (ConstDefine.OP_LOGICOR);
-        if (sOptName.equalsIgnoreCase("NOT"))
-            return (ConstDefine.OP_NOT);
-        if (sOptName.equalsIgnoreCase("IN"))
-            return (ConstDefine.OP_IN);
-        if (sOptName.equalsIgnoreCase("DIV"))
-            return (ConstDefine.OP_DIV);
-        if (sOptName.equalsIgnoreCase("MOD"))
-            return (ConstDefine.OP_MOD);
-        if (sOptName.equalsIgnoreCase("DBMOD"))
-            return (ConstDefine.OP_DBMOD);
-        return -1;
+        if (sl < 2 || sl > 5)
+            return -1;
+        Integer optID = WORD_OPERATORS.get(sOptName);
+        if (optID == null) {
+            optID = WORD_OPERATORS.get(sOptName.toLowerCase(Locale.ROOT));
+        }
+        return optID == null ? -1 : optID;
     }
 
     public static boolean isKeyWord(String sWord) {
@@ -124,18 +162,130 @@ public class VariableFormula {
         return getOptID(sWord) > 0;
     }
 
+    /**
+     * 全局注册扩展函数，所有表达式都可以使用，不需要每次传入 extendFuncMap；
+     * 函数名不区分大小写，调用时传入的 extendFuncMap 中的同名函数优先，全局扩展函数优先于同名的内置函数。
+     * 扩展函数在编译时绑定，注册后会清空编译结果缓存
+     *
+     * @param funcName   函数名
+     * @param extendFunc 函数，参数中的 null 会被过滤掉
+     */
+    public static void registerExtendFunc(String funcName, Function<Object[], Object> extendFunc) {
+        GLOBAL_EXTEND_FUNCS.put(funcName.toLowerCase(Locale.ROOT), extendFunc);
+        EXTEND_FUNCS_GENERATION.incrementAndGet();
+        FORMULA_CACHE.clear();
+    }
+
+    public static void unregisterExtendFunc(String funcName) {
+        if (GLOBAL_EXTEND_FUNCS.remove(funcName.toLowerCase(Locale.ROOT)) != null) {
+            EXTEND_FUNCS_GENERATION.incrementAndGet();
+            FORMULA_CACHE.clear();
+        }
+    }
+
+    /**
+     * @param funcName 函数名，不区分大小写
+     * @return 全局注册的扩展函数，没有返回 null
+     */
+    public static Function<Object[], Object> getGlobalExtendFunc(String funcName) {
+        if (GLOBAL_EXTEND_FUNCS.isEmpty()) {
+            return null;
+        }
+        Function<Object[], Object> func = GLOBAL_EXTEND_FUNCS.get(funcName);
+        return func != null ? func : GLOBAL_EXTEND_FUNCS.get(funcName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 编译表达式，编译结果不可变，可以在多个线程中反复求值
+     * 编译时会折叠常量，比如 a * (60 * 60 * 24) 中的括号部分只计算一次
+     *
+     * @param szExpress 表达式
+     * @return 编译后的表达式
+     */
+    public static CompiledFormula compile(String szExpress) {
+        return compile(szExpress, null);
+    }
+
+    /**
+     * 编译表达式，扩展函数在编译时绑定
+     *
+     * @param szExpress     表达式
+     * @param extendFuncMap 扩展函数
+     * @return 编译后的表达式
+     */
+    public static CompiledFormula compile(String szExpress, Map<String, Function<Object[], Object>> extendFuncMap) {
+        return new CompiledFormula(szExpress, FormulaOptimizer.optimize(
+            new FormulaParser(szExpress, extendFuncMap).parseFormula()));
+    }
+
+    /**
+     * 从缓存中获取编译好的表达式，没有则编译后放入缓存；
+     * 传入了 extendFuncMap 时不使用缓存，直接编译：扩展函数在编译时绑定，
+     * 调用方每次新建的 map 或 lambda 无法命中缓存，缓存它们只会挤掉有用的条目。
+     * 需要缓存带扩展函数的表达式，可以用 registerExtendFunc 注册为全局扩展函数
+     *
+     * @param szExpress     表达式
+     * @param extendFuncMap 扩展函数
+     * @return 编译后的表达式
+     */
+    public static CompiledFormula compileWithCache(String szExpress, Map<String, Function<Object[], Object>> extendFuncMap) {
+        if (szExpress == null || (extendFuncMap != null && !extendFuncMap.isEmpty())) {
+            return compile(szExpress, extendFuncMap);
+        }
+        CompiledFormula formula = FORMULA_CACHE.getIfPresent(szExpress);
+        if (formula == null) {
+            long generation = EXTEND_FUNCS_GENERATION.get();
+            formula = compile(szExpress, null);
+            FORMULA_CACHE.put(szExpress, formula);
+            if (generation != EXTEND_FUNCS_GENERATION.get()) {
+                // 编译期间全局扩展函数变了，这个结果可能绑定了旧函数，不能留在缓存中
+                FORMULA_CACHE.evict(szExpress);
+            }
+        }
+        return formula;
+    }
+
+    public static CompiledFormula compileWithCache(String szExpress) {
+        return compileWithCache(szExpress, null);
+    }
+
+    /**
+     * 编译一组相互引用的计算字段
+     *
+     * @param fieldFormulas 字段名 -》 表达式
+     * @return 计算字段集合，可以只重新计算受影响的字段
+     * @see FormulaSet
+     */
+    public static FormulaSet compileFormulaSet(Map<String, String> fieldFormulas) {
+        return FormulaSet.compile(fieldFormulas);
+    }
+
+    /**
+     * 编译一组条件，合并相同的子表达式，一次求值返回成立的条件
+     *
+     * @param rules 规则ID -》 条件表达式
+     * @return 规则集合
+     * @see RuleSet
+     */
+    public static RuleSet compileRuleSet(Map<String, String> rules) {
+        return RuleSet.compile(rules);
+    }
+
+    /**
+     * 编译结果缓存，可以用来查看命中率、调整容量
+     *
+     * @return 缓存
+     */
+    public static LruCachedMap<?, CompiledFormula> getFormulaCache() {
+        return FORMULA_CACHE;
+    }
+
     public static Object calculate(String szExpress) {
-        VariableFormula formula = new VariableFormula();
-        formula.setFormula(szExpress);
-        return formula.calcFormula();
+        return compileWithCache(szExpress).evaluate();
     }
 
     public static Object calculate(String szExpress, VariableTranslate varTrans, Map<String, Function<Object[], Object>> extendFuncMap) {
-        VariableFormula formula = new VariableFormula();
-        formula.setExtendFuncMap(extendFuncMap);
-        formula.setFormula(szExpress);
-        formula.setTrans(varTrans);
-        return formula.calcFormula();
+        return compileWithCache(szExpress, extendFuncMap).evaluate(varTrans);
     }
 
     public static Object calculate(String szExpress, VariableTranslate varTrans) {
@@ -175,360 +325,75 @@ public class VariableFormula {
         this.extendFuncMap.put(funcName, extendFunc);
     }
 
-    private Object calcItem() {
-        String str = lex.getAWord();
-        if (str == null || str.length() == 0) return null;
-        if (str.charAt(0) == ')' || str.charAt(0) == ',') {
-            lex.writeBackAWord(str);
-            return null;
-        }
-        /*if("-".equals(str)){
-            String numb = lex.getAWord();
-            if(StringRegularOpt.isNumber(numb)) {
-                return GeneralAlgorithm.subtractTwoObject(0,
-                 NumberBaseOpt.castObjectToNumber(numb));
-            }else{
-                return null;
-            }
-        } else*/
-        if (str.charAt(0) == '(') {
-            Object resStr = calcFormula();
-            str = lex.getAWord();
-            if (str == null || str.length() == 0 || str.charAt(0) != ')') return null;
-            return resStr;
-        } else if ((str.charAt(0) == '!') || str.equalsIgnoreCase("NOT")) {
-            Object obj = calcItem();
-            return !BooleanBaseOpt.castObjectToBoolean(obj, false);
-        } else if (str.charAt(0) == '$') {
-            str = lex.getAWord();
-            if (str.equals("{")) {
-                str = lex.getStringUntil("}");
-                if (trans != null) {
-                    return trans.getVarValue(str);
-                } else {
-                    return null;
-                }
-            } else {
-                return null;
-            }
-        } else if (str.charAt(0) == '[') {
-            List<Object> slOperand = new ArrayList<>();
-            while (true) {
-                Object item = calcFormula();
-                slOperand.add(item);
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals("]")))
-                    return null;
-                if (str.equals("]")) {
-                    return slOperand;
-                }
-            }
-        }
-
-        if (extendFuncMap != null) {
-            Function<Object[], Object> func = extendFuncMap.get(str);
-            if (func != null) {
-                String nextWord = lex.getAWord();
-                if ("(".equals(nextWord)) {
-                    return calcExtendFunc(func);
-                }
-                lex.writeBackAWord(nextWord);
-            }
-        }
-
-        int funcNo = EmbedFunc.getFuncNo(str);
-        if (funcNo != -1) {
-            String nextWord = lex.getAWord();
-            if ("(".equals(nextWord)) {
-                return calcFunc(funcNo);
-            }
-            lex.writeBackAWord(nextWord);
-        }
-
-        if (trans != null && Lexer.isLabel(str)) {
-            return trans.getVarValue(str);
-        }
-
-        if (StringRegularOpt.isNumber(str)) {
-            return NumberBaseOpt.castObjectToNumber(str);
-        }
-        return StringRegularOpt.trimString(str);
-    }
-
-    private Object calcOperate(Object operand, Object operand2, int optID) {
+    static Object calcOperate(Object operand, Object operand2, int optID) {
         switch (optID) {
-            case ConstDefine.OP_LOGICOR: {
-                return BooleanBaseOpt.castObjectToBoolean(operand, false) ||
-                    BooleanBaseOpt.castObjectToBoolean(operand2, false);
-            }
+            case ConstDefine.OP_LOGICOR:
+                return FormulaOperators.logicOr(operand, operand2);
             case ConstDefine.OP_AND:
-            case ConstDefine.OP_LOGICAND: {
-                return BooleanBaseOpt.castObjectToBoolean(operand, false) &&
-                    BooleanBaseOpt.castObjectToBoolean(operand2, false);
-            }
-
-            case ConstDefine.OP_OR: {
-                if ((BooleanBaseOpt.isBoolean(operand) || NumberBaseOpt.isNumber(operand))
-                    && (BooleanBaseOpt.isBoolean(operand2) || NumberBaseOpt.isNumber(operand2))) {
-                    return BooleanBaseOpt.castObjectToBoolean(operand) ||
-                        BooleanBaseOpt.castObjectToBoolean(operand2);
-                }
-                return StringBaseOpt.concat(operand, operand2);
-            }
-
-            case ConstDefine.OP_ADD: {
-                return GeneralAlgorithm.addTwoObject(operand, operand2);
-            }
-            case ConstDefine.OP_MUL: {
-                return GeneralAlgorithm.multiplyTwoObject(operand, operand2);
-            }
-            case ConstDefine.OP_EQ: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) == 0;
-            }
-            case ConstDefine.OP_BG: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) > 0;
-            }
-
-            case ConstDefine.OP_LT: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) < 0;
-            }
-            case ConstDefine.OP_EL: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) <= 0;
-            }
-            case ConstDefine.OP_EB: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) >= 0;
-
-            }
-            case ConstDefine.OP_NE: {
-                return GeneralAlgorithm.compareTwoObject(operand, operand2) != 0;
-            }
+            case ConstDefine.OP_LOGICAND:
+                return FormulaOperators.logicAnd(operand, operand2);
+            case ConstDefine.OP_OR:
+                return FormulaOperators.orOrConcat(operand, operand2);
+            case ConstDefine.OP_ADD:
+                return FormulaOperators.add(operand, operand2);
+            case ConstDefine.OP_MUL:
+                return FormulaOperators.multiply(operand, operand2);
+            case ConstDefine.OP_EQ:
+                return FormulaOperators.equal(operand, operand2);
+            case ConstDefine.OP_BG:
+                return FormulaOperators.bigger(operand, operand2);
+            case ConstDefine.OP_LT:
+                return FormulaOperators.less(operand, operand2);
+            case ConstDefine.OP_EL:
+                return FormulaOperators.lessOrEqual(operand, operand2);
+            case ConstDefine.OP_EB:
+                return FormulaOperators.biggerOrEqual(operand, operand2);
+            case ConstDefine.OP_NE:
+                return FormulaOperators.notEqual(operand, operand2);
             case ConstDefine.OP_LMOV:
-
-                if (NumberBaseOpt.isNumber(operand2)) {
-                    int nP2 = NumberBaseOpt.castObjectToInteger(operand2);
-
-                    if (NumberBaseOpt.isNumber(operand)) {
-                        int nP = NumberBaseOpt.castObjectToInteger(operand);
-                        return nP << nP2;
-                    }
-                    String str1 = StringBaseOpt.objectToString(operand);
-
-                    if (nP2 >= 0 && str1.length() > nP2) {
-                        return str1.substring(nP2);
-                    }
-                }
-                return null;
+                return FormulaOperators.leftMove(operand, operand2);
             case ConstDefine.OP_RMOV:
-                if (NumberBaseOpt.isNumber(operand2)) {
-                    int nP2 = NumberBaseOpt.castObjectToInteger(operand2);
-                    if (NumberBaseOpt.isNumber(operand)) {
-                        int nP = NumberBaseOpt.castObjectToInteger(operand);
-                        return nP >> nP2;
-                    }
-                    String str1 = StringBaseOpt.objectToString(operand);
-
-                    if (nP2 >= 0 && str1.length() > nP2) {
-                        return str1.substring(0, str1.length() - nP2);
-                    }
-                }
-                return null;
+                return FormulaOperators.rightMove(operand, operand2);
             case ConstDefine.OP_LIKE:
-                return StringRegularOpt.isMatch(StringBaseOpt.objectToString(operand),
-                    StringBaseOpt.objectToString(operand2));
+                return FormulaOperators.like(operand, operand2);
             case ConstDefine.OP_SUB:
-                return GeneralAlgorithm.subtractTwoObject(operand, operand2);
-            case ConstDefine.OP_DIV: {
-                return GeneralAlgorithm.divideTwoObject(operand, operand2);
-            }
-            case ConstDefine.OP_MOD: {
-                Long dbop2 = NumberBaseOpt.castObjectToLong(operand2);
-                if (dbop2 == null || dbop2 == 0)
-                    return null;
-                Long dbop = NumberBaseOpt.castObjectToLong(operand);
-                return dbop % dbop2;
-            }
-            case ConstDefine.OP_DBMOD: {
-                BigDecimal dbop2 = NumberBaseOpt.castObjectToBigDecimal(operand2);
-                if (dbop2 == null || dbop2.compareTo(BigDecimal.ZERO) == 0)
-                    return null;
-                return GeneralAlgorithm.modTwoObject(operand, operand2);
-            }
-
-            case ConstDefine.OP_POWER: {
-                Double dbop = NumberBaseOpt.castObjectToDouble(operand);
-                Double dbop2 = NumberBaseOpt.castObjectToDouble(operand2);
-                if (dbop == null || dbop2 == null)
-                    return null;
-                return Math.pow(dbop, dbop2);
-            }
+                return FormulaOperators.subtract(operand, operand2);
+            case ConstDefine.OP_DIV:
+                return FormulaOperators.divide(operand, operand2);
+            case ConstDefine.OP_MOD:
+                return FormulaOperators.mod(operand, operand2);
+            case ConstDefine.OP_DBMOD:
+                return FormulaOperators.dbMod(operand, operand2);
+            case ConstDefine.OP_POWER:
+                return FormulaOperators.power(operand, operand2);
             default:
                 break;
         }
 
         return null;
     }
+
     //用于跳过个分隔符比如“，”
     public String skipAWord(){
         return lex.getAWord();
     }
 
-    public Object calcFormula() {
-        List<Object> slOperand = new ArrayList<>();
-        OptStack optStack = new OptStack();
-
-        String str;
-        while (true) {
-            Object item = calcItem();
-            slOperand.add(0, item);
-            str = lex.getAWord();
-            if (str == null || str.length() == 0)
-                break;
-
-            int optID = VariableFormula.getOptID(str);
-            if (optID == -1) {
-                lex.writeBackAWord(str);
-                break;
-            }
-            //--------run OP_IN----------------------------------
-            if (optID == ConstDefine.OP_IN) { // Specail Opt For In multi operand
-                Boolean bInRes = false;
-                Object operand = slOperand.remove(0);
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || !str.equals("(")) return null;
-
-                while (true) {
-                    item = calcFormula();
-                    // 需要展开 数组
-                    if (item instanceof Object[]) {
-                        Object[] objs = (Object[]) item;
-                        for (int i = 0; i < objs.length; i++) {
-                            if (GeneralAlgorithm.compareTwoObject(operand, objs[i]) == 0) {
-                                bInRes = true;
-                                break;
-                            }
-                        }
-                    } else if (item instanceof Collection) {
-                        for (Object obj : (Collection) item) {
-                            if (GeneralAlgorithm.compareTwoObject(operand, obj) == 0) {
-                                bInRes = true;
-                                break;
-                            }
-                        }
-                    } else {
-                        if (GeneralAlgorithm.compareTwoObject(operand, item) == 0) {
-                            bInRes = true;
-                        }
-                    }
-                    str = lex.getAWord();
-                    if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals(")"))) return null;
-                    if (str.equals(")")) {
-                        lex.writeBackAWord(str);
-                        break;
-                    }
-                }
-                lex.seekToRightBracket();
-                slOperand.add(0, bInRes);
-                str = lex.getAWord();
-                optID = VariableFormula.getOptID(str);
-                if (optID == -1) {
-                    lex.writeBackAWord(str);
-                    break;
-                }
-            }
-            //----------end opt in--------------------------------
-            for (int op = optStack.pushOpt(optID); op != 0; op = optStack.pushOpt(optID)) {
-                Object operand2 = slOperand.remove(0);
-                Object operand = slOperand.remove(0);
-                slOperand.add(0, calcOperate(operand, operand2, op));
-            }
-        }
-
-        for (int op = optStack.popOpt(); op != 0; op = optStack.popOpt()) {
-            Object operand2 = slOperand.remove(0);
-            Object operand = slOperand.remove(0);
-            slOperand.add(0, calcOperate(operand, operand2, op));
-        }
-        return slOperand.get(0);
-    }
-
-    private Object calcFunc(int nFuncNo) {
-        String str;
-        // IF 语句单独处理
-        if (EmbedFunc.functionsList[nFuncNo].nFuncID == ConstDefine.FUNC_IF) {
-            Object sCondition = calcFormula();
-            if (sCondition == null) return null;
-
-            str = lex.getAWord();
-            if (str == null || str.length() == 0 || !str.equals(",")) return null;
-
-            if (BooleanBaseOpt.castObjectToBoolean(sCondition, false)) {
-                Object objRes = calcFormula();
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || (!str.equals(",") && !str.equals(")"))) return null;
-                if (str.equals(")"))
-                    return objRes;
-                // 特殊处理的地方就在这儿
-                lex.skipAOperand();
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || !str.equals(")")) return null;
-                return objRes;
-            } else {
-                // 特殊处理的地方就在这儿
-                lex.skipAOperand();
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || !str.equals(",") && !str.equals(")")) return null;
-                if (str.equals(")")) return null;
-                Object objRes = calcFormula();
-                str = lex.getAWord();
-                if (str == null || str.length() == 0 || !str.equals(")")) return null;
-                return objRes;
-            }
-            //return sRes;
-        }
-
-        List<Object> slOperand = new ArrayList<>(5);
-        int prmNo = 0;
-        while (true) {
-            str = lex.getAWord();
-            if (str.equals(")")) {
-                break;
-            }
-            lex.writeBackAWord(str);
-            Object item = calcFormula();
-            slOperand.add(item);
-            prmNo++;
-            str = lex.getAWord();
-            if (!",".equals(str)) break;
-        }
-        if (!")".equals(str)) {
-            return null;
-        }
-        if (EmbedFunc.functionsList[nFuncNo].nPrmSum != -1
-            //&& prmNo != m_sFunctionList[nFuncNo].nPrmSum) return null;
-            && prmNo < EmbedFunc.functionsList[nFuncNo].nPrmSum) return null;
-        return EmbedFunc.runFuncWithObject(slOperand, EmbedFunc.functionsList[nFuncNo].nFuncID);
+    /**
+     * 编译 setFormula 设置的表达式，绑定当前的扩展函数，之后修改这个实例不影响编译结果
+     *
+     * @return 不可变的编译结果，可以在多个线程中同时求值
+     */
+    public CompiledFormula compile() {
+        return compile(lex.getFormula(), extendFuncMap);
     }
 
-    private Object calcExtendFunc(Function<Object[], Object> func) {
-        List<Object> slOperand = new ArrayList<>(5);
-        String str;
-        while (true) {
-            str = lex.getAWord();
-            if (str.equals(")")) {
-                break;
-            }
-            lex.writeBackAWord(str);
-            Object item = calcFormula();
-            if (item != null) { // 外部函数不可以传入 null 数值参数
-                slOperand.add(item);
-            }
-            str = lex.getAWord();
-            if (!",".equals(str)) break;
-        }
-        if (!")".equals(str)) {
-            return null;
-        }
-        return func.apply(CollectionsOpt.listToArray(slOperand));
+    /**
+     * 从当前位置计算一个表达式，计算完成后停在表达式的后面，可以用 skipAWord 跳过分隔符后继续计算
+     *
+     * @return 表达式的值
+     */
+    public Object calcFormula() {
+        return new FormulaParser(lex, extendFuncMap).parseFormula().evaluate(trans);
     }
 
     public Object calcFormula(String szExpress) {
@@ -3,9 +3,17 @@ package com.centit.support.compiler;
 import com.centit.support.algorithm.CollectionsOpt;
 import com.centit.support.algorithm.NumberBaseOpt;
 import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.common.ObjectException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class FormulaTest {
 
@@ -109,6 +117,324 @@ public class FormulaTest {
         System.out.println("Done!");
     }
 
+    public static void testCompiledFormula() {
+        CompiledFormula formula = VariableFormula.compile("if(a>b, a*a-b, b*b-a) + 1");
+        Map<String, Object> varMap = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            varMap.put("a", i);
+            varMap.put("b", 2);
+            System.out.println(formula.evaluate(varMap));
+        }
+        System.out.println("Done!");
+    }
+
+    public static void testConstantFolding() {
+        Map<String, Object> varMap = new HashMap<>();
+        varMap.put("a", 3);
+        String[] formulas = {"a * (60 * 60 * 24)", "if(1 > 2, a, 'no')", "upcase('ab') + 1", "(a * a - 1) / 2"};
+        for (String f : formulas) {
+            CompiledFormula formula = VariableFormula.compile(f);
+            System.out.println(f + " : " + formula.getRoot().getClass().getSimpleName() +
+                " = " + formula.evaluate(varMap));
+        }
+    }
+
+    public static void testShortCircuit() {
+        int[] calls = new int[1];
+        Map<String, Function<Object[], Object>> extendFuncs = new HashMap<>();
+        extendFuncs.put("touch", (a) -> {
+            calls[0]++;
+            return true;
+        });
+        Map<String, Object> varMap = new HashMap<>();
+        varMap.put("a", 10);
+        varMap.put("b", 0);
+        String[] formulas = {"b != 0 && a / b > 1", "a > 5 or touch()", "a < 5 and touch()",
+            "(a > 5) || touch()", "if(a > 5, 1, touch())", "case(a, 10, 'ten', touch(), 'x')", "a in (10, touch())"};
+        for (String f : formulas) {
+            CompiledFormula formula = VariableFormula.compile(f, extendFuncs);
+            System.out.println(f + " = " + formula.evaluate(varMap) + " / " +
+                formula.generateCode().evaluate(varMap));
+        }
+        System.out.println("extend function calls : " + calls[0]);
+    }
+
+    public static void testGlobalExtendFunc() {
+        VariableFormula.registerExtendFunc("Twice", (a) -> NumberBaseOpt.castObjectToLong(a[0]) * 2);
+        System.out.println(VariableFormula.calculate("twice(21)"));
+        System.out.println(VariableFormula.calculate("TWICE(a) + 1", CollectionsOpt.createHashMap("a", 5)));
+        System.out.println(VariableFormula.calculate("Round(2.456, 2) + ToNumber('1')"));
+        System.out.println(VariableFormula.calculate("1 AND 0 Or 1"));
+        VariableFormula.unregisterExtendFunc("twice");
+        System.out.println(VariableFormula.calculate("twice(21)"));
+    }
+
+    public static void testBatchEvaluate() {
+        CompiledFormula formula = VariableFormula.compile("if(a > b, a - b, b - a) * 2");
+        List<Object> rows = new ArrayList<>();
+        int rowCount = 50000;
+        Object[] colA = new Object[rowCount];
+        Object[] colB = new Object[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(CollectionsOpt.createHashMap("a", i, "b", 100));
+            colA[i] = i;
+            colB[i] = 100;
+        }
+        Map<String, Object[]> columns = new HashMap<>();
+        columns.put("a", colA);
+        columns.put("b", colB);
+        List<Object> byRow = formula.evaluateAll(rows);
+        Object[] byColumn = formula.evaluateColumns(columns);
+        int bad = 0;
+        for (int i = 0; i < rowCount; i++) {
+            Object expected = formula.evaluate(rows.get(i));
+            if (!expected.equals(byRow.get(i)) || !expected.equals(byColumn[i])) {
+                bad++;
+            }
+        }
+        System.out.println(byRow.get(0) + " " + byColumn[rowCount - 1] + " bad:" + bad);
+
+        // 同名变量共用一个序号，不在 columns 中的变量为 null，转换为 MethodHandle 后结果一致
+        CompiledFormula indexed = VariableFormula.compile("${a} + a * 2 + b + if(c == null, 1, 0)");
+        Object[] interpreted = indexed.evaluateColumns(columns);
+        Object[] generated = indexed.generateCode().evaluateColumns(columns);
+        System.out.println(interpreted[10] + " " + generated[10] + " " +
+            Arrays.equals(interpreted, generated));
+    }
+
+    public static void testCompiledTemplate() {
+        Map<String, Object> usreInfo = new HashMap<>(5);
+        usreInfo.put("userCode", "admin");
+        usreInfo.put("userName", "管理员");
+        CompiledTemplate template = Pretreatment.compileTemplate(
+            "编号：{userCode}-\\{userCode\\} 你的姓名是{userName}{unknown}");
+        System.out.println(StringBaseOpt.castObjectToString(template.getVariableNames()));
+        System.out.println(template.render(usreInfo, "[没有赋值]"));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            template.render(sb, usreInfo::get, "");
+            sb.append(';');
+        }
+        System.out.println(sb);
+    }
+
+    public static void testPatternFunc() {
+        Map<String, Object> route = CollectionsOpt.createHashMap("code", "ORD-2023-001",
+            "pattern", "ORD-%-0__", "regex", "[A-Z]+");
+        System.out.println(VariableFormula.calculate("match(code, 'ORD-%-0__')", route));
+        System.out.println(VariableFormula.calculate("match(code, pattern)", route));
+        System.out.println(VariableFormula.calculate("regexmatch('[A-Z]+-\\d+-\\d+', code)", route));
+        System.out.println(VariableFormula.calculate("regexmatchvalue(regex, 'ab CD ef GH')", route));
+        CompiledFormula formula = VariableFormula.compile("regexmatchvalue('\\d+', code)").generateCode();
+        System.out.println(formula.evaluate(route));
+    }
+
+    public static void testFormulaSet() {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("total", "amount + tax");
+        fields.put("tax", "amount * rate");
+        fields.put("amount", "price * quantity");
+        fields.put("label", "if(total > 100, 'big', 'small')");
+        fields.put("remark", "customer.name");
+        FormulaSet formulaSet = VariableFormula.compileFormulaSet(fields);
+        System.out.println(formulaSet.getFieldNames());
+        Map<String, Object> record = CollectionsOpt.createHashMap("price", 10, "quantity", 3,
+            "rate", 0.1, "customer", CollectionsOpt.createHashMap("name", "centit"));
+        Map<String, Object> results = formulaSet.calculate(record);
+        System.out.println(results);
+        record.put("quantity", 20);
+        System.out.println(formulaSet.recalculate(results, record, "quantity"));
+        System.out.println(results);
+        System.out.println(formulaSet.recalculate(results, record, "customer.name"));
+        fields.put("amount", "total - tax");
+        try {
+            VariableFormula.compileFormulaSet(fields);
+        } catch (ObjectException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public static void testRuleSet() {
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("bigOrder", "order.amount > 1000 && order.level in ('A', 'B')");
+        rules.put("vipOrder", "order.amount > 1000 && vip");
+        rules.put("smallOrder", "!(order.amount > 1000)");
+        rules.put("manager", "order.level in ('A', 'B') || dept = 'sales'");
+        RuleSet ruleSet = VariableFormula.compileRuleSet(rules);
+        System.out.println(ruleSet.getDistinctNodeCount() + " " + ruleSet.getSharedNodeCount());
+        int[] reads = new int[1];
+        Map<String, Object> order = CollectionsOpt.createHashMap("amount", 1500, "level", "A");
+        Map<String, Object> context = CollectionsOpt.createHashMap("order", order, "vip", true, "dept", "it");
+        ObjectTranslate objTrans = new ObjectTranslate(context);
+        System.out.println(ruleSet.evaluate((VariableTranslate) varName -> {
+            reads[0]++;
+            return objTrans.getVarValue(varName);
+        }));
+        System.out.println("variable reads: " + reads[0]);
+        order.put("amount", 10);
+        System.out.println(ruleSet.evaluate(context));
+    }
+
+    /**
+     * 64 个线程同时对同一个编译结果求值，中途达到阈值转换为 MethodHandle，
+     * 结果必须和单线程解释执行的结果一致
+     */
+    public static void testConcurrentEvaluate() throws InterruptedException {
+        VariableFormula instance = new VariableFormula();
+        instance.setFormula("if(a > b, a * 2 + b, b - a) + twice(a)");
+        instance.addExtendFunc("twice", (args) -> NumberBaseOpt.castObjectToLong(args[0]) * 2);
+        CompiledFormula formula = instance.compile();
+        // 修改实例不影响编译结果
+        instance.setFormula("0");
+        instance.addExtendFunc("twice", (args) -> 0);
+        int threadCount = 64;
+        int loopCount = 2000;
+        // 单线程解释执行的结果作为基准
+        Map<String, Function<Object[], Object>> extendFuncs = new HashMap<>();
+        extendFuncs.put("twice", (args) -> NumberBaseOpt.castObjectToLong(args[0]) * 2);
+        CompiledFormula baselineFormula =
+            VariableFormula.compile("if(a > b, a * 2 + b, b - a) + twice(a)", extendFuncs);
+        Object[][] baseline = new Object[threadCount][loopCount];
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < loopCount; i++) {
+                baseline[t][i] = baselineFormula.evaluate(
+                    CollectionsOpt.createHashMap("a", t * 1000L + i, "b", 500L));
+            }
+        }
+        AtomicInteger errors = new AtomicInteger(0);
+        CountDownLatch startGate = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        int oldThreshold = CompiledFormula.getCodeGenThreshold();
+        CompiledFormula.setCodeGenThreshold(5000);
+        try {
+            for (int t = 0; t < threadCount; t++) {
+                final int seed = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        startGate.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < loopCount; i++) {
+                        long a = seed * 1000L + i;
+                        long b = 500L;
+                        long expected = (a > b ? a * 2 + b : b - a) + a * 2;
+                        Object value = formula.evaluate(CollectionsOpt.createHashMap("a", a, "b", b));
+                        if (!Long.valueOf(expected).equals(NumberBaseOpt.castObjectToLong(value)) ||
+                            !baseline[seed][i].equals(value)) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            startGate.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            CompiledFormula.setCodeGenThreshold(oldThreshold);
+        }
+        System.out.println("code generated: " + formula.isCodeGenerated() + " errors: " + errors.get());
+        if (errors.get() != 0) {
+            throw new IllegalStateException("concurrent evaluate errors: " + errors.get());
+        }
+        if (!formula.isCodeGenerated()) {
+            throw new IllegalStateException("formula was not converted to MethodHandle");
+        }
+    }
+
+    public static void testProfiler() {
+        Map<String, Function<Object[], Object>> extFuncs = new HashMap<>();
+        extFuncs.put("square", (a) -> NumberBaseOpt.castObjectToLong(a[0]) * NumberBaseOpt.castObjectToLong(a[0]));
+        CompiledFormula formula = VariableFormula.compile("round(square(a) / 3, 2) + substr(b, 1, 2)", extFuncs);
+        Map<String, Object> row = CollectionsOpt.createHashMap("a", 7, "b", "hello");
+        FormulaProfiler.reset();
+        FormulaProfiler.enable();
+        for (int i = 0; i < 1000; i++) {
+            formula.evaluate(row);
+            VariableFormula.calculate("a * 2", row);
+        }
+        System.out.println(FormulaProfiler.report(5));
+        // 采样模式下计数是估计值
+        FormulaProfiler.reset();
+        FormulaProfiler.enable(10);
+        for (int i = 0; i < 10000; i++) {
+            formula.evaluate(row);
+        }
+        System.out.println(FormulaProfiler.getFormulaStats(1));
+        FormulaProfiler.disable();
+        FormulaProfiler.reset();
+        formula.evaluate(row);
+        System.out.println(FormulaProfiler.getFormulaStats(0).size());
+    }
+
+    public static void testAggregator() {
+        Map<String, String> groupKeys = new LinkedHashMap<>();
+        groupKeys.put("dept", "deptCode");
+        Map<String, String> aggregates = new LinkedHashMap<>();
+        aggregates.put("rows", "count()");
+        aggregates.put("total", "sum(amount * price)");
+        aggregates.put("avgPrice", "round(ave(price), 2)");
+        aggregates.put("maxAmount", "max(amount)");
+        aggregates.put("label", "dept + ':' + total");
+        FormulaAggregator aggregator = FormulaAggregator.compile(groupKeys, aggregates);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 30000; i++) {
+            rows.add(CollectionsOpt.createHashMap("deptCode", "D" + (i % 3),
+                "amount", i % 10, "price", 1.5 + i % 4));
+        }
+        System.out.println(aggregator.aggregate(rows));
+        // 分段累加后合并，结果和一次累加一致
+        FormulaAggregator.Partial left = aggregator.newPartial().addAll(rows.subList(0, 10000));
+        FormulaAggregator.Partial right = aggregator.newPartial().addAll(rows.subList(10000, 30000));
+        System.out.println(left.merge(right).getResult());
+        aggregates.clear();
+        aggregates.put("n", "count()");
+        aggregates.put("dev", "stddev(amount)");
+        System.out.println(FormulaAggregator.compile(null, aggregates).aggregate(new ArrayList<>()));
+
+        // 集合参数和 EmbedFunc 一样展开，结果的类型也一致
+        aggregates.clear();
+        aggregates.put("n", "count(items)");
+        aggregates.put("total", "sum(items)");
+        aggregates.put("maxItem", "max(items)");
+        aggregates.put("notNull", "countnotnull(tags)");
+        aggregates.put("nulls", "countnull(tags)");
+        List<Object> allItems = new ArrayList<>();
+        List<Object> allTags = new ArrayList<>();
+        rows.clear();
+        for (int i = 0; i < 100; i++) {
+            Object[] items = {i, i * 2};
+            List<Object> tags = Arrays.asList("t" + i, i % 7 == 0 ? null : "s" + i);
+            allItems.addAll(Arrays.asList(items));
+            allTags.addAll(tags);
+            rows.add(CollectionsOpt.createHashMap("items", items, "tags", tags));
+        }
+        Map<String, Object> aggregated = FormulaAggregator.compile(null, aggregates).aggregate(rows).get(0);
+        Map<String, Object> allValues = CollectionsOpt.createHashMap("items", allItems, "tags", allTags);
+        for (Map.Entry<String, String> ent : aggregates.entrySet()) {
+            Object expected = VariableFormula.calculate(ent.getValue(), allValues);
+            if (!expected.equals(aggregated.get(ent.getKey()))) {
+                throw new IllegalStateException(ent.getValue() + " : " + aggregated.get(ent.getKey()) +
+                    " expected " + expected);
+            }
+        }
+        System.out.println(aggregated);
+    }
+
+    public static void testTokenStream() {
+        Lexer lexer = new Lexer("select a, 'b,c' from t where x = :x and y in (1, 2.5) -- :z", Lexer.LANG_TYPE_SQL);
+        int[] tokens = new int[12];
+        int nTokens = lexer.readTokens(tokens);
+        while (nTokens > 0) {
+            for (int i = 0; i < nTokens; i++) {
+                System.out.println(tokens[i * 3] + " [" + tokens[i * 3 + 1] + "," + tokens[i * 3 + 2] + ")");
+            }
+            nTokens = lexer.readTokens(tokens);
+        }
+    }
+
     public static void testLexer() {
         Lexer l = new Lexer("hello jane , jan say!");
         System.out.println(l.findWord("jan", true, true));
@@ -0,0 +1,229 @@
+package com.centit.support.compiler;
+
+import com.centit.support.algorithm.ReflectionOpt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * VariableAccessor 和 ReflectionOpt.attainExpressionValue 对同样的对象和路径取值，结果必须一致
+ */
+public class VariableAccessorTest {
+
+    public static class Item {
+        private final String name;
+        private final int[] scores;
+
+        public Item(String name, int... scores) {
+            this.name = name;
+            this.scores = scores;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int[] getScores() {
+            return scores;
+        }
+    }
+
+    public static class Order {
+        // 只有字段，没有 getter
+        private String orderNo = "O-1";
+        // getter 优先于字段
+        private String code = "field";
+        private static String counter = "static";
+        private boolean paid = true;
+        private List<Item> items = new ArrayList<>();
+        private Item[] itemArray;
+        private Map<String, Object> extend = new HashMap<>();
+        private Object empty;
+
+        public String getCode() {
+            return "getter";
+        }
+
+        // get 优先于 is
+        public String getActive() {
+            return "get";
+        }
+
+        public boolean isActive() {
+            return false;
+        }
+
+        public boolean isPaid() {
+            return paid;
+        }
+
+        public void getNothing() {
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public Item[] getItemArray() {
+            return itemArray;
+        }
+
+        public Map<String, Object> getExtend() {
+            return extend;
+        }
+
+        public Object getEmpty() {
+            return empty;
+        }
+    }
+
+    /**
+     * 不是 public 的类，public 方法也不能通过 publicLookup 访问，退回到反射
+     */
+    private static class Hidden {
+        private String secret = "hidden-field";
+
+        public String getName() {
+            return "hidden";
+        }
+    }
+
+    static class PackageBean {
+        private String name = "package-field";
+
+        public String getTitle() {
+            return "package";
+        }
+    }
+
+    private static int checked = 0;
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static void same(Object source, String expression) {
+        Object expected = ReflectionOpt.attainExpressionValue(source, expression);
+        // 第二次取值走缓存的 getter
+        for (int i = 0; i < 2; i++) {
+            Object actual = VariableAccessor.attainValue(source, expression);
+            check(Objects.deepEquals(expected, actual),
+                expression + " : " + toString(expected) + " != " + toString(actual));
+        }
+        checked++;
+    }
+
+    private static String toString(Object value) {
+        return value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
+    }
+
+    public static void main(String[] args) {
+        testMap();
+        testBean();
+        testArrayAndList();
+        testMixedClasses();
+        testInaccessible();
+        System.out.println("VariableAccessorTest passed, " + checked + " paths");
+    }
+
+    public static void testMap() {
+        Map<String, Object> inner = new HashMap<>();
+        inner.put("c", 3);
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", inner);
+        map.put("list", Arrays.asList(inner, Collections.singletonMap("c", 4)));
+        map.put("blank", null);
+        for (String exp : new String[]{"a", "b", "b.c", ".b.c", "b.c.", "b.d", "x", "x.y",
+            "blank.c", "list.c", "list[1].c", "list[2].c", "list[].c", "list[x].c", ".", "", " ", null}) {
+            same(map, exp);
+        }
+        same(null, "a");
+    }
+
+    public static void testBean() {
+        Order order = new Order();
+        order.extend.put("level", "vip");
+        for (String exp : new String[]{"orderNo", "code", "counter", "active", "paid", "nothing",
+            "missing", "missing.a", "empty", "empty.a", "extend.level", "extend.missing",
+            "code.length", "orderNo.bytes", "paid.a"}) {
+            same(order, exp);
+        }
+    }
+
+    public static void testArrayAndList() {
+        Order order = new Order();
+        order.items.add(new Item("a", 1, 2));
+        order.items.add(new Item("b"));
+        order.items.add(new Item(null));
+        order.itemArray = order.items.toArray(new Item[0]);
+        for (String exp : new String[]{"items", "items.name", "items[0].name", "items[2].name",
+            "items[3].name", "items[-1].name", "items.scores", "items[0].scores", "items.missing",
+            "itemArray.name", "itemArray[1].name", "itemArray[5].name", "itemArray.length",
+            "items[0]", "items[1].[0]"}) {
+            same(order, exp);
+        }
+        // 二维：集合中的集合
+        List<Object> nested = Arrays.asList(Arrays.asList("x", "y"), new Object[]{"z"});
+        Map<String, Object> holder = Collections.singletonMap("rows", nested);
+        for (String exp : new String[]{"rows", "rows[0]", "rows[0].[1]", "rows[1].[0]", "rows.[0]"}) {
+            same(holder, exp);
+        }
+        // 空集合和空数组返回 null
+        Order emptyOrder = new Order();
+        emptyOrder.itemArray = new Item[0];
+        same(emptyOrder, "items.name");
+        same(emptyOrder, "itemArray.name");
+        same(new LinkedHashSet<>(order.items), ".name");
+        same(order.itemArray, ".name");
+        same(order.itemArray, "length");
+    }
+
+    /**
+     * 同一个路径先后用在不同的类上，上一次的 getter 不能用错
+     */
+    public static void testMixedClasses() {
+        List<Object> rows = new ArrayList<>();
+        rows.add(new Item("item"));
+        rows.add(Collections.singletonMap("name", "map"));
+        rows.add(new Hidden());
+        rows.add(new PackageBean());
+        rows.add("scalar");
+        rows.add(new Item("item2"));
+        Map<String, Object> holder = Collections.singletonMap("rows", rows);
+        same(holder, "rows.name");
+        same(holder, "rows.title");
+        for (Object row : rows) {
+            same(row, "name");
+        }
+    }
+
+    public static void testInaccessible() {
+        Hidden hidden = new Hidden();
+        same(hidden, "name");
+        same(hidden, "secret");
+        same(hidden, "secret.length");
+        PackageBean bean = new PackageBean();
+        same(bean, "name");
+        same(bean, "title");
+        // 匿名类
+        Object anonymous = new Object() {
+            private final String label = "anonymous";
+
+            @Override
+            public String toString() {
+                return label;
+            }
+        };
+        same(anonymous, "label");
+        same(anonymous, "class");
+    }
+}
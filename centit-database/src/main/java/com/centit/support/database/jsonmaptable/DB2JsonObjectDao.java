@@ -7,6 +7,7 @@ import com.centit.support.database.utils.DatabaseAccess;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 public class DB2JsonObjectDao extends GeneralJsonObjectDao {
 
@@ -36,4 +37,17 @@ public class DB2JsonObjectDao extends GeneralJsonObjectDao {
         return NumberBaseOpt.castObjectToLong(object);
     }
 
+    /**
+     * DB2 支持多行 values
+     */
+    @Override
+    protected int maxRowsPerInsert(int columnCount) {
+        return 32767 / Math.max(columnCount, 1);
+    }
+
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        return buildMergeSql(getTableInfo().getTableName() + " t", "sysibm.sysdummy1",
+            insertFields, updateFields);
+    }
 }
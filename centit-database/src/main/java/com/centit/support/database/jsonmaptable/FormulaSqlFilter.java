@@ -0,0 +1,395 @@
+package com.centit.support.database.jsonmaptable;
+
+import com.centit.support.algorithm.BooleanBaseOpt;
+import com.centit.support.compiler.CompiledFormula;
+import com.centit.support.compiler.ConstDefine;
+import com.centit.support.compiler.FormulaNode;
+import com.centit.support.compiler.ObjectTranslate;
+import com.centit.support.compiler.VariableFormula;
+import com.centit.support.database.metadata.TableField;
+import com.centit.support.database.metadata.TableInfo;
+import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.database.utils.QueryUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+
+/**
+ * 将 VariableFormula 的过滤条件翻译为 sql 的 where 语句，下推到数据库中过滤
+ * 表达式按顶层的 与（&amp;&amp; 、&amp; 、and）拆分为多个条件，能翻译的条件放到 where 语句中，
+ * 不能翻译的条件（函数、计算、表字段以外的变量等）在内存中对查询结果求值
+ * <p>
+ * 能翻译的条件：表字段和常量的比较（== 、!= 、&gt; 、&gt;= 、&lt; 、&lt;=），表字段 in (常量列表)，
+ * 以及它们的 与、或、非 组合；非运算下推到比较运算上，
+ * 比较的空值按照表达式的规则处理（null 等于 null ，小于任何值）；
+ * 数字和字符串混合比较时按数据库的规则
+ * <p>
+ * 字符串在数据库中按字段的排序规则比较（比如 MySql 默认不区分大小写、忽略尾部空格，大小按语言排序），
+ * 和表达式中 Java 的 compareTo 不一致，所以和字符串常量的比较只下推 == 和 in ，
+ * 它们在数据库中匹配的记录不会比在内存中少，这样的条件同时留在内存中再判断一次；
+ * 和字符串常量的 != 、not in 以及大小比较都在内存中求值
+ */
+public final class FormulaSqlFilter {
+
+    private static final String PARAM_PREFIX = "fp";
+
+    private final QueryAndNamedParams pushdown;
+    private final List<FormulaNode> residue;
+
+    private FormulaSqlFilter(QueryAndNamedParams pushdown, List<FormulaNode> residue) {
+        this.pushdown = pushdown;
+        this.residue = residue;
+    }
+
+    /**
+     * @param formula   过滤条件
+     * @param tableInfo 表信息，用来将属性名映射为字段名
+     * @param alias     表的别名，可以为空
+     * @return 翻译结果
+     */
+    public static FormulaSqlFilter translate(CompiledFormula formula, TableInfo tableInfo, String alias) {
+        List<FormulaNode> conjuncts = new ArrayList<>();
+        splitConjuncts(formula.getRoot(), conjuncts);
+        Translator translator = new Translator(tableInfo, alias);
+        StringBuilder sql = new StringBuilder();
+        List<FormulaNode> residue = new ArrayList<>();
+        for (FormulaNode conjunct : conjuncts) {
+            int mark = translator.params.size();
+            translator.recheck = false;
+            String piece = translator.translate(conjunct, false);
+            if (piece == null) {
+                translator.rollback(mark);
+                residue.add(conjunct);
+            } else {
+                if (sql.length() > 0) {
+                    sql.append(" and ");
+                }
+                sql.append(piece);
+                // 下推了字符串比较的条件，数据库的结果可能多一些，在内存中再过滤一次
+                if (translator.recheck) {
+                    residue.add(conjunct);
+                }
+            }
+        }
+        QueryAndNamedParams pushdown = sql.length() == 0 ? null :
+            new QueryAndNamedParams(sql.toString(), translator.params);
+        return new FormulaSqlFilter(pushdown, residue);
+    }
+
+    public static FormulaSqlFilter translate(String formula, TableInfo tableInfo, String alias) {
+        return translate(VariableFormula.compileWithCache(formula), tableInfo, alias);
+    }
+
+    private static boolean isAnd(FormulaNode node) {
+        if (!(node instanceof FormulaNode.OperatorNode)) {
+            return false;
+        }
+        int optID = ((FormulaNode.OperatorNode) node).getOptID();
+        return optID == ConstDefine.OP_AND || optID == ConstDefine.OP_LOGICAND;
+    }
+
+    private static void splitConjuncts(FormulaNode node, List<FormulaNode> conjuncts) {
+        if (isAnd(node)) {
+            for (FormulaNode operand : node.getOperands()) {
+                splitConjuncts(operand, conjuncts);
+            }
+        } else {
+            conjuncts.add(node);
+        }
+    }
+
+    /**
+     * @return 可以下推到数据库的过滤语句（不含 where）和参数，没有可以下推的条件时为 null
+     */
+    public QueryAndNamedParams getPushdown() {
+        return pushdown;
+    }
+
+    /**
+     * @return 需要在内存中求值的条件
+     */
+    public List<FormulaNode> getResidue() {
+        return Collections.unmodifiableList(residue);
+    }
+
+    /**
+     * @return 全部条件都下推到了数据库中
+     */
+    public boolean isFullyTranslated() {
+        return residue.isEmpty();
+    }
+
+    /**
+     * @param row 一条记录
+     * @return 记录满足所有需要在内存中求值的条件
+     */
+    public boolean matchResidue(Object row) {
+        if (residue.isEmpty()) {
+            return true;
+        }
+        ObjectTranslate trans = new ObjectTranslate(row);
+        for (FormulaNode node : residue) {
+            if (!BooleanBaseOpt.castObjectToBoolean(node.evaluate(trans), false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用需要在内存中求值的条件过滤数据库的查询结果
+     *
+     * @param rows 数据库的查询结果，直接在这个列表上删除不满足条件的记录
+     * @param <T>  记录类型
+     * @return rows
+     */
+    public <T extends List<?>> T filterResidue(T rows) {
+        if (!residue.isEmpty()) {
+            ObjectTranslate trans = new ObjectTranslate();
+            rows.removeIf(row -> {
+                trans.setVarObject(row);
+                for (FormulaNode node : residue) {
+                    if (!BooleanBaseOpt.castObjectToBoolean(node.evaluate(trans), false)) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+        return rows;
+    }
+
+    private static final class Translator {
+        private final TableInfo tableInfo;
+        private final String alias;
+        private final Map<String, Object> params = new LinkedHashMap<>();
+        private int paramNo = 0;
+        /**
+         * 当前条件中下推了字符串的比较，需要在内存中再判断一次
+         */
+        private boolean recheck;
+
+        Translator(TableInfo tableInfo, String alias) {
+            this.tableInfo = tableInfo;
+            this.alias = alias;
+        }
+
+        /**
+         * 丢弃翻译失败的条件中添加的参数
+         */
+        void rollback(int mark) {
+            Iterator<String> itr = params.keySet().iterator();
+            for (int i = 0; itr.hasNext(); i++) {
+                itr.next();
+                if (i >= mark) {
+                    itr.remove();
+                }
+            }
+        }
+
+        private String newParam(Object value) {
+            String paramName = PARAM_PREFIX + paramNo++;
+            params.put(paramName, value);
+            return ':' + paramName;
+        }
+
+        /**
+         * @return 变量对应的字段，不是表字段时返回 null
+         */
+        private String columnOf(FormulaNode node) {
+            if (!(node instanceof FormulaNode.VariableNode)) {
+                return null;
+            }
+            TableField field = tableInfo.findFieldByName(((FormulaNode.VariableNode) node).getVarName());
+            if (field == null) {
+                return null;
+            }
+            return StringUtils.isBlank(alias) ? field.getColumnName() : alias + '.' + field.getColumnName();
+        }
+
+        private static boolean isScalar(Object value) {
+            return !(value instanceof Collection) && !(value instanceof Object[]);
+        }
+
+        /**
+         * @param negated 是否对结果取反
+         * @return sql 条件，不能翻译时返回 null
+         */
+        String translate(FormulaNode node, boolean negated) {
+            if (node instanceof FormulaNode.NotNode) {
+                return translate(node.getOperands().get(0), !negated);
+            }
+            if (node instanceof FormulaNode.InNode) {
+                return translateIn(node.getOperands(), negated);
+            }
+            if (!(node instanceof FormulaNode.OperatorNode)) {
+                return null;
+            }
+            int optID = ((FormulaNode.OperatorNode) node).getOptID();
+            List<FormulaNode> operands = node.getOperands();
+            switch (optID) {
+                case ConstDefine.OP_AND:
+                case ConstDefine.OP_LOGICAND:
+                    return translateLogic(operands, negated ? " or " : " and ", negated);
+                case ConstDefine.OP_OR:
+                case ConstDefine.OP_LOGICOR:
+                    // | 和 || 只有两边都是布尔值时才是逻辑或，翻译的条件都是比较运算，结果一定是布尔值
+                    return translateLogic(operands, negated ? " and " : " or ", negated);
+                case ConstDefine.OP_EQ:
+                case ConstDefine.OP_NE:
+                case ConstDefine.OP_BG:
+                case ConstDefine.OP_EB:
+                case ConstDefine.OP_LT:
+                case ConstDefine.OP_EL:
+                    return translateCompare(optID, operands.get(0), operands.get(1), negated);
+                default:
+                    return null;
+            }
+        }
+
+        private String translateLogic(List<FormulaNode> operands, String sqlOpt, boolean negated) {
+            String left = translate(operands.get(0), negated);
+            if (left == null) {
+                return null;
+            }
+            String right = translate(operands.get(1), negated);
+            if (right == null) {
+                return null;
+            }
+            return "(" + left + sqlOpt + right + ")";
+        }
+
+        private static int reverseOperator(int optID) {
+            switch (optID) {
+                case ConstDefine.OP_BG:
+                    return ConstDefine.OP_LT;
+                case ConstDefine.OP_EB:
+                    return ConstDefine.OP_EL;
+                case ConstDefine.OP_LT:
+                    return ConstDefine.OP_BG;
+                case ConstDefine.OP_EL:
+                    return ConstDefine.OP_EB;
+                default:
+                    return optID;
+            }
+        }
+
+        private static int negateOperator(int optID) {
+            switch (optID) {
+                case ConstDefine.OP_EQ:
+                    return ConstDefine.OP_NE;
+                case ConstDefine.OP_NE:
+                    return ConstDefine.OP_EQ;
+                case ConstDefine.OP_BG:
+                    return ConstDefine.OP_EL;
+                case ConstDefine.OP_EB:
+                    return ConstDefine.OP_LT;
+                case ConstDefine.OP_LT:
+                    return ConstDefine.OP_EB;
+                default:
+                    return ConstDefine.OP_BG;
+            }
+        }
+
+        private String translateCompare(int optID, FormulaNode left, FormulaNode right, boolean negated) {
+            String column = columnOf(left);
+            FormulaNode other = right;
+            if (column == null) {
+                column = columnOf(right);
+                other = left;
+                optID = reverseOperator(optID);
+            }
+            if (column == null || !(other instanceof FormulaNode.ConstNode)) {
+                return null;
+            }
+            Object value = ((FormulaNode.ConstNode) other).getValue();
+            if (!isScalar(value)) {
+                return null;
+            }
+            if (negated) {
+                optID = negateOperator(optID);
+            }
+            if (value instanceof CharSequence) {
+                // 数据库按字段的排序规则比较字符串，只有 = 匹配的记录不会比内存中少
+                if (optID != ConstDefine.OP_EQ) {
+                    return null;
+                }
+                recheck = true;
+                return column + " = " + newParam(value);
+            }
+            if (value == null) {
+                // 表达式中 null 等于 null ，小于任何非空的值
+                switch (optID) {
+                    case ConstDefine.OP_EQ:
+                    case ConstDefine.OP_EL:
+                        return column + " is null";
+                    case ConstDefine.OP_NE:
+                    case ConstDefine.OP_BG:
+                        return column + " is not null";
+                    case ConstDefine.OP_EB:
+                        return "1=1";
+                    default:
+                        return "1=0";
+                }
+            }
+            // 字段为 null 时，只有 != 、< 、<= 成立
+            switch (optID) {
+                case ConstDefine.OP_EQ:
+                    return column + " = " + newParam(value);
+                case ConstDefine.OP_BG:
+                    return column + " > " + newParam(value);
+                case ConstDefine.OP_EB:
+                    return column + " >= " + newParam(value);
+                case ConstDefine.OP_NE:
+                    return "(" + column + " is null or " + column + " <> " + newParam(value) + ")";
+                case ConstDefine.OP_LT:
+                    return "(" + column + " is null or " + column + " < " + newParam(value) + ")";
+                default:
+                    return "(" + column + " is null or " + column + " <= " + newParam(value) + ")";
+            }
+        }
+
+        private String translateIn(List<FormulaNode> operands, boolean negated) {
+            String column = columnOf(operands.get(0));
+            if (column == null) {
+                return null;
+            }
+            List<Object> values = new ArrayList<>(operands.size());
+            for (int i = 1; i < operands.size(); i++) {
+                FormulaNode item = operands.get(i);
+                if (!(item instanceof FormulaNode.ConstNode)) {
+                    return null;
+                }
+                Object value = ((FormulaNode.ConstNode) item).getValue();
+                if (value instanceof Collection) {
+                    values.addAll((Collection<?>) value);
+                } else if (value instanceof Object[]) {
+                    values.addAll(Arrays.asList((Object[]) value));
+                } else {
+                    values.add(value);
+                }
+            }
+            // null 的匹配规则和 sql 不一致，放到内存中计算
+            if (values.isEmpty() || values.contains(null)) {
+                return null;
+            }
+            for (Object value : values) {
+                if (!isScalar(value)) {
+                    return null;
+                }
+                if (value instanceof CharSequence) {
+                    // 和 translateCompare 一样，字符串只下推 in ，not in 在内存中求值
+                    if (negated) {
+                        return null;
+                    }
+                    recheck = true;
+                }
+            }
+            QueryAndNamedParams inStatement = QueryUtils.buildInStatement(
+                PARAM_PREFIX + paramNo++, values);
+            params.putAll(inStatement.getParams());
+            return negated ? "(" + column + " is null or " + column + " not in (" + inStatement.getQuery() + "))"
+                : column + " in (" + inStatement.getQuery() + ")";
+        }
+    }
+}
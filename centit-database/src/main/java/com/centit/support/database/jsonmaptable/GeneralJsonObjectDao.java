@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
 
@@ -34,11 +35,17 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
      * 用户自定义排序字段的排序顺序 ， 放到 filterDesc 中
      */
     public static final String TABLE_SORT_ORDER = "order";
+    /**
+     * 批量操作默认每批的行数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
     protected static final Logger logger = LoggerFactory.getLogger(JsonObjectDao.class);
     private Connection conn;
 
     private TableInfo tableInfo;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     GeneralJsonObjectDao() {
 
     }
@@ -665,6 +672,17 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
         this.tableInfo = tableInfo;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize 批量操作每批的行数，也是多行 insert 语句的最大行数
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
     public boolean checkHasAllPkColumns(Map<String, Object> properties) {
         return GeneralJsonObjectDao.checkHasAllPkColumns(tableInfo, properties);
     }
@@ -737,6 +755,20 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
             q.getRight());
     }
 
+    @Override
+    public JSONArray listObjectsByFormula(final String formula) throws SQLException, IOException {
+        FormulaSqlFilter filter = FormulaSqlFilter.translate(formula, tableInfo, null);
+        QueryAndNamedParams pushdown = filter.getPushdown();
+        Pair<String, TableField[]> q = buildSelectSqlWithFields(tableInfo, null, true,
+            pushdown == null ? null : pushdown.getQuery(), true, null);
+        JSONArray objects = findObjectsByNamedSql(
+            conn,
+            q.getLeft(),
+            pushdown == null ? new HashMap<>() : pushdown.getParams(),
+            q.getRight());
+        return filter.filterResidue(objects);
+    }
+
     @Override
     public Long fetchObjectsCount(final Map<String, Object> properties)
         throws SQLException, IOException {
@@ -785,12 +817,28 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
         return updateObject(object.keySet(), object);
     }
 
+    /**
+     * 合并，数据库支持的话用一条 upsert 语句（buildUpsertSql），否则先查询主键是否存在再插入或者更新
+     * 对象不存在时插入对象中所有的属性，存在时只更新 fields 中的属性
+     */
     @Override
     public int mergeObject(final Collection<String> fields,
                            final Map<String, Object> object) throws SQLException, IOException {
         if (!checkHasAllPkColumns(object)) {
             throw new SQLException("缺少主键对应的属性。");
         }
+        String sql = buildUpsertSql(mapInsertFields(object.keySet()), mapUpdateFields(fields));
+        if (sql == null) {
+            return mergeObjectByQuery(fields, object);
+        }
+        return normalizeUpsertCount(DatabaseAccess.doExecuteNamedSql(conn, sql, object));
+    }
+
+    /**
+     * 先查询主键是否存在，再插入或者更新；不支持 upsert 语句的数据库用这个方法
+     */
+    protected int mergeObjectByQuery(final Collection<String> fields,
+                                     final Map<String, Object> object) throws SQLException, IOException {
         String sql =
             "select count(*) as checkExists from " + tableInfo.getTableName()
                 + " where " + buildFilterSqlByPk(tableInfo, null);
@@ -805,6 +853,214 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
         }
     }
 
+    /**
+     * 单条语句的合并（upsert）语句，使用命名参数，参数名为属性名；
+     * 返回 null 表示数据库不支持，mergeObject 会先查询再插入或者更新
+     *
+     * @param insertFields 对象不存在时插入的属性，只包括表中有的属性
+     * @param updateFields 对象存在时更新的属性，不包括主键
+     * @return upsert 语句
+     */
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        return null;
+    }
+
+    /**
+     * MySql 的 on duplicate key update 更新时返回 2，统一为 1
+     */
+    private static int normalizeUpsertCount(int count) {
+        return count > 1 ? 1 : count;
+    }
+
+    /**
+     * 和 buildInsertSql 一样，过滤掉表中没有的属性
+     */
+    protected List<String> mapInsertFields(Collection<String> fields) {
+        List<String> insertFields = new ArrayList<>(fields.size());
+        for (String f : fields) {
+            if (tableInfo.findFieldByName(f) != null) {
+                insertFields.add(f);
+            }
+        }
+        return insertFields;
+    }
+
+    /**
+     * 和 buildUpdateSql 一样，过滤掉主键和表中没有的属性
+     */
+    protected List<String> mapUpdateFields(Collection<String> fields) {
+        List<String> updateFields = new ArrayList<>(fields.size());
+        for (String f : fields) {
+            if (!tableInfo.isParmaryKey(f) && tableInfo.findFieldByName(f) != null) {
+                updateFields.add(f);
+            }
+        }
+        return updateFields;
+    }
+
+    /**
+     * c1, c2
+     */
+    protected String buildInsertColumnsPiece(List<String> insertFields) {
+        StringBuilder sbColumns = new StringBuilder();
+        int i = 0;
+        for (String f : insertFields) {
+            if (i > 0) {
+                sbColumns.append(", ");
+            }
+            sbColumns.append(tableInfo.findFieldByName(f).getColumnName());
+            i++;
+        }
+        return sbColumns.toString();
+    }
+
+    /**
+     * :f1, :f2
+     */
+    protected static String buildNamedValuesPiece(List<String> insertFields) {
+        StringBuilder sbValues = new StringBuilder();
+        int i = 0;
+        for (String f : insertFields) {
+            if (i > 0) {
+                sbValues.append(", ");
+            }
+            sbValues.append(":").append(f);
+            i++;
+        }
+        return sbValues.toString();
+    }
+
+    /**
+     * ( c1, c2 ) values ( :f1, :f2 )
+     */
+    protected String buildInsertColumnsAndValues(List<String> insertFields) {
+        return "( " + buildInsertColumnsPiece(insertFields) + " ) values ( " +
+            buildNamedValuesPiece(insertFields) + " )";
+    }
+
+    /**
+     * c1 = :f1, c2 = :f2
+     */
+    protected String buildUpdateSetPiece(List<String> updateFields, String alias) {
+        StringBuilder sbUpdate = new StringBuilder();
+        int i = 0;
+        for (String f : updateFields) {
+            if (i > 0) {
+                sbUpdate.append(", ");
+            }
+            if (StringUtils.isNotBlank(alias)) {
+                sbUpdate.append(alias).append('.');
+            }
+            sbUpdate.append(tableInfo.findFieldByName(f).getColumnName()).append(" = :").append(f);
+            i++;
+        }
+        return sbUpdate.toString();
+    }
+
+    /**
+     * 主键字段列表 pk1, pk2
+     */
+    protected String buildPkColumnsPiece() {
+        StringBuilder sbPk = new StringBuilder();
+        int i = 0;
+        for (TableField col : tableInfo.getPkFields()) {
+            if (i > 0) {
+                sbPk.append(", ");
+            }
+            sbPk.append(col.getColumnName());
+            i++;
+        }
+        return sbPk.toString();
+    }
+
+    /**
+     * 标准的 merge 语句，Oracle、DB2、SqlServer 等数据库使用
+     * merge into table t using source on ( t.pk = :pk )
+     * when matched then update set c1 = :f1 when not matched then insert ( pk, c1 ) values ( :pk, :f1 )
+     *
+     * @param target       目标表和别名，别名必须为 t
+     * @param source       using 的数据源，比如 dual
+     * @param insertFields 插入的属性
+     * @param updateFields 更新的属性，为空时省略 when matched 子句
+     * @return merge 语句
+     */
+    protected String buildMergeSql(String target, String source,
+                                   List<String> insertFields, List<String> updateFields) {
+        StringBuilder sbMerge = new StringBuilder("merge into ");
+        sbMerge.append(target).append(" using ").append(source)
+            .append(" on ( ").append(buildFilterSqlByPk(tableInfo, "t")).append(" )");
+        if (!updateFields.isEmpty()) {
+            sbMerge.append(" when matched then update set ").append(buildUpdateSetPiece(updateFields, null));
+        }
+        sbMerge.append(" when not matched then insert ").append(buildInsertColumnsAndValues(insertFields));
+        return sbMerge.toString();
+    }
+
+    /**
+     * 把行加入分组，属性和最后一组相同时加入最后一组，否则新建一组；
+     * 只合并连续的行，执行的次序和输入一致，先父后子、自关联的数据可以放在同一批中
+     *
+     * @param rowGroups 分组，属性列表 -》 行号
+     * @param keys      这一行的属性，复制一份，不能是 keySet 视图
+     * @param row       行号
+     */
+    private static void addToRowGroups(List<Pair<List<String>, List<Integer>>> rowGroups,
+                                       List<String> keys, int row) {
+        Pair<List<String>, List<Integer>> lastGroup = rowGroups.isEmpty() ? null :
+            rowGroups.get(rowGroups.size() - 1);
+        if (lastGroup != null && lastGroup.getKey().size() == keys.size()
+            && lastGroup.getKey().containsAll(keys)) {
+            lastGroup.getValue().add(row);
+        } else {
+            List<Integer> rows = new ArrayList<>();
+            rows.add(row);
+            rowGroups.add(Pair.of(keys, rows));
+        }
+    }
+
+    /**
+     * 批量合并，连续的属性相同的对象共用一条 upsert 语句，用 jdbc 的 batch 执行，次序和输入一致；
+     * 数据库不支持 upsert 语句时逐条调用 mergeObject
+     *
+     * @param objects 待合并的对象，存在时更新对象中的所有属性
+     * @return 合并的对象数
+     * @throws SQLException 部分失败抛出 BatchUpdateException，getUpdateCounts 为每一个对象的结果
+     * @throws IOException  IOException
+     */
+    @Override
+    public int mergeObjects(final List<Map<String, Object>> objects) throws SQLException, IOException {
+        List<Pair<List<String>, List<Integer>>> rowGroups = new ArrayList<>();
+        for (int row = 0; row < objects.size(); row++) {
+            Map<String, Object> object = objects.get(row);
+            if (!checkHasAllPkColumns(object)) {
+                throw new SQLException("缺少主键对应的属性。");
+            }
+            addToRowGroups(rowGroups, new ArrayList<>(object.keySet()), row);
+        }
+        int[] results = new int[objects.size()];
+        for (Pair<List<String>, List<Integer>> ent : rowGroups) {
+            String sql = buildUpsertSql(mapInsertFields(ent.getKey()), mapUpdateFields(ent.getKey()));
+            if (sql == null) {
+                for (Integer row : ent.getValue()) {
+                    results[row] = mergeObject(objects.get(row));
+                }
+            } else {
+                NamedParamSql namedSql = NamedParamSql.parseWithCache(sql);
+                executeBatchByRows(namedSql.getParamSql(), namedSql.getParamNames(),
+                    objects, ent.getValue(), results);
+            }
+        }
+        int resN = 0;
+        for (int res : results) {
+            if (res > 0) {
+                resN += normalizeUpsertCount(res);
+            } else if (res == Statement.SUCCESS_NO_INFO) {
+                resN++;
+            }
+        }
+        return resN;
+    }
+
     @Override
     public int mergeObject(final Map<String, Object> object) throws SQLException, IOException {
         return mergeObject(object.keySet(), object);
@@ -854,22 +1110,350 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
 
     @Override
     public int insertObjectsAsTabulation(final List<Map<String, Object>> objects) throws SQLException {
+        return sumBatchResults(batchInsertObjects(objects));
+    }
+
+    /**
+     * 合计批量操作影响的行数，Statement.SUCCESS_NO_INFO 算作 1 行
+     */
+    private static int sumBatchResults(int[] results) {
         int resN = 0;
-        for (Map<String, Object> object : objects) {
-            resN += saveNewObject(object);
+        for (int res : results) {
+            if (res > 0) {
+                resN += res;
+            } else if (res == Statement.SUCCESS_NO_INFO) {
+                resN++;
+            }
         }
         return resN;
     }
 
+    /**
+     * 一条 insert 语句中最多插入的行数，小于 2 表示不使用多行插入语句，用 jdbc 的 batch 执行
+     * 支持多行插入的数据库在子类中重写，需要考虑数据库对参数个数的限制
+     *
+     * @param columnCount 插入的字段数
+     * @return 最多插入的行数
+     */
+    protected int maxRowsPerInsert(int columnCount) {
+        return 1;
+    }
+
+    /**
+     * 多行插入语句 insert into table (c1, c2) values (?, ?), (?, ?)
+     *
+     * @param columns  插入的字段
+     * @param rowCount 行数
+     * @return sql 语句，参数按行依次排列
+     */
+    protected String buildMultiRowInsertSql(List<TableField> columns, int rowCount) {
+        StringBuilder sbInsert = new StringBuilder(buildInsertSqlHead(tableInfo, columns));
+        String rowValues = buildInsertValuesPiece(columns.size());
+        sbInsert.append(" values ");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sbInsert.append(", ");
+            }
+            sbInsert.append(rowValues);
+        }
+        return sbInsert.toString();
+    }
+
+    /**
+     * insert into table ( c1, c2 )
+     */
+    public static String buildInsertSqlHead(TableInfo ti, List<TableField> columns) {
+        StringBuilder sbInsert = new StringBuilder("insert into ");
+        sbInsert.append(ti.getTableName()).append(" ( ");
+        int i = 0;
+        for (TableField col : columns) {
+            if (i > 0) {
+                sbInsert.append(", ");
+            }
+            sbInsert.append(col.getColumnName());
+            i++;
+        }
+        return sbInsert.append(" )").toString();
+    }
+
+    /**
+     * ( ?, ? )
+     */
+    public static String buildInsertValuesPiece(int columnCount) {
+        StringBuilder sbValues = new StringBuilder("( ");
+        for (int i = 0; i < columnCount; i++) {
+            if (i > 0) {
+                sbValues.append(", ");
+            }
+            sbValues.append('?');
+        }
+        return sbValues.append(" )").toString();
+    }
+
+    /**
+     * 批量插入，连续的属性相同的行共用一条预编译的 insert 语句，按 batchSize 分批提交；
+     * 子类支持多行插入语句的（maxRowsPerInsert 大于 1）用一条语句插入多行，
+     * 和 saveNewObject 一样只插入对象中有的属性。
+     * 插入的次序和 objects 的次序一致（属性不同的行不会被合并到前面），
+     * 所以自关联的外键、先父后子的数据可以放在同一批中插入
+     *
+     * @param objects 待插入的对象
+     * @return 每一行的结果，和 Statement.executeBatch 的返回值一样，
+     * 大于等于0为插入的行数，Statement.SUCCESS_NO_INFO 表示成功但不知道行数
+     * @throws BatchUpdateException 部分失败，getUpdateCounts 为每一行的结果，
+     *                              失败的行为 Statement.EXECUTE_FAILED，因为出错没有执行的行为 0
+     * @throws SQLException         SQLException
+     */
+    @Override
+    public int[] batchInsertObjects(final List<Map<String, Object>> objects) throws SQLException {
+        int[] results = new int[objects.size()];
+        if (objects.isEmpty()) {
+            return results;
+        }
+        // 连续的插入属性相同的行分为一组，属性的次序和表中字段的次序一致
+        List<? extends TableField> columns = tableInfo.getColumns();
+        Map<String, Integer> keyColumnIndex = new HashMap<>(columns.size() * 2);
+        List<Pair<List<String>, List<Integer>>> rowGroups = new ArrayList<>();
+        String[] colKeys = new String[columns.size()];
+        for (int row = 0; row < objects.size(); row++) {
+            Arrays.fill(colKeys, null);
+            for (String key : objects.get(row).keySet()) {
+                Integer ind = keyColumnIndex.get(key);
+                if (ind == null) {
+                    TableField col = tableInfo.findFieldByName(key);
+                    ind = col == null ? -1 : columns.indexOf(col);
+                    keyColumnIndex.put(key, ind);
+                }
+                if (ind >= 0 && colKeys[ind] == null) {
+                    colKeys[ind] = key;
+                }
+            }
+            List<String> keys = new ArrayList<>(colKeys.length);
+            for (String key : colKeys) {
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            addToRowGroups(rowGroups, keys, row);
+        }
+
+        for (Pair<List<String>, List<Integer>> ent : rowGroups) {
+            List<String> keys = ent.getKey();
+            List<TableField> insertColumns = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                insertColumns.add(columns.get(keyColumnIndex.get(key)));
+            }
+            int maxRows = Math.min(maxRowsPerInsert(insertColumns.size()), batchSize);
+            if (maxRows > 1 && ent.getValue().size() > 1) {
+                multiRowInsert(insertColumns, keys, objects, ent.getValue(), maxRows, results);
+            } else {
+                jdbcBatchInsert(insertColumns, keys, objects, ent.getValue(), results);
+            }
+        }
+        return results;
+    }
+
+    private static Object[] fetchInsertParams(List<String> keys, List<Map<String, Object>> objects,
+                                              List<Integer> rows, int start, int end) {
+        Object[] params = new Object[keys.size() * (end - start)];
+        int p = 0;
+        for (int r = start; r < end; r++) {
+            Map<String, Object> object = objects.get(rows.get(r));
+            for (String key : keys) {
+                params[p++] = object.get(key);
+            }
+        }
+        return params;
+    }
+
+    private static BatchUpdateException makeBatchUpdateException(String sql, SQLException e, int[] results) {
+        return new BatchUpdateException(sql + " raise " + e.getMessage(), e.getSQLState(),
+            e.getErrorCode(), results, e);
+    }
+
+    private void multiRowInsert(List<TableField> columns, List<String> keys, List<Map<String, Object>> objects,
+                                List<Integer> rows, int maxRows, int[] results) throws SQLException {
+        int rowCount = rows.size();
+        String sql = null;
+        PreparedStatement stmt = null;
+        int stmtRows = 0;
+        try {
+            for (int start = 0; start < rowCount; start += maxRows) {
+                int end = Math.min(start + maxRows, rowCount);
+                // 只有最后一块的行数不一样，需要重新生成语句
+                if (end - start != stmtRows) {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    stmtRows = end - start;
+                    sql = buildMultiRowInsertSql(columns, stmtRows);
+                    QueryLogUtils.printSql(logger, sql);
+                    stmt = conn.prepareStatement(sql);
+                }
+                DatabaseAccess.setQueryStmtParameters(stmt, fetchInsertParams(keys, objects, rows, start, end));
+                try {
+                    int count = stmt.executeUpdate();
+                    for (int r = start; r < end; r++) {
+                        results[rows.get(r)] = count == stmtRows ? 1 : Statement.SUCCESS_NO_INFO;
+                    }
+                } catch (SQLException e) {
+                    // 一条语句是一个整体，语句中的行都失败
+                    for (int r = start; r < end; r++) {
+                        results[rows.get(r)] = Statement.EXECUTE_FAILED;
+                    }
+                    throw makeBatchUpdateException(sql, e, results);
+                }
+            }
+        } catch (BatchUpdateException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw DatabaseAccess.createAccessException(sql, e);
+        } finally {
+            if (stmt != null) {
+                stmt.close();
+            }
+        }
+    }
+
+    private void jdbcBatchInsert(List<TableField> columns, List<String> keys, List<Map<String, Object>> objects,
+                                 List<Integer> rows, int[] results) throws SQLException {
+        String sql = buildInsertSqlHead(tableInfo, columns) + " values " + buildInsertValuesPiece(columns.size());
+        executeBatchByRows(sql, keys, objects, rows, results);
+    }
+
+    /**
+     * 用 jdbc 的 batch 对多行执行同一条语句，按 batchSize 分批提交
+     *
+     * @param sql        ? 参数的 sql 语句
+     * @param paramNames 参数对应的属性名
+     * @param objects    所有的对象
+     * @param rows       需要执行的对象在 objects 中的序号
+     * @param results    每个对象的执行结果
+     * @throws SQLException 部分失败抛出 BatchUpdateException
+     */
+    private void executeBatchByRows(String sql, List<String> paramNames, List<Map<String, Object>> objects,
+                                    List<Integer> rows, int[] results) throws SQLException {
+        QueryLogUtils.printSql(logger, sql);
+        int rowCount = rows.size();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int start = 0;
+            for (int r = 0; r < rowCount; r++) {
+                DatabaseAccess.setQueryStmtParameters(stmt, fetchInsertParams(paramNames, objects, rows, r, r + 1));
+                stmt.addBatch();
+                if (r + 1 - start == batchSize || r + 1 == rowCount) {
+                    try {
+                        int[] counts = stmt.executeBatch();
+                        for (int i = 0; i < counts.length; i++) {
+                            results[rows.get(start + i)] = counts[i];
+                        }
+                    } catch (BatchUpdateException e) {
+                        // 有的驱动在出错的地方停止，返回的结果比批量的行数少，第一个没有结果的行就是出错的行
+                        int[] counts = e.getUpdateCounts();
+                        int n = counts == null ? 0 : counts.length;
+                        for (int i = 0; i < n; i++) {
+                            results[rows.get(start + i)] = counts[i];
+                        }
+                        if (start + n <= r) {
+                            results[rows.get(start + n)] = Statement.EXECUTE_FAILED;
+                        }
+                        throw makeBatchUpdateException(sql, e, results);
+                    }
+                    start = r + 1;
+                }
+            }
+        } catch (BatchUpdateException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw DatabaseAccess.createAccessException(sql, e);
+        }
+    }
+
+    /**
+     * 批量删除，单主键用 delete ... where pk in ( ... )，联合主键用 ( pk1 = ? and pk2 = ? ) or ...，
+     * 每条语句的参数不超过 1000 个（Oracle in 语句的上限），也不超过 batchSize 行
+     *
+     * @param objects 主键值，联合主键为包含主键属性的Map
+     * @return 删除的行数
+     * @throws SQLException 表没有定义主键或者缺少主键属性时抛出
+     */
     @Override
     public int deleteObjects(final List<Object> objects) throws SQLException {
-        int resN = 0;
+        if (objects == null || objects.isEmpty()) {
+            return 0;
+        }
+        List<? extends TableField> pkFields = tableInfo.getPkFields();
+        int pkCount = pkFields == null ? 0 : pkFields.size();
+        if (pkCount == 0) {
+            throw new SQLException("表" + tableInfo.getTableName() + "没有定义主键，不能按主键批量删除。");
+        }
+        List<Object> pkValues = new ArrayList<>(objects.size() * pkCount);
         for (Object object : objects) {
-            resN += deleteObjectById(object);
+            Map<String, Object> pkMap = makePkFieldMap(object);
+            for (TableField field : pkFields) {
+                pkValues.add(pkMap.get(field.getPropertyName()));
+            }
+        }
+        int rowCount = objects.size();
+        int maxRows = Math.max(1, Math.min(batchSize, 1000 / pkCount));
+        int resN = 0;
+        String sql = null;
+        PreparedStatement stmt = null;
+        int stmtRows = 0;
+        try {
+            for (int start = 0; start < rowCount; start += maxRows) {
+                int end = Math.min(start + maxRows, rowCount);
+                if (end - start != stmtRows) {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    stmtRows = end - start;
+                    sql = buildDeleteSqlByPks(stmtRows);
+                    QueryLogUtils.printSql(logger, sql);
+                    stmt = conn.prepareStatement(sql);
+                }
+                DatabaseAccess.setQueryStmtParameters(stmt, pkValues.subList(start * pkCount, end * pkCount));
+                resN += stmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw DatabaseAccess.createAccessException(sql, e);
+        } finally {
+            if (stmt != null) {
+                stmt.close();
+            }
         }
         return resN;
     }
 
+    /**
+     * 按主键删除多行的语句，参数为每行的主键值依次排列
+     */
+    private String buildDeleteSqlByPks(int rowCount) {
+        List<? extends TableField> pkFields = tableInfo.getPkFields();
+        StringBuilder sbDelete = new StringBuilder("delete from ");
+        sbDelete.append(tableInfo.getTableName()).append(" where ");
+        if (pkFields.size() == 1) {
+            sbDelete.append(pkFields.get(0).getColumnName()).append(" in ")
+                .append(buildInsertValuesPiece(rowCount));
+            return sbDelete.toString();
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sbDelete.append(" or ");
+            }
+            sbDelete.append("( ");
+            int j = 0;
+            for (TableField field : pkFields) {
+                if (j > 0) {
+                    sbDelete.append(" and ");
+                }
+                sbDelete.append(field.getColumnName()).append(" = ?");
+                j++;
+            }
+            sbDelete.append(" )");
+        }
+        return sbDelete.toString();
+    }
+
     @Override
     public int deleteObjectsAsTabulation(final String propertyName, final Object propertyValue) throws SQLException {
         return deleteObjectsByProperties(
@@ -883,6 +1467,7 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
 
     /**
      * 比较两个对象，判断是否需要更新，这个仅用于只更新有值的字段
+     * 数值按大小比较（数据库返回的 BigDecimal 和 Integer 相等），日期按时间比较
      * @param oldObject 就对象，一般指数据库中的对象
      * @param newObject 新对象，一般指待更新的对象
      * @return 是否需要更新
@@ -891,13 +1476,33 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
         for(Map.Entry<String, Object> ent : newObject.entrySet()){
             Object oldValue = oldObject.get(ent.getKey());
             Object newValue = ent.getValue();
-            if(newValue!=null && !newValue.equals(oldValue)) {
+            if(newValue!=null && !checkSameValue(oldValue, newValue)) {
                 return true;
             }
         }
         return false;
     }
 
+    private static boolean checkSameValue(Object oldValue, Object newValue) {
+        if (newValue.equals(oldValue)) {
+            return true;
+        }
+        if (oldValue instanceof Number && newValue instanceof Number) {
+            BigDecimal oldNumber = NumberBaseOpt.castObjectToBigDecimal(oldValue);
+            BigDecimal newNumber = NumberBaseOpt.castObjectToBigDecimal(newValue);
+            return oldNumber != null && newNumber != null && oldNumber.compareTo(newNumber) == 0;
+        }
+        if (oldValue instanceof java.util.Date && newValue instanceof java.util.Date) {
+            return ((java.util.Date) oldValue).getTime() == ((java.util.Date) newValue).getTime();
+        }
+        return false;
+    }
+
+    /**
+     * 用新的列表覆盖数据库中的列表，按主键对比后分三批执行：
+     * 新增的用 batchInsertObjects 批量插入，删除的用 deleteObjects 按主键分块删除，
+     * 修改的只更新值有变化的对象，属性相同的对象共用一条 update 语句批量执行
+     */
     @Override
     public int replaceObjectsAsTabulation(final List<Map<String, Object>> newObjects, final List<Map<String, Object>> dbObjects)
         throws SQLException {
@@ -907,27 +1512,54 @@ public abstract class GeneralJsonObjectDao implements JsonObjectDao {
             CollectionsOpt.compareTwoList(dbObjects, newObjects, new JSONObjectComparator(tableInfo));
 
         int resN = 0;
-        if (comRes.getLeft() != null) {
-            for (Object obj : comRes.getLeft()) {
-                resN += saveNewObject((JSONObject) obj);
-            }
+        if (comRes.getLeft() != null && !comRes.getLeft().isEmpty()) {
+            resN += insertObjectsAsTabulation(comRes.getLeft());
         }
-        if (comRes.getRight() != null) {
-            for (Object obj : comRes.getRight()) {
-                resN += deleteObjectById(obj);
-            }
+        if (comRes.getRight() != null && !comRes.getRight().isEmpty()) {
+            resN += deleteObjects(new ArrayList<>(comRes.getRight()));
         }
-        if (comRes.getMiddle() != null) {
+        if (comRes.getMiddle() != null && !comRes.getMiddle().isEmpty()) {
+            List<Map<String, Object>> updateObjects = new ArrayList<>(comRes.getMiddle().size());
             for (Pair<Map<String, Object>, Map<String, Object>> pobj : comRes.getMiddle()) {
                 //对比减少不必要的更新
                 if(checkNeedUpdate(pobj.getLeft(), pobj.getRight())) {
-                    resN += updateObject(pobj.getRight());
+                    updateObjects.add(pobj.getRight());
                 }
             }
+            if (!updateObjects.isEmpty()) {
+                resN += batchUpdateObjects(updateObjects);
+            }
         }
         return resN;
     }
 
+    /**
+     * 批量更新，和 updateObject(object) 一样更新对象中所有的属性，
+     * 连续的属性相同的对象共用一条 update 语句，次序和输入一致
+     */
+    private int batchUpdateObjects(final List<Map<String, Object>> objects) throws SQLException {
+        List<Pair<List<String>, List<Integer>>> rowGroups = new ArrayList<>();
+        for (int row = 0; row < objects.size(); row++) {
+            Map<String, Object> object = objects.get(row);
+            if (!checkHasAllPkColumns(object)) {
+                throw new SQLException("缺少主键对应的属性。");
+            }
+            addToRowGroups(rowGroups, new ArrayList<>(object.keySet()), row);
+        }
+        int[] results = new int[objects.size()];
+        for (Pair<List<String>, List<Integer>> ent : rowGroups) {
+            String sql = buildUpdateSql(tableInfo, ent.getKey());
+            if (sql == null) {
+                continue;
+            }
+            NamedParamSql namedSql = NamedParamSql.parseWithCache(
+                sql + " where " + buildFilterSqlByPk(tableInfo, null));
+            executeBatchByRows(namedSql.getParamSql(), namedSql.getParamNames(),
+                objects, ent.getValue(), results);
+        }
+        return sumBatchResults(results);
+    }
+
     @Override
     public int replaceObjectsAsTabulation(final List<Map<String, Object>> newObjects,
                                           final String propertyName, final Object propertyValue)
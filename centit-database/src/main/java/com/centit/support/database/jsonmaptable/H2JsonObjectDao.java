@@ -7,6 +7,9 @@ import com.centit.support.database.utils.DatabaseAccess;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * 使用H2数据库时请打开MySql兼容模式
@@ -53,4 +56,23 @@ public class H2JsonObjectDao extends MySqlJsonObjectDao {
         return NumberBaseOpt.castObjectToLong(object);
     }
 
+    /**
+     * merge into ... key ( pk )，主键存在时会更新插入的所有字段，
+     * 所以只有更新的字段和插入的非主键字段一样时才能使用，否则先查询再插入或者更新
+     */
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        Set<String> insertColumns = new HashSet<>();
+        for (String f : insertFields) {
+            if (!getTableInfo().isParmaryKey(f)) {
+                insertColumns.add(f);
+            }
+        }
+        if (!insertColumns.equals(new HashSet<>(updateFields))) {
+            return null;
+        }
+        return "merge into " + getTableInfo().getTableName() +
+            " ( " + buildInsertColumnsPiece(insertFields) + " ) key ( " + buildPkColumnsPiece() +
+            " ) values ( " + buildNamedValuesPiece(insertFields) + " )";
+    }
 }
@@ -2,11 +2,17 @@ package com.centit.support.database.jsonmaptable;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.centit.support.algorithm.BooleanBaseOpt;
+import com.centit.support.compiler.CompiledFormula;
+import com.centit.support.compiler.VariableFormula;
 import com.centit.support.database.metadata.TableInfo;
 
 import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -55,6 +61,23 @@ public interface JsonObjectDao {
     JSONArray listObjectsByProperties(final Map<String, Object> properties,
                                       final int startPos, final int maxSize) throws SQLException, IOException;
 
+    /**
+     * 根据表达式过滤，能翻译为 sql 的条件在数据库中过滤，其他条件在内存中过滤；
+     * 默认实现查询所有记录后在内存中过滤，GeneralJsonObjectDao 用 FormulaSqlFilter 下推条件
+     *
+     * @param formula 过滤条件，比如 amount &gt; 1000 &amp;&amp; deptCode in ("D1","D2")
+     * @return JSONArray
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     * @see FormulaSqlFilter
+     */
+    default JSONArray listObjectsByFormula(final String formula) throws SQLException, IOException {
+        CompiledFormula filter = VariableFormula.compileWithCache(formula);
+        JSONArray objects = listObjectsByProperties(new HashMap<>());
+        objects.removeIf(row -> !BooleanBaseOpt.castObjectToBoolean(filter.evaluate(row), false));
+        return objects;
+    }
+
     /**
      * 根据属性进行并获取总数
      *
@@ -123,6 +146,22 @@ public interface JsonObjectDao {
      */
     int mergeObject(final Map<String, Object> object) throws SQLException, IOException;
 
+    /**
+     * 批量合并，默认实现逐条调用 mergeObject
+     *
+     * @param objects 待合并的对象
+     * @return 合并的对象数
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     */
+    default int mergeObjects(final List<Map<String, Object>> objects) throws SQLException, IOException {
+        int resN = 0;
+        for (Map<String, Object> object : objects) {
+            resN += mergeObject(object);
+        }
+        return resN;
+    }
+
     /**
      * 根据条件批量更新 对象
      *
@@ -184,6 +223,28 @@ public interface JsonObjectDao {
      */
     int insertObjectsAsTabulation(final List<Map<String, Object>> objects) throws SQLException;
 
+    /**
+     * 批量添加多条记录，返回每一行的结果；默认实现逐条调用 saveNewObject，遇到失败的行停止，
+     * 和 GeneralJsonObjectDao 一样，异常中没有执行的行结果为 0
+     *
+     * @param objects 待插入的对象
+     * @return 每一行的结果，和 Statement.executeBatch 的返回值一样
+     * @throws SQLException 部分失败时抛出 BatchUpdateException，getUpdateCounts 为每一行的结果
+     */
+    default int[] batchInsertObjects(final List<Map<String, Object>> objects) throws SQLException {
+        int[] results = new int[objects.size()];
+        for (int row = 0; row < results.length; row++) {
+            try {
+                results[row] = saveNewObject(objects.get(row));
+            } catch (SQLException e) {
+                results[row] = Statement.EXECUTE_FAILED;
+                throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(),
+                    results, e);
+            }
+        }
+        return results;
+    }
+
     /**
      * 批量删除
      *
@@ -6,10 +6,20 @@ import com.centit.support.database.utils.DatabaseAccess;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MySqlJsonObjectDao extends GeneralJsonObjectDao {
 
+    /**
+     * catalog.表名 -》 主键是否是表中唯一的唯一索引；DAO 通常每次调用都新建，所以检查结果缓存在类上，
+     * 只缓存查询成功的结果，表结构修改了唯一索引后需要重启应用
+     */
+    private static final Map<String, Boolean> PK_ONLY_UNIQUE_TABLES = new ConcurrentHashMap<>();
+
     public MySqlJsonObjectDao() {
 
     }
@@ -96,4 +106,73 @@ public class MySqlJsonObjectDao extends GeneralJsonObjectDao {
         return NumberBaseOpt.castObjectToLong(object);
     }
 
+    /**
+     * MySql 支持多行 values，一条预编译语句最多 65535 个参数
+     */
+    @Override
+    protected int maxRowsPerInsert(int columnCount) {
+        return 65535 / Math.max(columnCount, 1);
+    }
+
+    /**
+     * insert ... on duplicate key update；MySql 在任何唯一索引冲突时都会执行更新，
+     * 所以只有主键是表中唯一的唯一索引时才能使用，否则先查询再插入或者更新
+     */
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        if (!isPkOnlyUniqueKey()) {
+            return null;
+        }
+        StringBuilder sbUpsert = new StringBuilder("insert into ");
+        sbUpsert.append(getTableInfo().getTableName()).append(' ')
+            .append(buildInsertColumnsAndValues(insertFields))
+            .append(" on duplicate key update ");
+        if (updateFields.isEmpty()) {
+            // 没有需要更新的字段，主键赋值给自己，不改变数据
+            String pkColumn = getTableInfo().getPkFields().get(0).getColumnName();
+            sbUpsert.append(pkColumn).append(" = ").append(pkColumn);
+        } else {
+            sbUpsert.append(buildUpdateSetPiece(updateFields, null));
+        }
+        return sbUpsert.toString();
+    }
+
+    /**
+     * 通过 jdbc 的索引元数据检查表中是否只有主键（PRIMARY）一个唯一索引，结果按 catalog 和表名缓存；
+     * 只有确实查到了主键索引并且没有其他唯一索引时才返回 true，
+     * 查不到索引（比如表名大小写不一致）或者查询失败时不使用 upsert 语句
+     */
+    private boolean isPkOnlyUniqueKey() {
+        Connection conn = getConnect();
+        if (conn == null) {
+            return false;
+        }
+        String tableName = getTableInfo().getTableName();
+        try {
+            String catalog = conn.getCatalog();
+            String cacheKey = catalog + "." + tableName;
+            Boolean cached = PK_ONLY_UNIQUE_TABLES.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+            boolean hasPrimary = false;
+            boolean hasOtherUnique = false;
+            try (ResultSet rs = conn.getMetaData().getIndexInfo(catalog, null, tableName, true, false)) {
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    if ("PRIMARY".equalsIgnoreCase(indexName)) {
+                        hasPrimary = true;
+                    } else if (indexName != null) {
+                        hasOtherUnique = true;
+                    }
+                }
+            }
+            boolean onlyPk = hasPrimary && !hasOtherUnique;
+            PK_ONLY_UNIQUE_TABLES.put(cacheKey, onlyPk);
+            return onlyPk;
+        } catch (SQLException e) {
+            logger.warn("查询表" + tableName + "的唯一索引失败：" + e.getMessage());
+            return false;
+        }
+    }
 }
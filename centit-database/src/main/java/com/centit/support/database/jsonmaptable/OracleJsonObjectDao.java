@@ -1,12 +1,15 @@
 package com.centit.support.database.jsonmaptable;
 
 import com.centit.support.algorithm.NumberBaseOpt;
+import com.centit.support.database.metadata.TableField;
 import com.centit.support.database.metadata.TableInfo;
+import com.centit.support.database.utils.DBType;
 import com.centit.support.database.utils.DatabaseAccess;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 public class OracleJsonObjectDao extends GeneralJsonObjectDao {
 
@@ -35,4 +38,41 @@ public class OracleJsonObjectDao extends GeneralJsonObjectDao {
         return NumberBaseOpt.castObjectToLong(object);
     }
 
+    /**
+     * Oracle 不支持多行 values，用 insert all 插入多行；
+     * 达梦、人大金仓等数据库也使用这个类，只有确定是 Oracle 时才用 insert all
+     */
+    @Override
+    protected int maxRowsPerInsert(int columnCount) {
+        if (DBType.mapDBType(getConnect()) != DBType.Oracle) {
+            return 1;
+        }
+        return 65535 / Math.max(columnCount, 1);
+    }
+
+    /**
+     * insert all into table (c1, c2) values (?, ?) into table (c1, c2) values (?, ?) select 1 from dual
+     */
+    @Override
+    protected String buildMultiRowInsertSql(List<TableField> columns, int rowCount) {
+        String intoPiece = buildInsertSqlHead(getTableInfo(), columns).substring("insert ".length())
+            + " values " + buildInsertValuesPiece(columns.size());
+        StringBuilder sbInsert = new StringBuilder("insert all");
+        for (int i = 0; i < rowCount; i++) {
+            sbInsert.append(' ').append(intoPiece);
+        }
+        return sbInsert.append(" select 1 from dual").toString();
+    }
+
+    /**
+     * merge into ... using dual，达梦也支持；其他使用这个类的数据库先查询再插入或者更新
+     */
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        DBType dbType = DBType.mapDBType(getConnect());
+        if (dbType != DBType.Oracle && dbType != DBType.DM) {
+            return null;
+        }
+        return buildMergeSql(getTableInfo().getTableName() + " t", "dual", insertFields, updateFields);
+    }
 }
@@ -7,6 +7,7 @@ import com.centit.support.database.utils.DatabaseAccess;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 public class PostgreSqlJsonObjectDao extends GeneralJsonObjectDao {
 
@@ -35,5 +36,28 @@ public class PostgreSqlJsonObjectDao extends GeneralJsonObjectDao {
         return NumberBaseOpt.castObjectToLong(object);
     }
 
+    /**
+     * PostgreSql 支持多行 values，驱动限制一条语句最多 32767 个参数
+     */
+    @Override
+    protected int maxRowsPerInsert(int columnCount) {
+        return 32767 / Math.max(columnCount, 1);
+    }
 
+    /**
+     * insert ... on conflict ( pk ) do update，需要 PostgreSql 9.5 及以上版本
+     */
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        StringBuilder sbUpsert = new StringBuilder("insert into ");
+        sbUpsert.append(getTableInfo().getTableName()).append(' ')
+            .append(buildInsertColumnsAndValues(insertFields))
+            .append(" on conflict ( ").append(buildPkColumnsPiece()).append(" )");
+        if (updateFields.isEmpty()) {
+            sbUpsert.append(" do nothing");
+        } else {
+            sbUpsert.append(" do update set ").append(buildUpdateSetPiece(updateFields, null));
+        }
+        return sbUpsert.toString();
+    }
 }
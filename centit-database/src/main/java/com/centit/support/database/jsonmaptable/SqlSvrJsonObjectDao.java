@@ -5,6 +5,7 @@ import com.centit.support.database.metadata.TableInfo;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 public class SqlSvrJsonObjectDao extends GeneralJsonObjectDao {
 
@@ -39,4 +40,20 @@ public class SqlSvrJsonObjectDao extends GeneralJsonObjectDao {
         return getSimulateSequenceNextValue(sequenceName);
     }
 
+    /**
+     * SqlServer 支持多行 values，但是最多 1000 行，一条语句最多 2100 个参数
+     */
+    @Override
+    protected int maxRowsPerInsert(int columnCount) {
+        return Math.min(1000, 2000 / Math.max(columnCount, 1));
+    }
+
+    /**
+     * SqlServer 的 merge 需要加 holdlock 才能避免并发时主键冲突，并且必须以分号结束
+     */
+    @Override
+    protected String buildUpsertSql(List<String> insertFields, List<String> updateFields) {
+        return buildMergeSql(getTableInfo().getTableName() + " with (holdlock) as t", "(select 1 as one) as s",
+            insertFields, updateFields) + ";";
+    }
 }
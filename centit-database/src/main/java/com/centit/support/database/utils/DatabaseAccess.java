@@ -11,10 +11,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @SuppressWarnings("unused")
 public abstract class DatabaseAccess {
@@ -205,7 +207,7 @@ public abstract class DatabaseAccess {
         return doExecuteSql(conn, qap.getQuery(), qap.getParams());
     }
 
-    private static JSONObject innerFetchResultSetRowToJSONObject(ResultSet rs, int cc, String[] fieldNames)
+    static JSONObject innerFetchResultSetRowToJSONObject(ResultSet rs, int cc, String[] fieldNames)
         throws SQLException, IOException {
         JSONObject jo = new JSONObject();
         for (int i = 0; i < cc; i++) {
@@ -245,24 +247,34 @@ public abstract class DatabaseAccess {
         return null;
     }
 
-    public static JSONArray fetchResultSetToJSONArray(ResultSet rs, String[] fieldnames)
-        throws SQLException, IOException {
-        JSONArray ja = new JSONArray();
-        int cc = rs.getMetaData().getColumnCount();
+    /**
+     * 查询结果的字段名，先用 fieldnames 中非空的名称，其余的用查询结果的列名转换为驼峰式
+     */
+    static String[] mapResultSetFieldNames(ResultSetMetaData metaData, String[] fieldnames)
+        throws SQLException {
+        int cc = metaData.getColumnCount();
         String[] fieldNames = new String[cc];
         int asFn = 0;
         if (fieldnames != null) {
-            asFn = fieldnames.length;
+            asFn = Math.min(fieldnames.length, cc);
             for (int i = 0; i < asFn; i++) {
                 fieldNames[i] = StringUtils.isBlank(fieldnames[i]) ?
-                    mapColumnNameToField(rs.getMetaData().getColumnLabel(i + 1)) :
+                    mapColumnNameToField(metaData.getColumnLabel(i + 1)) :
                     fieldnames[i];
             }
         }
         for (int i = asFn; i < cc; i++) {
             fieldNames[i] = mapColumnNameToField(
-                rs.getMetaData().getColumnLabel(i + 1));
+                metaData.getColumnLabel(i + 1));
         }
+        return fieldNames;
+    }
+
+    public static JSONArray fetchResultSetToJSONArray(ResultSet rs, String[] fieldnames)
+        throws SQLException, IOException {
+        JSONArray ja = new JSONArray();
+        int cc = rs.getMetaData().getColumnCount();
+        String[] fieldNames = mapResultSetFieldNames(rs.getMetaData(), fieldnames);
         while (rs.next()) {
             ja.add(innerFetchResultSetRowToJSONObject(rs, cc, fieldNames));
         }
@@ -520,7 +532,7 @@ public abstract class DatabaseAccess {
         return datas;
     }
 
-    private static Object[] innerFetchResultSetRowToObjects(ResultSet rs, int col) throws SQLException, IOException {
+    static Object[] innerFetchResultSetRowToObjects(ResultSet rs, int col) throws SQLException, IOException {
         Object[] objs = new Object[col];
         for (int i = 1; i <= col; i++) {
             Object obj = rs.getObject(i);
@@ -674,6 +686,165 @@ public abstract class DatabaseAccess {
         return null;
     }
 
+    /* 下面是流式查询相关的语句，结果逐行读取，不会全部加载到内存中 */
+    /*----------------------------------------------------------------------------- */
+
+    /**
+     * 打开一个查询游标，游标必须关闭，建议用 try-with-resources
+     *
+     * @param conn      数据库连接
+     * @param sSql      sql语句
+     * @param values    参数
+     * @param fetchSize 每次从数据库中读取的行数，小于等于 0 时使用 QueryCursor.DEFAULT_FETCH_SIZE
+     * @return 查询游标
+     * @throws SQLException SQLException
+     */
+    public static QueryCursor openQueryCursor(Connection conn, String sSql, Object[] values, int fetchSize)
+        throws SQLException {
+        QueryLogUtils.printSql(logger, sSql, values);
+        return QueryCursor.open(conn, sSql, values, fetchSize);
+    }
+
+    public static QueryCursor openQueryCursor(Connection conn, String sSql, Object[] values)
+        throws SQLException {
+        return openQueryCursor(conn, sSql, values, QueryCursor.DEFAULT_FETCH_SIZE);
+    }
+
+    public static QueryCursor openQueryCursorByNamedSql(Connection conn, String sSql, Map<String, Object> values,
+                                                        int fetchSize) throws SQLException {
+        QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(new QueryAndNamedParams(sSql, values));
+        return openQueryCursor(conn, qap.getQuery(), qap.getParams(), fetchSize);
+    }
+
+    /**
+     * 执行查询，逐行回调，用于导出等大数据量的查询
+     * 回调中可以用同一个连接写数据；PostgreSql 下连接原来是 autoCommit 的，写入在扫描结束时一起提交
+     *
+     * @param conn       数据库连接
+     * @param sSql       sql语句
+     * @param values     参数
+     * @param fetchSize  每次从数据库中读取的行数
+     * @param rowHandler 每一行的处理函数
+     * @return 处理的行数
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     */
+    public static long scanObjectsBySql(Connection conn, String sSql, Object[] values, int fetchSize,
+                                        Consumer<Object[]> rowHandler) throws SQLException, IOException {
+        long rows = 0;
+        try (QueryCursor cursor = openQueryCursor(conn, sSql, values, fetchSize)) {
+            while (cursor.fetchNext()) {
+                rowHandler.accept(cursor.getRowObjects());
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    public static long scanObjectsByNamedSql(Connection conn, String sSql, Map<String, Object> values,
+                                             int fetchSize, Consumer<Object[]> rowHandler)
+        throws SQLException, IOException {
+        QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(new QueryAndNamedParams(sSql, values));
+        return scanObjectsBySql(conn, qap.getQuery(), qap.getParams(), fetchSize, rowHandler);
+    }
+
+    /**
+     * 执行查询，逐行转换为JSONObject回调，字段名规则和 findObjectsAsJSON 一样
+     *
+     * @param conn       数据库连接
+     * @param sSql       sql语句
+     * @param values     参数
+     * @param fieldnames 字段名称作为json中Map的key，为空时自动从sql语句中解析字段名
+     * @param fetchSize  每次从数据库中读取的行数
+     * @param rowHandler 每一行的处理函数
+     * @return 处理的行数
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     */
+    public static long scanObjectsAsJSON(Connection conn, String sSql, Object[] values, String[] fieldnames,
+                                         int fetchSize, Consumer<JSONObject> rowHandler)
+        throws SQLException, IOException {
+        String[] fns = fieldnames;
+        if (ArrayUtils.isEmpty(fns)) {
+            List<String> fields = QueryUtils.getSqlFiledNames(sSql);
+            fns = mapColumnsNameToFields(fields);
+        }
+        long rows = 0;
+        try (QueryCursor cursor = openQueryCursor(conn, sSql, values, fetchSize)) {
+            String[] fieldNames = cursor.mapFieldNames(fns);
+            while (cursor.fetchNext()) {
+                rowHandler.accept(cursor.getRowAsJSON(fieldNames));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    public static long scanObjectsByNamedSqlAsJSON(Connection conn, String sSql, Map<String, Object> values,
+                                                   String[] fieldnames, int fetchSize,
+                                                   Consumer<JSONObject> rowHandler)
+        throws SQLException, IOException {
+        QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(new QueryAndNamedParams(sSql, values));
+        String[] fns = fieldnames;
+        if (ArrayUtils.isEmpty(fns)) {
+            fns = mapColumnsNameToFields(QueryUtils.getSqlFiledNames(sSql));
+        }
+        return scanObjectsAsJSON(conn, qap.getQuery(), qap.getParams(), fns, fetchSize, rowHandler);
+    }
+
+    /**
+     * 执行查询，把结果作为 json 数组直接写到 writer 中，不生成中间的 JSONArray，
+     * 输出和 JSON.toJSONString(findObjectsAsJSON(...)) 一致
+     *
+     * @param conn       数据库连接
+     * @param sSql       sql语句
+     * @param values     参数
+     * @param fieldnames 字段名称作为json中Map的key，为空时自动从sql语句中解析字段名
+     * @param dateFormat 日期格式，为空时输出毫秒数
+     * @param writer     输出，写完后不关闭
+     * @return 写出的行数
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     */
+    public static long writeObjectsAsJSON(Connection conn, String sSql, Object[] values, String[] fieldnames,
+                                          String dateFormat, Writer writer) throws SQLException, IOException {
+        String[] fns = fieldnames;
+        if (ArrayUtils.isEmpty(fns)) {
+            fns = mapColumnsNameToFields(QueryUtils.getSqlFiledNames(sSql));
+        }
+        try (QueryCursor cursor = openQueryCursor(conn, sSql, values)) {
+            return ResultSetJSONWriter.writeResultSet(cursor.getResultSet(), fns, dateFormat, writer);
+        }
+    }
+
+    public static long writeObjectsAsJSON(Connection conn, String sSql, Object[] values, String[] fieldnames,
+                                          String dateFormat, OutputStream os) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        long rows = writeObjectsAsJSON(conn, sSql, values, fieldnames, dateFormat, writer);
+        writer.flush();
+        return rows;
+    }
+
+    public static long writeObjectsByNamedSqlAsJSON(Connection conn, String sSql, Map<String, Object> values,
+                                                    String[] fieldnames, String dateFormat, Writer writer)
+        throws SQLException, IOException {
+        QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(new QueryAndNamedParams(sSql, values));
+        String[] fns = fieldnames;
+        if (ArrayUtils.isEmpty(fns)) {
+            fns = mapColumnsNameToFields(QueryUtils.getSqlFiledNames(sSql));
+        }
+        return writeObjectsAsJSON(conn, qap.getQuery(), qap.getParams(), fns, dateFormat, writer);
+    }
+
+    public static long writeObjectsByNamedSqlAsJSON(Connection conn, String sSql, Map<String, Object> values,
+                                                    String[] fieldnames, String dateFormat, OutputStream os)
+        throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        long rows = writeObjectsByNamedSqlAsJSON(conn, sSql, values, fieldnames, dateFormat, writer);
+        writer.flush();
+        return rows;
+    }
+
     /* 下面是分页查询相关的语句 */
     /*----------------------------------------------------------------------------- */
     public static Object fetchScalarObject(List<Object[]> rsDatas) {
@@ -0,0 +1,153 @@
+package com.centit.support.database.utils;
+
+import com.centit.support.common.LruCachedMap;
+import com.centit.support.compiler.Lexer;
+
+import java.util.*;
+
+/**
+ * 解析好的命名参数（:变量名）sql 语句，可以在多个线程中反复绑定参数
+ * 解析的结果为参数之间的固定 sql 片段和参数名列表，绑定参数时只需要按顺序填充参数数组；
+ * 参数值为集合或者数组时展开为多个 ? ，这时才需要重新拼接 sql 语句
+ * <p>
+ * DAO 中的 sql 语句通常是固定的几百条，解析结果用 LRU 缓存起来，避免每次执行都用 Lexer 重新扫描
+ */
+public final class NamedParamSql {
+
+    private static final LruCachedMap<String, NamedParamSql> NAMED_SQL_CACHE =
+        new LruCachedMap<>(2048);
+
+    /**
+     * 参数之间的 sql 片段，比参数多一个
+     */
+    private final String[] segments;
+    private final String[] paramNames;
+    /**
+     * 所有参数都不是集合时对应的 ? 参数 sql 语句
+     */
+    private final String paramSql;
+
+    private NamedParamSql(String[] segments, String[] paramNames) {
+        this.segments = segments;
+        this.paramNames = paramNames;
+        StringBuilder sqlb = new StringBuilder(segments[0]);
+        for (int i = 0; i < paramNames.length; i++) {
+            sqlb.append('?').append(segments[i + 1]);
+        }
+        this.paramSql = sqlb.toString();
+    }
+
+    /**
+     * 解析命名参数 sql 语句，冒号后面的一个单词为参数名，字符串和注释中的冒号不是参数
+     *
+     * @param sql 命名参数 sql 语句
+     * @return 解析结果
+     */
+    public static NamedParamSql parse(String sql) {
+        List<String> segments = new ArrayList<>();
+        List<String> paramNames = new ArrayList<>();
+        Lexer lex = new Lexer(sql, Lexer.LANG_TYPE_SQL);
+        int prePos = 0;
+        while (lex.nextToken() != Lexer.TOKEN_EOF) {
+            if (lex.isTokenChar(':')) {
+                int curPos = lex.getCurrPos();
+                String segment = curPos - 1 > prePos ? sql.substring(prePos, curPos - 1) : "";
+                if (lex.nextToken() == Lexer.TOKEN_EOF)
+                    break;
+                segments.add(segment);
+                paramNames.add(lex.getTokenString());
+                prePos = lex.getCurrPos();
+            }
+        }
+        segments.add(sql.substring(prePos));
+        return new NamedParamSql(segments.toArray(new String[0]), paramNames.toArray(new String[0]));
+    }
+
+    /**
+     * 从缓存中获取解析结果，没有则解析后放入缓存
+     *
+     * @param sql 命名参数 sql 语句
+     * @return 解析结果
+     */
+    public static NamedParamSql parseWithCache(String sql) {
+        return NAMED_SQL_CACHE.get(sql, NamedParamSql::parse);
+    }
+
+    /**
+     * 解析结果缓存，可以用来查看命中率、调整容量
+     *
+     * @return 缓存
+     */
+    public static LruCachedMap<String, NamedParamSql> getNamedSqlCache() {
+        return NAMED_SQL_CACHE;
+    }
+
+    private static boolean isMultiValue(Object obj) {
+        return obj instanceof Collection || obj instanceof Object[];
+    }
+
+    /**
+     * 绑定参数，参数值为集合或者数组时展开为多个 ? ，用于 in 语句
+     *
+     * @param namedParams 命名参数
+     * @return ? 参数 sql 语句和参数数组
+     */
+    public QueryAndParams bind(Map<String, Object> namedParams) {
+        Object[] params = new Object[paramNames.length];
+        boolean hasMultiValue = false;
+        if (namedParams != null && !namedParams.isEmpty()) {
+            for (int i = 0; i < paramNames.length; i++) {
+                Object obj = namedParams.get(paramNames[i]);
+                params[i] = obj;
+                if (isMultiValue(obj)) {
+                    hasMultiValue = true;
+                }
+            }
+        }
+        if (!hasMultiValue) {
+            return new QueryAndParams(paramSql, params);
+        }
+
+        StringBuilder sqlb = new StringBuilder(paramSql.length() + 32);
+        List<Object> expandParams = new ArrayList<>(params.length + 10);
+        sqlb.append(segments[0]);
+        for (int i = 0; i < params.length; i++) {
+            Object obj = params[i];
+            if (obj instanceof Collection) {
+                appendMultiValue(sqlb, expandParams, (Collection<?>) obj);
+            } else if (obj instanceof Object[]) {
+                appendMultiValue(sqlb, expandParams, Arrays.asList((Object[]) obj));
+            } else {
+                expandParams.add(obj);
+                sqlb.append('?');
+            }
+            sqlb.append(segments[i + 1]);
+        }
+        return new QueryAndParams(sqlb.toString(), expandParams.toArray());
+    }
+
+    private static void appendMultiValue(StringBuilder sqlb, List<Object> params, Collection<?> values) {
+        int n = 0;
+        for (Object po : values) {
+            if (n > 0)
+                sqlb.append(',');
+            sqlb.append('?');
+            params.add(po);
+            n++;
+        }
+    }
+
+    /**
+     * @return 所有参数都不是集合时对应的 ? 参数 sql 语句
+     */
+    public String getParamSql() {
+        return paramSql;
+    }
+
+    /**
+     * @return 按照出现顺序排列的参数名，一个参数出现多次在列表中也会出现多次
+     */
+    public List<String> getParamNames() {
+        return Collections.unmodifiableList(Arrays.asList(paramNames));
+    }
+}
@@ -81,58 +81,16 @@ public class QueryAndParams {
         return new QueryAndParams(sqlb.toString(), params.toArray());
     }
 
+    /**
+     * 将命名参数 sql 语句转换为 ? 参数语句，集合和数组参数展开为多个 ? ；
+     * sql 语句的解析结果缓存在 NamedParamSql 中
+     *
+     * @param sql         命名参数 sql 语句
+     * @param namedParams 命名参数
+     * @return ? 参数 sql 语句和参数数组
+     */
     public static QueryAndParams createFromQueryAndNamedParams(String sql, Map<String, Object> namedParams) {
-
-        StringBuilder sqlb = new StringBuilder();
-        List<Object> params = new ArrayList<Object>(namedParams.size() + 5);
-        Lexer lex = new Lexer(sql, Lexer.LANG_TYPE_SQL);
-
-        int prePos = 0;
-        String aWord = lex.getAWord();
-        while (aWord != null && !"".equals(aWord)) {
-            if (":".equals(aWord)) {
-
-                int curPos = lex.getCurrPos();
-                if (curPos - 1 > prePos)
-                    sqlb.append(sql.substring(prePos, curPos - 1));
-
-                aWord = lex.getAWord();
-                if (aWord == null || "".equals(aWord))
-                    break;
-                Object obj = namedParams.get(aWord);
-                if (obj == null) {
-                    params.add(null);
-                    sqlb.append("?");
-                } else if (obj instanceof Collection) {
-                    int n = 0;
-                    for (Object po : (Collection<?>) obj) {
-                        if (n > 0)
-                            sqlb.append(",");
-                        sqlb.append("?");
-                        params.add(po);
-                        n++;
-                    }
-                } else if (obj instanceof Object[]) {
-                    int n = 0;
-                    for (Object po : (Object[]) obj) {
-                        if (n > 0)
-                            sqlb.append(",");
-                        sqlb.append("?");
-                        params.add(po);
-                        n++;
-                    }
-                } else {
-                    params.add(obj);
-                    sqlb.append("?");
-                }
-                prePos = lex.getCurrPos();
-            }
-
-            aWord = lex.getAWord();
-        }
-        sqlb.append(sql.substring(prePos));
-
-        return new QueryAndParams(sqlb.toString(), params.toArray());
+        return NamedParamSql.parseWithCache(sql).bind(namedParams);
     }
 
     public static QueryAndParams creepArrayParamForInQuery(QueryAndParams queryParam) {
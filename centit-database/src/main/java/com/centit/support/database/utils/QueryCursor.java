@@ -0,0 +1,240 @@
+package com.centit.support.database.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 查询游标，逐行读取查询结果，结果不会全部加载到内存中，用于导出等大数据量的查询
+ * 游标持有 Statement 和 ResultSet，必须关闭（建议用 try-with-resources），
+ * 关闭时释放 ResultSet 和 Statement，并恢复打开游标时修改的连接 autoCommit 设置
+ * <p>
+ * 不同数据库的驱动默认会把结果全部读到内存中，需要做不同的设置才能真正的分批读取：
+ * MySql 设置 fetchSize 为 Integer.MIN_VALUE 进入流式读取模式；
+ * PostgreSql 只有在事务中（autoCommit 为 false）才会使用服务端游标按 fetchSize 读取，
+ * 如果打开游标时连接是 autoCommit 的，游标会临时关闭 autoCommit，关闭游标时提交事务再恢复 autoCommit，
+ * 所以读取过程中用同一个连接写入的数据在游标关闭时提交，和 autoCommit 下的效果一致（只是提交的时机推迟了）；
+ * 其他数据库设置 fetchSize 即可
+ */
+public class QueryCursor implements Iterator<Object[]>, AutoCloseable {
+
+    protected static final Logger logger = LoggerFactory.getLogger(QueryCursor.class);
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final String sql;
+    private final Connection conn;
+    private final PreparedStatement stmt;
+    private final ResultSet rs;
+    private final int columnCount;
+    /**
+     * 打开游标时是否把连接的 autoCommit 从 true 改为了 false，关闭时需要提交并恢复
+     */
+    private final boolean resetAutoCommit;
+    /**
+     * 迭代器模式下预读的状态，null 表示还没有预读
+     */
+    private Boolean prefetched;
+    private boolean closed;
+
+    private QueryCursor(String sql, Connection conn, PreparedStatement stmt, ResultSet rs,
+                        boolean resetAutoCommit) throws SQLException {
+        this.sql = sql;
+        this.conn = conn;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.resetAutoCommit = resetAutoCommit;
+        this.columnCount = rs.getMetaData().getColumnCount();
+        this.prefetched = null;
+        this.closed = false;
+    }
+
+    /**
+     * 打开游标，执行查询
+     *
+     * @param conn      数据库连接
+     * @param sSql      sql语句
+     * @param values    参数
+     * @param fetchSize 每次从数据库中读取的行数，小于等于 0 时使用 DEFAULT_FETCH_SIZE
+     * @return 查询游标
+     * @throws SQLException SQLException
+     */
+    static QueryCursor open(Connection conn, String sSql, Object[] values, int fetchSize)
+        throws SQLException {
+        int fs = fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+        DBType dbType = DBType.mapDBType(conn);
+        boolean resetAutoCommit = false;
+        if ((dbType == DBType.PostgreSql || dbType == DBType.KingBase) && conn.getAutoCommit()) {
+            conn.setAutoCommit(false);
+            resetAutoCommit = true;
+        }
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(sSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(dbType == DBType.MySql ? Integer.MIN_VALUE : fs);
+            DatabaseAccess.setQueryStmtParameters(stmt, values);
+            ResultSet rs = stmt.executeQuery();
+            return new QueryCursor(sSql, conn, stmt, rs, resetAutoCommit);
+        } catch (SQLException e) {
+            if (stmt != null) {
+                closeQuietly(stmt);
+            }
+            if (resetAutoCommit) {
+                resetConnection(conn);
+            }
+            throw DatabaseAccess.createAccessException(sSql, e);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable res) {
+        try {
+            res.close();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private static void resetConnection(Connection conn) {
+        try {
+            // 调用者期望的是 autoCommit，游标期间在同一个连接上的写入不能丢，提交后再恢复 autoCommit
+            conn.commit();
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 移动到下一行，和 ResultSet.next 一样；不要和迭代器接口的 hasNext/next 混用
+     *
+     * @return 是否还有数据，没有数据时游标自动关闭
+     * @throws SQLException SQLException
+     */
+    public boolean fetchNext() throws SQLException {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (rs.next()) {
+                return true;
+            }
+        } catch (SQLException e) {
+            throw DatabaseAccess.createAccessException(sql, e);
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * @return 当前行的数据，大字段转换为字符串（Blob 为 base64 编码）
+     * @throws SQLException SQLException
+     * @throws IOException  读取大字段出错
+     */
+    public Object[] getRowObjects() throws SQLException, IOException {
+        return DatabaseAccess.innerFetchResultSetRowToObjects(rs, columnCount);
+    }
+
+    /**
+     * @param fieldNames 字段名，可以通过 mapFieldNames 获取
+     * @return 当前行的数据
+     * @throws SQLException SQLException
+     * @throws IOException  读取大字段出错
+     */
+    public JSONObject getRowAsJSON(String[] fieldNames) throws SQLException, IOException {
+        return DatabaseAccess.innerFetchResultSetRowToJSONObject(rs, columnCount, fieldNames);
+    }
+
+    /**
+     * 获取作为 json 中 key 的字段名，和 findObjectsAsJSON 的规则一样：
+     * 先用 fieldnames 中非空的名称，其余的用查询结果的列名转换为驼峰式
+     *
+     * @param fieldnames 对字段重命名，可以为null
+     * @return 字段名
+     * @throws SQLException SQLException
+     */
+    public String[] mapFieldNames(String[] fieldnames) throws SQLException {
+        return DatabaseAccess.mapResultSetFieldNames(rs.getMetaData(), fieldnames);
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return 底层的 ResultSet，由游标负责关闭
+     */
+    public ResultSet getResultSet() {
+        return rs;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (prefetched == null) {
+            try {
+                prefetched = fetchNext();
+            } catch (SQLException e) {
+                close();
+                throw new PersistenceException(sql, e);
+            }
+        }
+        return prefetched;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        prefetched = null;
+        try {
+            return getRowObjects();
+        } catch (SQLException e) {
+            close();
+            throw new PersistenceException(sql, e);
+        } catch (IOException e) {
+            close();
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * 把游标包装为流，流关闭时关闭游标，所以流也必须关闭（建议用 try-with-resources）
+     *
+     * @return 逐行读取的流
+     */
+    public Stream<Object[]> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    /**
+     * 释放 ResultSet 和 Statement，如果打开时修改了 autoCommit 则提交事务并恢复 autoCommit；可以重复调用
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        prefetched = Boolean.FALSE;
+        closeQuietly(rs);
+        closeQuietly(stmt);
+        if (resetAutoCommit) {
+            resetConnection(conn);
+        }
+    }
+}
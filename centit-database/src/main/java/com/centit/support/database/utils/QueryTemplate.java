@@ -0,0 +1,474 @@
+package com.centit.support.database.utils;
+
+import com.centit.support.algorithm.BooleanBaseOpt;
+import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.common.LeftRightPair;
+import com.centit.support.common.LruCachedMap;
+import com.centit.support.compiler.CompiledFormula;
+import com.centit.support.compiler.Lexer;
+import com.centit.support.compiler.VariableFormula;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+import java.util.*;
+
+/**
+ * 预编译的查询语句模板，模板的写法参见 QueryUtils.translateQuery
+ * 编译时将模板拆分为固定的 sql 片段、{表名:别名} 外部过滤条件占位符 和 [条件|语句] 可选语句，
+ * 可选语句中的条件表达式编译为 CompiledFormula ，参数的预处理拆分为预处理链；
+ * 翻译时只需要查找参数、计算条件、拼接字符串，不再用 Lexer 扫描模板
+ * <p>
+ * 编译结果不可变，可以在多个线程中共用
+ */
+public final class QueryTemplate {
+
+    private static final LruCachedMap<String, QueryTemplate> QUERY_TEMPLATE_CACHE =
+        new LruCachedMap<>(1024);
+
+    private final String queryStatement;
+    private final TemplatePart[] parts;
+
+    private QueryTemplate(String queryStatement, TemplatePart[] parts) {
+        this.queryStatement = queryStatement;
+        this.parts = parts;
+    }
+
+    /**
+     * 编译查询语句模板
+     *
+     * @param queryStatement 查询语句模板
+     * @return 编译后的模板
+     */
+    public static QueryTemplate compile(String queryStatement) {
+        List<TemplatePart> parts = new ArrayList<>();
+        Lexer varMorp = new Lexer(queryStatement, Lexer.LANG_TYPE_SQL);
+        int prePos = 0;
+        while (varMorp.nextToken() != Lexer.TOKEN_EOF) {
+            if (varMorp.isTokenChar('{')) {
+                int curPos = varMorp.getCurrPos();
+                if (curPos - 1 > prePos)
+                    parts.add(new FixedPart(queryStatement.substring(prePos, curPos - 1)));
+                varMorp.seekToRightBrace();
+                prePos = varMorp.getCurrPos();
+                parts.add(new FilterPart(parseTableAlias(
+                    queryStatement.substring(curPos, prePos - 1).trim())));
+            } else if (varMorp.isTokenChar('[')) {
+                int curPos = varMorp.getCurrPos();
+                if (curPos - 1 > prePos)
+                    parts.add(new FixedPart(queryStatement.substring(prePos, curPos - 1)));
+                varMorp.seekToRightSquareBracket();
+                prePos = varMorp.getCurrPos();
+                TemplatePart piece = compilePiece(queryStatement.substring(curPos, prePos - 1).trim());
+                if (piece != null)
+                    parts.add(piece);
+            }
+        }
+        parts.add(new FixedPart(queryStatement.substring(prePos)));
+        return new QueryTemplate(queryStatement, mergeFixedParts(parts));
+    }
+
+    /**
+     * 从缓存中获取编译好的模板，没有则编译后放入缓存
+     *
+     * @param queryStatement 查询语句模板
+     * @return 编译后的模板
+     */
+    public static QueryTemplate compileWithCache(String queryStatement) {
+        return QUERY_TEMPLATE_CACHE.get(queryStatement, QueryTemplate::compile);
+    }
+
+    /**
+     * 编译结果缓存，可以用来查看命中率、调整容量
+     *
+     * @return 缓存
+     */
+    public static LruCachedMap<String, QueryTemplate> getTemplateCache() {
+        return QUERY_TEMPLATE_CACHE;
+    }
+
+    public String getQueryStatement() {
+        return queryStatement;
+    }
+
+    /**
+     * 和 QueryUtils.translateQuery(String, Collection, boolean, IFilterTranslater) 一样
+     *
+     * @param filters    外部过滤条件，可以为null
+     * @param isUnion    同一个占位符中多个过滤条件的拼接方式，true用Or拼接，false用and拼接
+     * @param translater 参数和字段的翻译
+     * @return 转换后的查询语句和这个语句中使用的查询参数
+     */
+    public QueryAndNamedParams translate(Collection<String> filters, boolean isUnion,
+                                         QueryUtils.IFilterTranslater translater) {
+        QueryAndNamedParams hqlAndParams = new QueryAndNamedParams();
+        StringBuilder hqlBuilder = new StringBuilder(queryStatement.length() + 64);
+        for (TemplatePart part : parts) {
+            part.translate(hqlBuilder, hqlAndParams, filters, isUnion, translater);
+        }
+        hqlAndParams.setQuery(hqlBuilder.toString());
+        return hqlAndParams;
+    }
+
+    public QueryAndNamedParams translate(Collection<String> filters,
+                                         Map<String, Object> paramsMap, boolean isUnion) {
+        return translate(filters, isUnion, new QueryUtils.SimpleFilterTranslater(paramsMap));
+    }
+
+    public QueryAndNamedParams translate(Map<String, Object> paramsMap) {
+        return translate(null, false, new QueryUtils.SimpleFilterTranslater(paramsMap));
+    }
+
+    /**
+     * 分析表别名， 格式为 TableNameOrClass:alias,TableNameOrClass:alias,.....
+     */
+    private static Map<String, String> parseTableAlias(String tablesDesc) {
+        Map<String, String> tableMap = new HashMap<>();
+        for (String tableDesc : tablesDesc.split(",")) {
+            Lexer tableLexer = new Lexer(tableDesc);
+            String tableName = tableLexer.getAWord();
+            String aliasName = tableLexer.getAWord();
+            if (":".equals(aliasName)) {
+                aliasName = tableLexer.getAWord();
+            }
+            tableMap.put(tableName, aliasName);
+        }
+        return tableMap;
+    }
+
+    private static TemplatePart[] mergeFixedParts(List<TemplatePart> parts) {
+        List<TemplatePart> merged = new ArrayList<>(parts.size());
+        StringBuilder text = new StringBuilder();
+        for (TemplatePart part : parts) {
+            if (part instanceof FixedPart) {
+                text.append(((FixedPart) part).text);
+            } else {
+                if (text.length() > 0) {
+                    merged.add(new FixedPart(text.toString()));
+                    text.setLength(0);
+                }
+                merged.add(part);
+            }
+        }
+        if (text.length() > 0) {
+            merged.add(new FixedPart(text.toString()));
+        }
+        return merged.toArray(new TemplatePart[0]);
+    }
+
+    /**
+     * 编译 [] 中的可选语句，规则和 QueryUtils.translateQueryPiece 一致；
+     * 语句为空等一定不输出的情况返回 null
+     */
+    private static TemplatePart compilePiece(String queryPiece) {
+        try {
+            Lexer varMorp = new Lexer(queryPiece, Lexer.LANG_TYPE_SQL);
+            String aWord = varMorp.getARawWord();
+            if (aWord == null || aWord.length() == 0)
+                return null;
+            if ("(".equals(aWord)) {
+                int curPos = varMorp.getCurrPos();
+                if (!varMorp.seekToRightBracket())
+                    return null;
+                int prePos = varMorp.getCurrPos();
+                String condition = queryPiece.substring(curPos, prePos - 1);
+                String paramsString = null;
+                aWord = varMorp.getARawWord();
+                if ("(".equals(aWord)) {
+                    curPos = varMorp.getCurrPos();
+                    if (!varMorp.seekToRightBracket())
+                        return null;
+                    prePos = varMorp.getCurrPos();
+                    if (prePos - 1 > curPos)
+                        paramsString = queryPiece.substring(curPos, prePos - 1);
+                    aWord = varMorp.getARawWord();
+                }
+                if ("|".equals(aWord)) {
+                    prePos = varMorp.getCurrPos();
+                }
+                String sql = queryPiece.substring(prePos);
+                if (StringUtils.isBlank(sql))
+                    return null;
+                OptionalPiece piece = new OptionalPiece(VariableFormula.compileWithCache(condition), sql,
+                    paramsString == null ? new ParamSpec[0] : compileParams(paramsString, false));
+                return piece.prepareReplace() ? piece : new RawPiece(queryPiece);
+            } else { // 简易写法  ([:]params)* | queryPiece
+                if (!varMorp.seekTo("|", false))
+                    return null;
+                int curPos = varMorp.getCurrPos();
+                String sql = queryPiece.substring(curPos);
+                if (StringUtils.isBlank(sql))
+                    return null;
+                String paramsString = queryPiece.substring(0, curPos - 1);
+                if (StringUtils.isBlank(paramsString))
+                    return null;
+                OptionalPiece piece = new OptionalPiece(null, sql, compileParams(paramsString, true));
+                return piece.prepareReplace() ? piece : new RawPiece(queryPiece);
+            }
+        } catch (RuntimeException e) {
+            // 参数格式错误等情况，交给 translateQueryPiece 在翻译时处理
+            return new RawPiece(queryPiece);
+        }
+    }
+
+    private static ParamSpec[] compileParams(String paramsString, boolean simpleForm) {
+        List<ParamSpec> specs = new ArrayList<>();
+        for (String param : QueryUtils.splitParamString(paramsString)) {
+            if (StringUtils.isNotBlank(param)) {
+                specs.add(new ParamSpec(QueryUtils.parseParameter(param), simpleForm));
+            }
+        }
+        return specs.toArray(new ParamSpec[0]);
+    }
+
+    /**
+     * 查找 sql 中第一个 :paramAlias 的位置，规则和 QueryUtils.replaceParamAsSqlString 一致
+     *
+     * @return 开始和结束位置，没有找到返回 null
+     */
+    private static int[] findParamRange(String sql, String paramAlias) {
+        Lexer varMorp = new Lexer(sql, Lexer.LANG_TYPE_SQL);
+        String sWord = varMorp.getAWord();
+        while (sWord != null && !sWord.equals("")) {
+            if (":".equals(sWord)) {
+                int prePos = varMorp.getCurrPos();
+                sWord = varMorp.getAWord();
+                if (paramAlias.equals(sWord)) {
+                    return new int[]{prePos - 1, Math.min(varMorp.getCurrPos(), sql.length())};
+                }
+            }
+            sWord = varMorp.getAWord();
+        }
+        return null;
+    }
+
+    private interface TemplatePart {
+        void translate(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                       Collection<String> filters, boolean isUnion, QueryUtils.IFilterTranslater translater);
+    }
+
+    private static final class FixedPart implements TemplatePart {
+        private final String text;
+
+        FixedPart(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void translate(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                              Collection<String> filters, boolean isUnion, QueryUtils.IFilterTranslater translater) {
+            hqlBuilder.append(text);
+        }
+    }
+
+    /**
+     * {表名:别名,...} 外部过滤条件占位符
+     */
+    private static final class FilterPart implements TemplatePart {
+        private final Map<String, String> tableMap;
+
+        FilterPart(Map<String, String> tableMap) {
+            this.tableMap = tableMap;
+        }
+
+        @Override
+        public void translate(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                              Collection<String> filters, boolean isUnion, QueryUtils.IFilterTranslater translater) {
+            // translater 可能会保留这个对象，每次复制一份
+            translater.setTableAlias(new HashMap<>(tableMap));
+            QueryAndNamedParams hqlPiece = QueryUtils.translateQueryFilter(filters, translater, isUnion);
+            if (hqlPiece != null && !StringBaseOpt.isNvl(hqlPiece.getQuery())) {
+                hqlBuilder.append(" and ").append(hqlPiece.getQuery());
+                hqlAndParams.addAllParams(hqlPiece.getParams());
+            }
+        }
+    }
+
+    private static void appendPiece(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                                    QueryAndNamedParams hqlPiece) {
+        if (hqlPiece != null && !StringBaseOpt.isNvl(hqlPiece.getQuery())) {
+            hqlBuilder.append(hqlPiece.getQuery());
+            hqlAndParams.addAllParams(hqlPiece.getParams());
+        }
+    }
+
+    /**
+     * 不能预编译的 [] 语句（比如同一个参数别名需要多次替换），翻译时解析
+     */
+    private static final class RawPiece implements TemplatePart {
+        private final String queryPiece;
+
+        RawPiece(String queryPiece) {
+            this.queryPiece = queryPiece;
+        }
+
+        @Override
+        public void translate(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                              Collection<String> filters, boolean isUnion, QueryUtils.IFilterTranslater translater) {
+            appendPiece(hqlBuilder, hqlAndParams, QueryUtils.translateQueryPiece(queryPiece, translater));
+        }
+    }
+
+    /**
+     * 参数 paramName:(pretreat,pretreat2)paramAlias
+     */
+    private static final class ParamSpec {
+        private final String paramName;
+        private final String paramAlias;
+        private final String[] pretreats;
+        private final boolean creepForIn;
+        private final boolean inPlace;
+        /**
+         * 简易写法中只有写了别名的参数才添加到查询参数中，完整写法中都添加
+         */
+        private final boolean addParams;
+
+        ParamSpec(ImmutableTriple<String, String, String> paramMeta, boolean simpleForm) {
+            this.paramName = StringUtils.isBlank(paramMeta.left) ? paramMeta.middle : paramMeta.left;
+            if (simpleForm) {
+                this.addParams = !StringUtils.isBlank(paramMeta.middle);
+                this.paramAlias = addParams ? paramMeta.middle : paramMeta.left;
+            } else {
+                this.addParams = true;
+                this.paramAlias = StringUtils.isBlank(paramMeta.middle) ? paramMeta.left : paramMeta.middle;
+            }
+            String pretreatment = paramMeta.right;
+            if (StringUtils.isBlank(pretreatment)) {
+                this.pretreats = new String[0];
+            } else if (pretreatment.indexOf(',') < 0) {
+                this.pretreats = new String[]{pretreatment};
+            } else {
+                this.pretreats = pretreatment.split(",");
+            }
+            this.creepForIn = QueryUtils.hasPretreatment(pretreatment, QueryUtils.SQL_PRETREAT_CREEPFORIN);
+            this.inPlace = QueryUtils.hasPretreatment(pretreatment, QueryUtils.SQL_PRETREAT_INPLACE);
+        }
+
+        Object pretreat(Object paramValue) {
+            Object paramObj = paramValue;
+            for (String p : pretreats) {
+                paramObj = QueryUtils.onePretreatParameter(p, paramObj);
+            }
+            return paramObj;
+        }
+
+        boolean needReplace() {
+            return creepForIn || inPlace;
+        }
+    }
+
+    /**
+     * [(条件)(参数)| 语句] 和 [参数| 语句] 可选语句，条件为 null 的是简易写法
+     */
+    private static final class OptionalPiece implements TemplatePart {
+        private final CompiledFormula condition;
+        private final String sql;
+        private final ParamSpec[] params;
+        /**
+         * 需要替换为 in 语句或者直接嵌入的参数在 sql 中的位置，按位置排序
+         */
+        private int[] replaceParams;
+        private int[][] replaceRanges;
+
+        OptionalPiece(CompiledFormula condition, String sql, ParamSpec[] params) {
+            this.condition = condition;
+            this.sql = sql;
+            this.params = params;
+        }
+
+        /**
+         * 计算需要替换的参数位置
+         *
+         * @return 同一个参数需要替换多次（别名重复，或者同时有 CREEPFORIN 和 INPLACE 预处理）时返回 false ，
+         * 这时只能在翻译时替换
+         */
+        boolean prepareReplace() {
+            List<Integer> indexes = new ArrayList<>();
+            List<int[]> ranges = new ArrayList<>();
+            Set<String> aliases = new HashSet<>();
+            for (int i = 0; i < params.length; i++) {
+                ParamSpec spec = params[i];
+                if (!spec.needReplace() || (condition == null && !spec.addParams))
+                    continue;
+                if (spec.creepForIn && spec.inPlace)
+                    return false;
+                if (!aliases.add(spec.paramAlias))
+                    return false;
+                int[] range = findParamRange(sql, spec.paramAlias);
+                if (range != null) {
+                    int pos = 0;
+                    while (pos < ranges.size() && ranges.get(pos)[0] < range[0])
+                        pos++;
+                    indexes.add(pos, i);
+                    ranges.add(pos, range);
+                }
+            }
+            replaceParams = new int[indexes.size()];
+            for (int i = 0; i < replaceParams.length; i++) {
+                replaceParams[i] = indexes.get(i);
+            }
+            replaceRanges = ranges.toArray(new int[0][]);
+            return true;
+        }
+
+        private String replaceSql(String[] replaceTexts) {
+            StringBuilder sqlb = new StringBuilder(sql.length() + 32);
+            int prePos = 0;
+            for (int i = 0; i < replaceParams.length; i++) {
+                String text = replaceTexts[replaceParams[i]];
+                if (text != null) {
+                    sqlb.append(sql, prePos, replaceRanges[i][0]).append(text);
+                    prePos = replaceRanges[i][1];
+                }
+            }
+            sqlb.append(sql, prePos, sql.length());
+            return sqlb.toString();
+        }
+
+        private QueryAndNamedParams translatePiece(QueryUtils.IFilterTranslater translater) {
+            if (condition != null &&
+                !BooleanBaseOpt.castObjectToBoolean(condition.evaluate(translater), false))
+                return null;
+
+            QueryAndNamedParams hqlAndParams = new QueryAndNamedParams();
+            String[] replaceTexts = null;
+            for (int i = 0; i < params.length; i++) {
+                ParamSpec spec = params[i];
+                LeftRightPair<String, Object> paramPair = translater.translateParam(spec.paramName);
+                if (paramPair == null || paramPair.getRight() == null) {
+                    // 简易写法中参数都必须有值
+                    if (condition == null)
+                        return null;
+                    continue;
+                }
+                if (!spec.addParams)
+                    continue;
+                Object realParam = spec.pretreat(paramPair.getRight());
+                String replaceText = null;
+                if (spec.creepForIn) {
+                    QueryAndNamedParams inSt = QueryUtils.buildInStatement(spec.paramAlias, realParam);
+                    hqlAndParams.addAllParams(inSt.getParams());
+                    replaceText = inSt.getQuery();
+                }
+                if (spec.inPlace && (condition == null || !spec.creepForIn)) {
+                    replaceText = QueryUtils.cleanSqlStatement(StringBaseOpt.objectToString(realParam));
+                } else if (condition == null || !spec.creepForIn) {
+                    // 简易写法中 in 语句参数也按原名添加
+                    hqlAndParams.addParam(spec.paramAlias, realParam);
+                }
+                if (replaceText != null) {
+                    if (replaceTexts == null)
+                        replaceTexts = new String[params.length];
+                    replaceTexts[i] = replaceText;
+                }
+            }
+            hqlAndParams.setQuery(replaceTexts == null ? sql : replaceSql(replaceTexts));
+            return hqlAndParams;
+        }
+
+        @Override
+        public void translate(StringBuilder hqlBuilder, QueryAndNamedParams hqlAndParams,
+                              Collection<String> filters, boolean isUnion, QueryUtils.IFilterTranslater translater) {
+            appendPiece(hqlBuilder, hqlAndParams, translatePiece(translater));
+        }
+    }
+}
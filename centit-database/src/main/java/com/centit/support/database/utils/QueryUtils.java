@@ -708,31 +708,8 @@ public abstract class QueryUtils {
      * Key 为转化成？的sql语句，value为对应的命名变量名，如果一个变量出现多次在list中也会出现多次
      */
     public static LeftRightPair<String, List<String>> transNamedParamSqlToParamSql(String sql) {
-        StringBuilder sqlb = new StringBuilder();
-        List<String> params = new ArrayList<>();
-        Lexer lex = new Lexer(sql, Lexer.LANG_TYPE_SQL);
-        int prePos = 0;
-        String aWord = lex.getAWord();
-        while (aWord != null && !"".equals(aWord)) {
-            if (":".equals(aWord)) {
-
-                int curPos = lex.getCurrPos();
-                if (curPos - 1 > prePos)
-                    sqlb.append(sql.substring(prePos, curPos - 1));
-
-                aWord = lex.getAWord();
-                if (aWord == null || "".equals(aWord))
-                    break;
-                params.add(aWord);
-                sqlb.append("?");
-                prePos = lex.getCurrPos();
-            }
-
-            aWord = lex.getAWord();
-        }
-        sqlb.append(sql.substring(prePos));
-        //params.add(sqlb.toString());
-        return new LeftRightPair<>(sqlb.toString(), params);
+        NamedParamSql namedSql = NamedParamSql.parseWithCache(sql);
+        return new LeftRightPair<>(namedSql.getParamSql(), new ArrayList<>(namedSql.getParamNames()));
     }
 
     /**
@@ -742,19 +719,7 @@ public abstract class QueryUtils {
      * @return 按照参数出现顺序排列的 list
      */
     public static List<String> getSqlNamedParameters(String sql) {
-        List<String> params = new ArrayList<String>();
-        Lexer lex = new Lexer(sql, Lexer.LANG_TYPE_SQL);
-        String aWord = lex.getAWord();
-        while (aWord != null && !"".equals(aWord)) {
-            if (":".equals(aWord)) {
-                aWord = lex.getAWord();
-                if (aWord == null || "".equals(aWord))
-                    break;
-                params.add(aWord);
-            }
-            aWord = lex.getAWord();
-        }
-        return params;
+        return new ArrayList<>(NamedParamSql.parseWithCache(sql).getParamNames());
     }
 
     /**
@@ -886,15 +851,13 @@ public abstract class QueryUtils {
         Set<String> params = new HashSet<String>();
         Lexer lex = new Lexer(sql, Lexer.LANG_TYPE_SQL);
 
-        String aWord = lex.getAWord();
-        while (aWord != null && !"".equals(aWord)) {
-            if (":".equals(aWord)) {
-                aWord = lex.getAWord();
-                if (aWord == null || "".equals(aWord))
+        while (lex.nextToken() != Lexer.TOKEN_EOF) {
+            if (lex.isTokenChar(':')) {
+                if (lex.nextToken() == Lexer.TOKEN_EOF)
                     return params;
-                params.add(aWord);
+                params.add(lex.getTokenString());
 
-            } else if (aWord.equals("[")) {
+            } else if (lex.isTokenChar('[')) {
                 int beginPos = lex.getCurrPos();
 
                 lex.seekToRightSquareBracket();
@@ -905,7 +868,6 @@ public abstract class QueryUtils {
                 if (subParams != null && subParams.size() > 0)
                     params.addAll(subParams);
             }
-            aWord = lex.getAWord();
         }
         return params;
     }
@@ -1787,73 +1749,21 @@ public abstract class QueryUtils {
         return hqlAndParams;
     }
 
+    /**
+     * 预编译查询语句模板，模板的写法参见 translateQuery；
+     * 编译结果可以反复使用，翻译时不再扫描模板
+     *
+     * @param queryStatement 查询语句模板
+     * @return 编译后的模板
+     */
+    public static QueryTemplate compileQueryTemplate(String queryStatement) {
+        return QueryTemplate.compile(queryStatement);
+    }
+
     public static QueryAndNamedParams translateQuery(
         String queryStatement, Collection<String> filters,
         boolean isUnion, IFilterTranslater translater) {
-
-        QueryAndNamedParams hqlAndParams = new QueryAndNamedParams();
-        Lexer varMorp = new Lexer(queryStatement, Lexer.LANG_TYPE_SQL);
-        StringBuilder hqlBuilder = new StringBuilder();
-        String sWord = varMorp.getAWord();
-        int prePos = 0;
-        while (sWord != null && !sWord.equals("")) {
-            if (sWord.equals("{")) {
-                int curPos = varMorp.getCurrPos();
-                if (curPos - 1 > prePos)
-                    hqlBuilder.append(queryStatement.substring(prePos, curPos - 1));
-                varMorp.seekToRightBrace();//.seekTo('}');
-                prePos = varMorp.getCurrPos();
-                //分析表别名， 格式为 TableNameOrClass:alias,TableNameOrClass:alias,.....
-                String tablesDesc = queryStatement.substring(curPos, prePos - 1).trim();
-                String[] tables = tablesDesc.split(",");
-                Map<String, String> tableMap = new HashMap<>();
-                for (String tableDesc : tables) {
-                    Lexer tableLexer = new Lexer(tableDesc);
-                    String tableName = tableLexer.getAWord();
-                    String aliasName = tableLexer.getAWord();
-                    if (":".equals(aliasName)) {
-                        aliasName = tableLexer.getAWord();
-                    }
-                    tableMap.put(tableName, aliasName);
-                    /*
-                    int n= tableDesc.indexOf(':');
-                    if(n<1){
-                        tableMap.put(tableDesc, "");
-                    }else{
-                        tableMap.put(tableDesc.substring(0,n), tableDesc.substring(n+1));
-                    }*/
-                }
-                translater.setTableAlias(tableMap);
-                QueryAndNamedParams hqlPiece =
-                    translateQueryFilter(filters,
-                        translater, isUnion);
-
-                if (hqlPiece != null && !StringBaseOpt.isNvl(hqlPiece.getQuery())) {
-                    hqlBuilder.append(" and ").append(hqlPiece.getQuery());
-                    hqlAndParams.addAllParams(hqlPiece.getParams());
-                }
-            } else if (sWord.equals("[")) {
-                int curPos = varMorp.getCurrPos();
-                if (curPos - 1 > prePos)
-                    hqlBuilder.append(queryStatement.substring(prePos, curPos - 1));
-                varMorp.seekToRightSquareBracket();
-                prePos = varMorp.getCurrPos();
-                //分析表别名， 格式为 TableNameOrClass:alias,TableNameOrClass:alias,.....
-                String queryPiece = queryStatement.substring(curPos, prePos - 1).trim();
-
-                QueryAndNamedParams hqlPiece =
-                    translateQueryPiece(queryPiece, translater);
-
-                if (hqlPiece != null && !StringBaseOpt.isNvl(hqlPiece.getQuery())) {
-                    hqlBuilder.append(hqlPiece.getQuery());
-                    hqlAndParams.addAllParams(hqlPiece.getParams());
-                }
-            }
-            sWord = varMorp.getAWord();
-        }
-        hqlBuilder.append(queryStatement.substring(prePos));
-        hqlAndParams.setQuery(hqlBuilder.toString());
-        return hqlAndParams;
+        return QueryTemplate.compileWithCache(queryStatement).translate(filters, isUnion, translater);
     }
 
     /*
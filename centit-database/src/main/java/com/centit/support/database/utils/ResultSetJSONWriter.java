@@ -0,0 +1,329 @@
+package com.centit.support.database.utils;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+/**
+ * 把查询结果直接序列化为 json 写到 Writer 中，不生成中间的 JSONArray 和 JSONObject
+ * 输出的格式和 JSON.toJSONString(DatabaseAccess.fetchResultSetToJSONArray(rs, fieldnames)) 一致：
+ * 字段名规则相同，空值字段不输出，Clob 输出为字符串，Blob 和二进制字段输出为 base64 编码的字符串，
+ * 日期默认输出为毫秒数，也可以指定日期格式；
+ * 字段名在写第一行之前转换好，大字段用固定的缓冲区边读边写，不会整个读到内存中
+ */
+public final class ResultSetJSONWriter {
+
+    private static final char[] BASE64_CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    /**
+     * 3 的倍数，这样除了最后一块其他块编码时不需要补齐
+     */
+    private static final int BLOB_BUFFER_SIZE = 3 * 1024;
+
+    private final Writer out;
+    private final FastDateFormat dateFormat;
+    private final char[] charBuffer;
+    private byte[] byteBuffer;
+    private final StringBuilder dateBuffer;
+
+    private ResultSetJSONWriter(Writer out, String dateFormat) {
+        this.out = out;
+        this.dateFormat = StringUtils.isBlank(dateFormat) ? null : FastDateFormat.getInstance(dateFormat);
+        this.charBuffer = new char[4096];
+        this.byteBuffer = null;
+        this.dateBuffer = new StringBuilder(32);
+    }
+
+    /**
+     * 把结果集中剩余的行作为 json 数组写到 writer 中
+     *
+     * @param rs         结果集
+     * @param fieldnames 字段名称作为json中Map的key，为空的字段用列名转换为驼峰式
+     * @param dateFormat 日期格式，为空时输出毫秒数
+     * @param writer     输出，写完后不关闭，也不 flush
+     * @return 写出的行数
+     * @throws SQLException SQLException
+     * @throws IOException  IOException
+     */
+    public static long writeResultSet(ResultSet rs, String[] fieldnames, String dateFormat, Writer writer)
+        throws SQLException, IOException {
+        return new ResultSetJSONWriter(writer, dateFormat).writeRows(rs, fieldnames);
+    }
+
+    public static long writeResultSet(ResultSet rs, String[] fieldnames, Writer writer)
+        throws SQLException, IOException {
+        return writeResultSet(rs, fieldnames, null, writer);
+    }
+
+    /**
+     * 把结果集中剩余的行作为 json 数组按 UTF-8 编码写到输出流中，写完后 flush 但不关闭输出流
+     */
+    public static long writeResultSet(ResultSet rs, String[] fieldnames, String dateFormat, OutputStream os)
+        throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        long rows = writeResultSet(rs, fieldnames, dateFormat, writer);
+        writer.flush();
+        return rows;
+    }
+
+    private long writeRows(ResultSet rs, String[] fieldnames) throws SQLException, IOException {
+        String[] fieldNames = DatabaseAccess.mapResultSetFieldNames(rs.getMetaData(), fieldnames);
+        int cc = fieldNames.length;
+        // 预先生成 "fieldName": ，每行直接输出
+        char[][] keys = new char[cc][];
+        for (int i = 0; i < cc; i++) {
+            StringBuilder sb = new StringBuilder(fieldNames[i].length() + 4);
+            sb.append('"');
+            appendEscaped(sb, fieldNames[i]);
+            sb.append("\":");
+            keys[i] = sb.toString().toCharArray();
+        }
+
+        long rows = 0;
+        out.write('[');
+        while (rs.next()) {
+            if (rows > 0) {
+                out.write(',');
+            }
+            out.write('{');
+            boolean first = true;
+            for (int i = 0; i < cc; i++) {
+                Object obj = rs.getObject(i + 1);
+                if (obj == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write(keys[i]);
+                writeValue(obj);
+            }
+            out.write('}');
+            rows++;
+        }
+        out.write(']');
+        return rows;
+    }
+
+    private void writeValue(Object obj) throws SQLException, IOException {
+        if (obj instanceof String) {
+            writeString((String) obj);
+        } else if (obj instanceof Double || obj instanceof Float) {
+            writeFloat(((Number) obj).doubleValue(), obj.toString());
+        } else if (obj instanceof Number) {
+            out.write(obj.toString());
+        } else if (obj instanceof Boolean) {
+            out.write(((Boolean) obj) ? "true" : "false");
+        } else if (obj instanceof java.util.Date) {
+            writeDate((java.util.Date) obj);
+        } else if (obj instanceof Clob) {
+            writeClob((Clob) obj);
+        } else if (obj instanceof Blob) {
+            writeBlob((Blob) obj);
+        } else if (obj instanceof byte[]) {
+            writeBytes((byte[]) obj);
+        } else if (obj instanceof Character) {
+            out.write('"');
+            writeEscaped((Character) obj);
+            out.write('"');
+        } else {
+            // 其他类型（各个驱动特有的类型）交给 fastjson，保证和原来的输出一致
+            out.write(JSON.toJSONString(obj));
+        }
+    }
+
+    private void writeFloat(double value, String text) throws IOException {
+        // 和 fastjson 一样：NaN 和无穷大输出为 null，整数值去掉末尾的 .0
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write("null");
+        } else if (text.endsWith(".0")) {
+            out.write(text, 0, text.length() - 2);
+        } else {
+            out.write(text);
+        }
+    }
+
+    private void writeDate(java.util.Date date) throws IOException {
+        if (dateFormat == null) {
+            out.write(Long.toString(date.getTime()));
+        } else {
+            dateBuffer.setLength(0);
+            dateFormat.format(date, dateBuffer);
+            out.write('"');
+            for (int i = 0; i < dateBuffer.length(); i++) {
+                writeEscaped(dateBuffer.charAt(i));
+            }
+            out.write('"');
+        }
+    }
+
+    private void writeString(String str) throws IOException {
+        out.write('"');
+        int len = str.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (needEscape(c)) {
+                if (i > start) {
+                    out.write(str, start, i - start);
+                }
+                writeEscaped(c);
+                start = i + 1;
+            }
+        }
+        if (len > start) {
+            out.write(str, start, len - start);
+        }
+        out.write('"');
+    }
+
+    private void writeClob(Clob clob) throws SQLException, IOException {
+        out.write('"');
+        try (Reader reader = clob.getCharacterStream()) {
+            int len;
+            while ((len = reader.read(charBuffer)) != -1) {
+                int start = 0;
+                for (int i = 0; i < len; i++) {
+                    if (needEscape(charBuffer[i])) {
+                        if (i > start) {
+                            out.write(charBuffer, start, i - start);
+                        }
+                        writeEscaped(charBuffer[i]);
+                        start = i + 1;
+                    }
+                }
+                if (len > start) {
+                    out.write(charBuffer, start, len - start);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    private void writeBlob(Blob blob) throws SQLException, IOException {
+        if (byteBuffer == null) {
+            byteBuffer = new byte[BLOB_BUFFER_SIZE];
+        }
+        out.write('"');
+        try (InputStream is = blob.getBinaryStream()) {
+            if (is != null) {
+                int len;
+                while ((len = readFully(is, byteBuffer)) > 0) {
+                    writeBase64(byteBuffer, 0, len);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write('"');
+        for (int off = 0; off < bytes.length; off += BLOB_BUFFER_SIZE) {
+            int len = Math.min(BLOB_BUFFER_SIZE, bytes.length - off);
+            writeBase64(bytes, off, len);
+        }
+        out.write('"');
+    }
+
+    private static int readFully(InputStream is, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            int len = is.read(buf, total, buf.length - total);
+            if (len < 0) {
+                break;
+            }
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * 编码一块数据，除了最后一块，每块的长度都必须是 3 的倍数
+     */
+    private void writeBase64(byte[] bytes, int off, int len) throws IOException {
+        int p = 0;
+        int end = off + len;
+        int i = off;
+        for (; i + 2 < end; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            charBuffer[p++] = BASE64_CHARS[(bits >>> 18) & 0x3f];
+            charBuffer[p++] = BASE64_CHARS[(bits >>> 12) & 0x3f];
+            charBuffer[p++] = BASE64_CHARS[(bits >>> 6) & 0x3f];
+            charBuffer[p++] = BASE64_CHARS[bits & 0x3f];
+            if (p == charBuffer.length) {
+                out.write(charBuffer, 0, p);
+                p = 0;
+            }
+        }
+        if (i < end) {
+            int bits = (bytes[i] & 0xff) << 16;
+            if (i + 1 < end) {
+                bits |= (bytes[i + 1] & 0xff) << 8;
+            }
+            charBuffer[p++] = BASE64_CHARS[(bits >>> 18) & 0x3f];
+            charBuffer[p++] = BASE64_CHARS[(bits >>> 12) & 0x3f];
+            charBuffer[p++] = i + 1 < end ? BASE64_CHARS[(bits >>> 6) & 0x3f] : '=';
+            charBuffer[p++] = '=';
+        }
+        if (p > 0) {
+            out.write(charBuffer, 0, p);
+        }
+    }
+
+    private static boolean needEscape(char c) {
+        return c < 0x20 || c == '"' || c == '\\';
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        if (!needEscape(c)) {
+            out.write(c);
+            return;
+        }
+        out.write('\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                out.write(c);
+                break;
+            case '\b':
+                out.write('b');
+                break;
+            case '\f':
+                out.write('f');
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            default:
+                out.write("u00");
+                out.write(HEX_CHARS[(c >> 4) & 0xf]);
+                out.write(HEX_CHARS[c & 0xf]);
+                break;
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append("\\u00").append(HEX_CHARS[(c >> 4) & 0xf]).append(HEX_CHARS[c & 0xf]);
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.centit.support.test;
+
+import com.centit.support.algorithm.CollectionsOpt;
+import com.centit.support.compiler.VariableFormula;
+import com.centit.support.database.jsonmaptable.FormulaSqlFilter;
+import com.centit.support.database.metadata.SimpleTableField;
+import com.centit.support.database.metadata.SimpleTableInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TestFormulaSqlFilter {
+
+    private static SimpleTableInfo createTableInfo() {
+        SimpleTableInfo tableInfo = new SimpleTableInfo("F_ORDER");
+        String[][] columns = {{"orderId", "ORDER_ID"}, {"amount", "AMOUNT"}, {"deptCode", "DEPT_CODE"}};
+        for (String[] column : columns) {
+            SimpleTableField field = new SimpleTableField();
+            field.setPropertyName(column[0]);
+            field.setColumnName(column[1]);
+            tableInfo.addColumn(field);
+        }
+        return tableInfo;
+    }
+
+    public static void main(String[] args) {
+        SimpleTableInfo tableInfo = createTableInfo();
+        String[] formulas = {
+            "amount > 1000 && deptCode in (\"D1\",\"D2\")",
+            "1000 <= amount and !(deptCode == 'D3' or amount < 10)",
+            "amount > 1000 && remark == 'x'",
+            "amount > 1000 && round(amount / 3, 0) == 400",
+            "!(deptCode in ('D1','D2')) && amount != 5"
+        };
+        for (String formula : formulas) {
+            FormulaSqlFilter filter = FormulaSqlFilter.translate(formula, tableInfo, "t");
+            System.out.println(formula);
+            System.out.println("  where : " + (filter.getPushdown() == null ? null :
+                filter.getPushdown().getQuery() + " " + filter.getPushdown().getParams()));
+            System.out.println("  residue : " + filter.getResidue().size());
+        }
+
+        // 字符串的大小比较和 != 不下推，== 下推后在内存中再判断一次
+        FormulaSqlFilter strFilter = FormulaSqlFilter.translate(
+            "deptCode >= 'D1' && deptCode != 'D3' && orderId == 'o1'", tableInfo, null);
+        if (strFilter.getResidue().size() != 3 || strFilter.getPushdown() == null
+            || !"ORDER_ID = :fp0".equals(strFilter.getPushdown().getQuery())) {
+            throw new IllegalStateException("string compare pushdown : " +
+                (strFilter.getPushdown() == null ? null : strFilter.getPushdown().getQuery()));
+        }
+        strFilter = FormulaSqlFilter.translate("!(deptCode in ('D1','D2')) && amount < 5", tableInfo, null);
+        if (strFilter.getResidue().size() != 1) {
+            throw new IllegalStateException("string not in pushdown : " + strFilter.getPushdown().getQuery());
+        }
+
+        FormulaSqlFilter filter = FormulaSqlFilter.translate(
+            "amount > 1000 && round(amount / 3, 0) == 400", tableInfo, null);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        rows.add(CollectionsOpt.createHashMap("amount", 1200, "deptCode", "D1"));
+        rows.add(CollectionsOpt.createHashMap("amount", 1500, "deptCode", "D2"));
+        System.out.println(filter.filterResidue(rows));
+        System.out.println(VariableFormula.calculate("!(deptCode in ('D1','D2')) && amount != 5",
+            CollectionsOpt.createHashMap("amount", null)));
+    }
+}
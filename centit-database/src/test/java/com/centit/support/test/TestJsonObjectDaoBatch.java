@@ -0,0 +1,149 @@
+package com.centit.support.test;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.centit.support.algorithm.CollectionsOpt;
+import com.centit.support.algorithm.NumberBaseOpt;
+import com.centit.support.database.jsonmaptable.GeneralJsonObjectDao;
+import com.centit.support.database.metadata.SimpleTableField;
+import com.centit.support.database.metadata.SimpleTableInfo;
+import com.centit.support.database.utils.DatabaseAccess;
+
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class TestJsonObjectDaoBatch {
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static int queryCount(Connection conn, String sql) throws Exception {
+        return NumberBaseOpt.castObjectToInteger(DatabaseAccess.getScalarObjectQuery(conn, sql), -1);
+    }
+
+    private static void checkItem(Connection conn, String itemId, int amount, String remark) throws Exception {
+        JSONArray rows = DatabaseAccess.findObjectsAsJSON(conn,
+            "select ITEM_ID, AMOUNT, REMARK from F_ORDER_ITEM where ITEM_ID = ?", itemId);
+        check(rows.size() == 1, itemId + " not found");
+        JSONObject row = rows.getJSONObject(0);
+        check(BigDecimal.valueOf(amount).compareTo(NumberBaseOpt.castObjectToBigDecimal(row.get("amount"))) == 0
+            && remark.equals(row.getString("remark")), "unexpected " + row);
+    }
+
+    private static SimpleTableInfo createTableInfo() {
+        SimpleTableInfo tableInfo = new SimpleTableInfo("F_ORDER_ITEM");
+        String[][] columns = {{"itemId", "ITEM_ID"}, {"orderId", "ORDER_ID"}, {"amount", "AMOUNT"}, {"remark", "REMARK"}};
+        for (String[] column : columns) {
+            SimpleTableField field = new SimpleTableField();
+            field.setPropertyName(column[0]);
+            field.setColumnName(column[1]);
+            tableInfo.addColumn(field);
+        }
+        tableInfo.setColumnAsPrimaryKey("itemId");
+        return tableInfo;
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:batch;MODE=MySQL", "sa", "")) {
+            DatabaseAccess.doExecuteSql(conn, "create table F_ORDER_ITEM (ITEM_ID varchar(32) primary key," +
+                " ORDER_ID varchar(32), AMOUNT decimal(10,2), REMARK varchar(100) default 'none')");
+            GeneralJsonObjectDao dao = GeneralJsonObjectDao.createJsonObjectDao(conn, createTableInfo());
+            dao.setBatchSize(100);
+
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                Map<String, Object> item = CollectionsOpt.createHashMap(
+                    "itemId", "i" + i, "orderId", "o" + (i / 10), "amount", i);
+                if (i % 2 == 0) {
+                    item.put("remark", "r" + i);
+                }
+                items.add(item);
+            }
+            long beginTime = System.currentTimeMillis();
+            int inserted = dao.insertObjectsAsTabulation(items);
+            System.out.println("inserted : " + inserted + " in " + (System.currentTimeMillis() - beginTime) + "ms");
+            check(inserted == 1000, "inserted " + inserted);
+            // 没有 remark 属性的行不插入这个字段，使用字段的默认值
+            check(queryCount(conn, "select count(*) from F_ORDER_ITEM where REMARK = 'none'") == 500, "default remark");
+
+            List<Map<String, Object>> dupItems = new ArrayList<>();
+            dupItems.add(CollectionsOpt.createHashMap("itemId", "n1", "orderId", "o1"));
+            dupItems.add(CollectionsOpt.createHashMap("itemId", "i1", "orderId", "o1"));
+            dupItems.add(CollectionsOpt.createHashMap("itemId", "n2", "orderId", "o1", "remark", "x"));
+            int[] dupCounts = null;
+            try {
+                dao.batchInsertObjects(dupItems);
+            } catch (BatchUpdateException e) {
+                dupCounts = e.getUpdateCounts();
+            }
+            // 前两行属性相同，在同一条多行插入语句中一起失败，第三行因为出错没有执行
+            check(Arrays.equals(new int[]{Statement.EXECUTE_FAILED, Statement.EXECUTE_FAILED, 0}, dupCounts),
+                "partial failure counts " + Arrays.toString(dupCounts));
+            check(queryCount(conn, "select count(*) from F_ORDER_ITEM where ITEM_ID in ('n1','n2')") == 0,
+                "failed rows inserted");
+
+            // 插入次序和输入一致，先父后子、属性不同的行可以放在同一批中插入
+            // 已有的行 ORDER_ID 不是 ITEM_ID，不检查已有的数据
+            DatabaseAccess.doExecuteSql(conn, "alter table F_ORDER_ITEM add constraint FK_ITEM_PARENT" +
+                " foreign key (ORDER_ID) references F_ORDER_ITEM (ITEM_ID) nocheck");
+            List<Map<String, Object>> treeItems = new ArrayList<>();
+            treeItems.add(CollectionsOpt.createHashMap("itemId", "t1", "orderId", "i1"));
+            treeItems.add(CollectionsOpt.createHashMap("itemId", "t2", "orderId", "t1", "remark", "child"));
+            treeItems.add(CollectionsOpt.createHashMap("itemId", "t3", "orderId", "t2"));
+            int[] treeCounts = dao.batchInsertObjects(treeItems);
+            check(Arrays.equals(new int[]{1, 1, 1}, treeCounts), "tree inserted " + Arrays.toString(treeCounts));
+            DatabaseAccess.doExecuteSql(conn, "alter table F_ORDER_ITEM drop constraint FK_ITEM_PARENT");
+
+            check(dao.mergeObject(CollectionsOpt.createHashMap(
+                "itemId", "i1", "orderId", "o1", "amount", 11, "remark", "merged")) == 1, "merged");
+            // 只更新 amount，remark 保持不变
+            check(dao.mergeObject(Arrays.asList("amount"), CollectionsOpt.createHashMap(
+                "itemId", "i2", "orderId", "o1", "amount", 12, "remark", "ignored")) == 1, "merged part");
+            List<Map<String, Object>> mergeItems = new ArrayList<>();
+            for (int i = 995; i < 1005; i++) {
+                mergeItems.add(CollectionsOpt.createHashMap("itemId", "i" + i, "orderId", "o99", "amount", -i));
+            }
+            // 5 行更新，5 行新增
+            int merged = dao.mergeObjects(mergeItems);
+            check(merged == 10, "merged objects " + merged);
+            checkItem(conn, "i1", 11, "merged");
+            checkItem(conn, "i2", 12, "r2");
+            checkItem(conn, "i998", -998, "r998");
+            checkItem(conn, "i999", -999, "none");
+            checkItem(conn, "i1004", -1004, "none");
+            check(queryCount(conn, "select count(*) from F_ORDER_ITEM where ORDER_ID = 'o99'") == 15, "merged rows");
+
+            // 数据库中 o50 有 10 行，保留 5 行（其中 1 行修改），删除 5 行，新增 2 行，应该影响 8 行
+            List<Map<String, Object>> newItems = new ArrayList<>();
+            for (int i = 500; i < 505; i++) {
+                newItems.add(CollectionsOpt.createHashMap("itemId", "i" + i, "orderId", "o50",
+                    "amount", i == 500 ? -1 : i));
+            }
+            newItems.add(CollectionsOpt.createHashMap("itemId", "n501", "orderId", "o50"));
+            newItems.add(CollectionsOpt.createHashMap("itemId", "n502", "orderId", "o50"));
+            int replaced = dao.replaceObjectsAsTabulation(newItems, "orderId", "o50");
+            check(replaced == 8, "replaced " + replaced);
+            JSONArray o50 = DatabaseAccess.findObjectsAsJSON(conn,
+                "select ITEM_ID, AMOUNT from F_ORDER_ITEM where ORDER_ID = 'o50' order by ITEM_ID");
+            List<Object> itemIds = new ArrayList<>();
+            for (int i = 0; i < o50.size(); i++) {
+                itemIds.add(o50.getJSONObject(i).getString("itemId"));
+            }
+            check(Arrays.asList("i500", "i501", "i502", "i503", "i504", "n501", "n502").equals(itemIds),
+                "replaced rows " + itemIds);
+            checkItem(conn, "i500", -1, "r500");
+            checkItem(conn, "i501", 501, "none");
+            System.out.println("TestJsonObjectDaoBatch passed");
+        }
+    }
+}
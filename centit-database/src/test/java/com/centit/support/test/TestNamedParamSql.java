@@ -0,0 +1,27 @@
+package com.centit.support.test;
+
+import com.centit.support.algorithm.CollectionsOpt;
+import com.centit.support.database.utils.NamedParamSql;
+import com.centit.support.database.utils.QueryAndParams;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class TestNamedParamSql {
+
+    public static void main(String[] args) {
+        String sql = "select * from F_ORDER where DEPT_CODE in (:depts) and AMOUNT > :amount" +
+            " and REMARK <> ':amount' /* :remark */ and CREATE_USER = :user";
+        Map<String, Object> params = CollectionsOpt.createHashMap(
+            "depts", Arrays.asList("D1", "D2"), "amount", 1000, "user", "u1");
+        for (int i = 0; i < 3; i++) {
+            QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(sql, params);
+            System.out.println(qap.getQuery() + " " + Arrays.toString(qap.getParams()));
+        }
+        params.put("depts", "D1");
+        QueryAndParams qap = QueryAndParams.createFromQueryAndNamedParams(sql, params);
+        System.out.println(qap.getQuery() + " " + Arrays.toString(qap.getParams()));
+        System.out.println(NamedParamSql.parseWithCache(sql).getParamNames());
+        System.out.println(NamedParamSql.getNamedSqlCache());
+    }
+}
@@ -0,0 +1,84 @@
+package com.centit.support.test;
+
+import com.centit.support.database.utils.DatabaseAccess;
+import com.centit.support.database.utils.QueryCursor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.stream.Stream;
+
+public class TestQueryCursor {
+
+    private static final long ROW_COUNT = 1000000L;
+    /**
+     * 扫描过程中堆内存最多增长的 MB 数；每行带 200 个字符的填充，
+     * 100 万行全部物化在内存中至少需要 200MB，超过这个限制就说明结果集没有逐批读取
+     */
+    private static final long MAX_HEAP_GROWTH_MB = 64;
+
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return (rt.totalMemory() - rt.freeMemory()) / 1024 / 1024;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // LAZY_QUERY_EXECUTION 让 H2 按需生成结果，不在服务端物化整个结果集
+        try (Connection conn = DriverManager.getConnection(
+            "jdbc:h2:mem:cursor;LAZY_QUERY_EXECUTION=1", "sa", "")) {
+            String sql = "select X as ROW_NO, concat('row-', X) as ROW_DESC from SYSTEM_RANGE(1, " + ROW_COUNT + ")";
+            long before = usedMemory();
+            long[] maxUsed = {before};
+            long[] lastNo = {0};
+            long rows = DatabaseAccess.scanObjectsBySql(conn,
+                "select X as ROW_NO, concat('row-', X) as ROW_DESC, repeat('x', 200) as PADDING" +
+                    " from SYSTEM_RANGE(1, " + ROW_COUNT + ")", null, 1000, row -> {
+                long no = ((Number) row[0]).longValue();
+                check(no == lastNo[0] + 1, "row out of order: " + no);
+                check(("row-" + no).equals(row[1]), "bad row: " + no);
+                lastNo[0] = no;
+                if (no % 100000 == 0) {
+                    maxUsed[0] = Math.max(maxUsed[0], usedMemory());
+                }
+            });
+            check(rows == ROW_COUNT, "scan rows: " + rows);
+            System.out.println("used memory(MB) before: " + before + " max: " + maxUsed[0]);
+            check(maxUsed[0] - before <= MAX_HEAP_GROWTH_MB,
+                "heap grew " + (maxUsed[0] - before) + "MB during the scan");
+
+            long[] sum = {0};
+            rows = DatabaseAccess.scanObjectsAsJSON(conn, sql, null, null, 1000,
+                json -> sum[0] += json.getLongValue("rowNo"));
+            check(rows == ROW_COUNT, "json rows: " + rows);
+            check(sum[0] == ROW_COUNT * (ROW_COUNT + 1) / 2, "json sum: " + sum[0]);
+
+            // 回调中用同一个连接写入的数据在扫描结束后仍然存在
+            DatabaseAccess.doExecuteSql(conn, "create table F_SCAN_LOG (ROW_NO bigint)");
+            rows = DatabaseAccess.scanObjectsBySql(conn, "select X from SYSTEM_RANGE(1, 10)", null, 1000,
+                row -> {
+                    try {
+                        DatabaseAccess.doExecuteSql(conn, "insert into F_SCAN_LOG (ROW_NO) values (?)", row);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            Object logged = DatabaseAccess.getScalarObjectQuery(conn, "select count(*) from F_SCAN_LOG");
+            check(rows == 10 && ((Number) logged).longValue() == 10, "written in scan: " + logged);
+
+            try (QueryCursor cursor = DatabaseAccess.openQueryCursor(conn,
+                "select X from SYSTEM_RANGE(1, ?)", new Object[]{ROW_COUNT});
+                 Stream<Object[]> stream = cursor.stream()) {
+                long count = stream.count();
+                check(count == ROW_COUNT, "stream count: " + count);
+                check(cursor.isClosed(), "cursor not closed after the last row");
+            }
+            System.out.println("TestQueryCursor passed");
+        }
+    }
+}
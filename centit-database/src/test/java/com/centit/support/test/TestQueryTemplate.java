@@ -0,0 +1,34 @@
+package com.centit.support.test;
+
+import com.centit.support.algorithm.CollectionsOpt;
+import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.database.utils.QueryTemplate;
+import com.centit.support.database.utils.QueryUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class TestQueryTemplate {
+
+    public static void main(String[] args) {
+        QueryTemplate template = QueryUtils.compileQueryTemplate(
+            "select t1.ORDER_ID, t1.AMOUNT from F_ORDER t1 where 1=1 {F_ORDER:t1}" +
+                " [(amount > 1000)(amount:minAmount)| and t1.AMOUNT > :minAmount]" +
+                " [:(like)remark| and t1.REMARK like :remark]" +
+                " [:(creepforin)depts| and t1.DEPT_CODE in (:depts)]" +
+                " order by t1.ORDER_ID");
+        List<String> filters = Arrays.asList("[F_ORDER.CREATE_USER] = {currentUser}");
+
+        Map<String, Object> params = CollectionsOpt.createHashMap(
+            "amount", 1500, "remark", "urgent", "depts", Arrays.asList("D1", "D2"), "currentUser", "u1");
+        QueryAndNamedParams query = template.translate(filters, params, false);
+        System.out.println(query.getQuery());
+        System.out.println(query.getParams());
+
+        params = CollectionsOpt.createHashMap("amount", 500);
+        query = template.translate(params);
+        System.out.println(query.getQuery());
+        System.out.println(query.getParams());
+    }
+}
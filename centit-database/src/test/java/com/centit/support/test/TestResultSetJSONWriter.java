@@ -0,0 +1,84 @@
+package com.centit.support.test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.centit.support.database.utils.DatabaseAccess;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class TestResultSetJSONWriter {
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:jsonwriter", "sa", "")) {
+            DatabaseAccess.doExecuteSql(conn, "create table F_DOC (DOC_ID varchar(32), CREATE_TIME timestamp," +
+                " DOC_SIZE decimal(10,2), CONTENT clob, ATTACHMENT blob)");
+            Timestamp createTime = Timestamp.valueOf("2023-05-06 07:08:09");
+            String content = "line1\nline2 \"quoted\" \\ \t\u0001";
+            byte[] attachment = "blob".getBytes(StandardCharsets.UTF_8);
+            DatabaseAccess.doExecuteSql(conn, "insert into F_DOC values (?,?,?,?,?)", new Object[]{
+                "d1", createTime, 12.5, content, attachment});
+            // 所有可以为空的字段都是 null
+            DatabaseAccess.doExecuteSql(conn, "insert into F_DOC(DOC_ID) values ('d2')");
+            // 大字段超过写出时的缓冲区，长度不是 3 的倍数
+            StringBuilder bigContent = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                bigContent.append("row ").append(i).append(" \"x\"\n");
+            }
+            byte[] bigAttachment = new byte[10001];
+            for (int i = 0; i < bigAttachment.length; i++) {
+                bigAttachment[i] = (byte) (i * 7);
+            }
+            DatabaseAccess.doExecuteSql(conn, "insert into F_DOC values (?,?,?,?,?)", new Object[]{
+                "d3", createTime, new BigDecimal("-0.05"), bigContent.toString(), bigAttachment});
+
+            String sql = "select DOC_ID, CREATE_TIME, DOC_SIZE, CONTENT, ATTACHMENT from F_DOC order by DOC_ID";
+            StringWriter writer = new StringWriter();
+            long rows = DatabaseAccess.writeObjectsAsJSON(conn, sql, null, null, null, writer);
+            check(rows == 3, "rows " + rows);
+
+            JSONArray written = JSON.parseArray(writer.toString());
+            JSONArray expected = JSON.parseArray(JSON.toJSONString(DatabaseAccess.findObjectsAsJSON(conn, sql)));
+            check(expected.equals(written), "writer output differs from fastjson : " + writer);
+
+            JSONObject d1 = written.getJSONObject(0);
+            check("d1".equals(d1.getString("docId")), "docId " + d1);
+            check(createTime.getTime() == d1.getLongValue("createTime"), "createTime " + d1);
+            check(new BigDecimal("12.50").equals(d1.getBigDecimal("docSize")), "docSize " + d1);
+            check(content.equals(d1.getString("content")), "clob " + d1);
+            check(Arrays.equals(attachment, Base64.getDecoder().decode(d1.getString("attachment"))), "blob " + d1);
+
+            // 空值字段不输出
+            JSONObject d2 = written.getJSONObject(1);
+            check(d2.size() == 1 && "d2".equals(d2.getString("docId")), "null fields " + d2);
+
+            JSONObject d3 = written.getJSONObject(2);
+            check(new BigDecimal("-0.05").equals(d3.getBigDecimal("docSize")), "negative decimal " + d3);
+            check(bigContent.toString().equals(d3.getString("content")), "big clob");
+            check(Arrays.equals(bigAttachment, Base64.getDecoder().decode(d3.getString("attachment"))), "big blob");
+
+            // 指定字段名和日期格式
+            StringWriter formatted = new StringWriter();
+            DatabaseAccess.writeObjectsAsJSON(conn, sql, null, new String[]{"id", "", "size"},
+                "yyyy-MM-dd HH:mm:ss", formatted);
+            JSONObject f1 = JSON.parseArray(formatted.toString()).getJSONObject(0);
+            check("d1".equals(f1.getString("id")) && f1.getString("docId") == null, "field name " + f1);
+            check("2023-05-06 07:08:09".equals(f1.getString("createTime")), "date format " + f1);
+            check(new BigDecimal("12.50").equals(f1.getBigDecimal("size")), "size " + f1);
+            System.out.println("TestResultSetJSONWriter passed");
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
 /**
@@ -26,6 +27,9 @@ import java.util.regex.Pattern;
  * 8. seek* 移动到这个月的最后一天、这年的最后一天等等。
  * 9. truncate* 截取日期到天、周、月等等，和seek*操作相对。
  * 10. smartPraseDate 和 castObjectToDate 前者将字符串转换为日期，后者将object转换为日期
+ * 11. 参数为 long（毫秒数 epochMillis）的同名方法和 *EpochDay 方法，直接用整数计算日期，不创建 Calendar 对象，
+ * 适合在循环、表达式求值等频繁调用的地方使用；和本地时区有关的方法每次调用 TimeZone.getDefault 复制一个时区对象，
+ * 这是跟随 TimeZone.setDefault 的代价，除此以外不创建对象
  *
  * @author codefan
  */
@@ -664,6 +668,273 @@ public abstract class DatetimeOpt {
         return Double.valueOf((eD.getTime() - bD.getTime()) / 86400000.0).floatValue();
     }
 
+    /*
+     * 下面是以 long 为参数的日期计算，epochMillis 为 Date.getTime() 的毫秒数，
+     * epochDay 为本地时区的日期距 1970-01-01 的天数；日历按公历（不考虑 1582 年的儒略历）
+     */
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final long DAYS_PER_400_YEARS = 146097L;
+    /**
+     * 0000-03-01 到 1970-01-01 的天数
+     */
+    private static final long DAYS_0000_TO_1970 = 719468L;
+
+    /**
+     * 上次使用的默认时区，TimeZone.getDefault 每次返回一个新的副本，
+     * 默认时区没有变化时继续用这个对象，保留它内部缓存的偏移规则
+     */
+    private static volatile TimeZone localTimeZone = TimeZone.getDefault();
+
+    /**
+     * 和 Calendar 一样每次都使用当前的默认时区，运行中调用 TimeZone.setDefault 后立即生效；
+     * TimeZone.getDefault 每次返回一个副本，所以每次调用会创建一个 TimeZone 对象
+     */
+    private static TimeZone localTimeZone() {
+        TimeZone tz = TimeZone.getDefault();
+        TimeZone cached = localTimeZone;
+        // equals 只比较时区 ID 和规则，不会逐个比较偏移
+        if (cached.equals(tz)) {
+            return cached;
+        }
+        localTimeZone = tz;
+        return tz;
+    }
+
+    private static long toLocalMillis(TimeZone tz, long epochMillis) {
+        return epochMillis + tz.getOffset(epochMillis);
+    }
+
+    /**
+     * 和 Calendar 一致：时区偏移切换时重复的本地时间取后一个（夏令时结束后的标准时间），
+     * 不存在的本地时间按切换前的偏移计算
+     */
+    private static long toUtcMillis(TimeZone tz, long localMillis) {
+        long guess = localMillis - tz.getOffset(localMillis);
+        int before = tz.getOffset(guess - MILLIS_PER_DAY / 2);
+        int after = tz.getOffset(guess + MILLIS_PER_DAY / 2);
+        if (before == after || tz.getOffset(localMillis - after) == after) {
+            return localMillis - after;
+        }
+        return localMillis - before;
+    }
+
+    /**
+     * @param epochMillis 时间
+     * @return 本地日期距 1970-01-01 的天数
+     */
+    public static long toEpochDay(long epochMillis) {
+        return toEpochDay(localTimeZone(), epochMillis);
+    }
+
+    private static long toEpochDay(TimeZone tz, long epochMillis) {
+        return Math.floorDiv(toLocalMillis(tz, epochMillis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * @param epochDay 距 1970-01-01 的天数
+     * @return 这一天本地时间零点的毫秒数
+     */
+    public static long epochDayToMillis(long epochDay) {
+        return epochDayToMillis(localTimeZone(), epochDay);
+    }
+
+    private static long epochDayToMillis(TimeZone tz, long epochDay) {
+        return toUtcMillis(tz, epochDay * MILLIS_PER_DAY);
+    }
+
+    /**
+     * @param year  年
+     * @param month 月 1-12
+     * @param day   日
+     * @return 距 1970-01-01 的天数
+     */
+    public static long toEpochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153L * ((month + 9) % 12) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * DAYS_PER_400_YEARS + doe - DAYS_0000_TO_1970;
+    }
+
+    /**
+     * 将天数换算为年月日，年、月、日分别放在结果的高位、5-8 位和低 5 位，避免创建数组
+     */
+    private static long civilOfEpochDay(long epochDay) {
+        long z = epochDay + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(z, DAYS_PER_400_YEARS);
+        long doe = z - era * DAYS_PER_400_YEARS;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 9) | (month << 5) | day;
+    }
+
+    public static int yearOfEpochDay(long epochDay) {
+        return (int) (civilOfEpochDay(epochDay) >> 9);
+    }
+
+    public static int monthOfEpochDay(long epochDay) {
+        return (int) ((civilOfEpochDay(epochDay) >> 5) & 15);
+    }
+
+    public static int dayOfEpochDay(long epochDay) {
+        return (int) (civilOfEpochDay(epochDay) & 31);
+    }
+
+    /**
+     * @param epochDay 距 1970-01-01 的天数
+     * @return 星期几  星期日 到星期六 为 0-6
+     */
+    public static int dayOfWeekOfEpochDay(long epochDay) {
+        // 1970-01-01 是星期四
+        return (int) Math.floorMod(epochDay + 4, 7L);
+    }
+
+    private static boolean isLeapYear(long year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(long year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * 和 Calendar.add(Calendar.MONTH, n) 一样，目标月份没有这一天时取这个月的最后一天
+     *
+     * @param epochDay 距 1970-01-01 的天数
+     * @param nMonths  月数，负数为减
+     * @return 距 1970-01-01 的天数
+     */
+    public static long addMonthsToEpochDay(long epochDay, int nMonths) {
+        long civil = civilOfEpochDay(epochDay);
+        long months = (civil >> 9) * 12 + ((civil >> 5) & 15) - 1 + nMonths;
+        long year = Math.floorDiv(months, 12L);
+        int month = (int) Math.floorMod(months, 12L) + 1;
+        int day = (int) Math.min(civil & 31, lengthOfMonth(year, month));
+        return toEpochDay((int) year, month, day);
+    }
+
+    public static int getDay(long epochMillis) {
+        return dayOfEpochDay(toEpochDay(epochMillis));
+    }
+
+    public static int getMonth(long epochMillis) {
+        return monthOfEpochDay(toEpochDay(epochMillis));
+    }
+
+    public static int getYear(long epochMillis) {
+        return yearOfEpochDay(toEpochDay(epochMillis));
+    }
+
+    public static int getDayOfYear(long epochMillis) {
+        long epochDay = toEpochDay(epochMillis);
+        return (int) (epochDay - toEpochDay(yearOfEpochDay(epochDay), 1, 1)) + 1;
+    }
+
+    /**
+     * @param epochMillis 时间
+     * @return 星期几  星期日 到星期六 为 0-6
+     */
+    public static int getDayOfWeek(long epochMillis) {
+        return dayOfWeekOfEpochDay(toEpochDay(epochMillis));
+    }
+
+    public static long truncateToDay(long epochMillis) {
+        TimeZone tz = localTimeZone();
+        return epochDayToMillis(tz, toEpochDay(tz, epochMillis));
+    }
+
+    public static long truncateToMonth(long epochMillis) {
+        TimeZone tz = localTimeZone();
+        long epochDay = toEpochDay(tz, epochMillis);
+        return epochDayToMillis(tz, epochDay - dayOfEpochDay(epochDay) + 1);
+    }
+
+    public static long truncateToYear(long epochMillis) {
+        TimeZone tz = localTimeZone();
+        return epochDayToMillis(tz, toEpochDay(yearOfEpochDay(toEpochDay(tz, epochMillis)), 1, 1));
+    }
+
+    //跳转到月的最后一天
+    public static long seekEndOfMonth(long epochMillis) {
+        return addDays(truncateToMonth(addMonths(epochMillis, 1)), -1);
+    }
+
+    /**
+     * 和 Calendar.add(Calendar.DATE, n) 一样保持本地时间不变，夏令时切换时优先保持原来的时区偏移
+     */
+    public static long addDays(long epochMillis, int nDays) {
+        TimeZone tz = localTimeZone();
+        int offset = tz.getOffset(epochMillis);
+        long localMillis = epochMillis + offset + nDays * MILLIS_PER_DAY;
+        long result = localMillis - offset;
+        int diff = offset - tz.getOffset(result);
+        if (diff != 0) {
+            long adjusted = result + diff;
+            // 调整后换了一天就不调整
+            if (Math.floorDiv(toLocalMillis(tz, adjusted), MILLIS_PER_DAY)
+                == Math.floorDiv(localMillis, MILLIS_PER_DAY)) {
+                return adjusted;
+            }
+        }
+        return result;
+    }
+
+    public static long addDays(long epochMillis, float nDays) {
+        return epochMillis + Double.valueOf(nDays * 86400000.0).longValue();
+    }
+
+    public static long addMonths(long epochMillis, int nMonths) {
+        if (nMonths == 0) {
+            return epochMillis;
+        }
+        TimeZone tz = localTimeZone();
+        long localMillis = toLocalMillis(tz, epochMillis);
+        long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        return toUtcMillis(tz, addMonthsToEpochDay(epochDay, nMonths) * MILLIS_PER_DAY
+            + Math.floorMod(localMillis, MILLIS_PER_DAY));
+    }
+
+    public static long addYears(long epochMillis, int nYears) {
+        return addMonths(epochMillis, nYears * 12);
+    }
+
+    /**
+     * @param beginMillis beginTime
+     * @param endMillis   endTime
+     * @return 计算这个周期中的天数, 包括 beginTime，endTime
+     */
+    public static int calcSpanDays(long beginMillis, long endMillis) {
+        long bD = truncateToDay(Math.min(beginMillis, endMillis));
+        long eD = Math.max(beginMillis, endMillis);
+        return (int) ((eD - bD) / MILLIS_PER_DAY + 1);
+    }
+
+    /**
+     * @param beginMillis beginTime
+     * @param endMillis   endTime
+     * @return 计算这个周期中的天数, 不足一天用小数表示
+     */
+    public static float calcDateSpan(long beginMillis, long endMillis) {
+        long bD = truncateToDay(Math.min(beginMillis, endMillis));
+        long eD = Math.max(beginMillis, endMillis);
+        return Double.valueOf((eD - bD) / 86400000.0).floatValue();
+    }
+
     /*
      * 计算周的第一天始日期
      */
@@ -1,5 +1,6 @@
 package com.centit.support.algorithm;
 
+import com.centit.support.common.LruCachedMap;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.Calendar;
@@ -8,6 +9,9 @@ import java.util.regex.Pattern;
 @SuppressWarnings("unused")
 public abstract class StringRegularOpt {
 
+    private static final LruCachedMap<String, Pattern> PATTERN_CACHE = new LruCachedMap<>(1024);
+    private static final LruCachedMap<String, WildcardMatcher> MATCHER_CACHE = new LruCachedMap<>(1024);
+
     private StringRegularOpt() {
         throw new IllegalAccessError("Utility class");
     }
@@ -499,19 +503,29 @@ public abstract class StringRegularOpt {
             .replaceAll("_", "\\\\S") + "$";
     }
 
-    // ?_  *% 是通配符
+    /**
+     * ?_  *% 是通配符，编译后的模板保存在有限大小的缓存中
+     *
+     * @param szValue 被匹配的字符串
+     * @param szTempl 模板
+     * @return 是否匹配
+     * @see WildcardMatcher
+     */
     public static boolean isMatch(String szValue, String szTempl) {
         if (szValue == null || szTempl == null) return false;
         if (szValue.equals(szTempl)) return true;
-        int nLV = szValue.length();
-        int nLT = szTempl.length();
-        if (nLV == 0 && nLT == 0) return true;
-
-        szValue = trimString(szValue);
-        szTempl = trimString(szTempl);
-        //return Pattern.matches(sqlMatchToRegex(szTempl), szValue);//
-        //Pattern.compile(sqlMatchToRegex(szTempl)).matcher(szValue).find()
-        return Pattern.matches(sqlMatchToRegex(szTempl), szValue);
+        return MATCHER_CACHE.get(szTempl, WildcardMatcher::compile).matches(szValue);
+    }
+
+    /**
+     * 获取编译后的正则表达式，编译结果保存在有限大小的缓存中，
+     * 用于正则表达式由数据决定、不能预先编译的情况
+     *
+     * @param regex 正则表达式
+     * @return Pattern
+     */
+    public static Pattern getCachedPattern(String regex) {
+        return PATTERN_CACHE.get(regex, Pattern::compile);
     }
 
     /**
@@ -0,0 +1,130 @@
+package com.centit.support.algorithm;
+
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的匹配模板，匹配规则和 StringRegularOpt.isMatch 一致：
+ * % 匹配任意个非空白字符，_ 匹配一个非空白字符，模板中的其他正则表达式元字符按正则表达式处理
+ * <p>
+ * 模板中没有正则表达式元字符时（最常见的情况）不使用正则表达式，
+ * 用状态集合模拟匹配，时间和被匹配字符串的长度成正比，不会因为回溯变慢；
+ * 否则使用编译好的 Pattern 。对象不可变，可以在多个线程中共用
+ */
+public final class WildcardMatcher {
+
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    private final String template;
+    /**
+     * 去掉空格和引号后的模板，按代码点拆分；使用正则表达式时为 null
+     */
+    private final int[] wildcard;
+    private final Pattern pattern;
+
+    private WildcardMatcher(String template, int[] wildcard, Pattern pattern) {
+        this.template = template;
+        this.wildcard = wildcard;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param szTempl 模板，?_ *% 是通配符
+     * @return 编译后的模板
+     */
+    public static WildcardMatcher compile(String szTempl) {
+        String trimTempl = StringRegularOpt.trimString(szTempl);
+        for (int i = 0; i < trimTempl.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(trimTempl.charAt(i)) >= 0) {
+                return new WildcardMatcher(szTempl, null,
+                    Pattern.compile(StringRegularOpt.sqlMatchToRegex(trimTempl)));
+            }
+        }
+        return new WildcardMatcher(szTempl, trimTempl.codePoints().toArray(), null);
+    }
+
+    /**
+     * 和正则表达式中的 \S 一致
+     */
+    private static boolean isWhitespace(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == 0x0B || ch == '\f' || ch == '\r';
+    }
+
+    /**
+     * @param szValue 被匹配的字符串
+     * @return 是否匹配
+     */
+    public boolean matches(String szValue) {
+        if (szValue == null || template == null) return false;
+        if (szValue.equals(template)) return true;
+        if (szValue.isEmpty() && template.isEmpty()) return true;
+
+        String value = StringRegularOpt.trimString(szValue);
+        if (pattern != null) {
+            return pattern.matcher(value).matches();
+        }
+        return matchWildcard(value);
+    }
+
+    /**
+     * states[i] 为 true 表示模板的前 i 个字符可以匹配已经读入的字符串
+     */
+    private boolean matchWildcard(String value) {
+        int tl = wildcard.length;
+        boolean[] states = new boolean[tl + 1];
+        boolean[] nextStates = new boolean[tl + 1];
+        states[0] = true;
+        closeStates(states);
+        int vl = value.length();
+        for (int p = 0; p < vl; ) {
+            int ch = value.codePointAt(p);
+            p += Character.charCount(ch);
+            boolean alive = false;
+            for (int i = 0; i <= tl; i++) {
+                nextStates[i] = false;
+            }
+            for (int i = 0; i < tl; i++) {
+                if (!states[i]) {
+                    continue;
+                }
+                int tc = wildcard[i];
+                if (tc == '%') {
+                    if (!isWhitespace(ch)) {
+                        nextStates[i] = true;
+                        alive = true;
+                    }
+                } else if (tc == '_' ? !isWhitespace(ch) : tc == ch) {
+                    nextStates[i + 1] = true;
+                    alive = true;
+                }
+            }
+            if (!alive) {
+                return false;
+            }
+            closeStates(nextStates);
+            boolean[] swap = states;
+            states = nextStates;
+            nextStates = swap;
+        }
+        return states[tl];
+    }
+
+    /**
+     * % 可以不匹配任何字符，直接跳过
+     */
+    private void closeStates(boolean[] states) {
+        for (int i = 0; i < wildcard.length; i++) {
+            if (states[i] && wildcard[i] == '%') {
+                states[i + 1] = true;
+            }
+        }
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,217 @@
+package com.centit.support.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 限定大小的缓存，超出容量时淘汰最近最少使用（LRU）的条目
+ * 用于缓存 表达式、模板、SQL语句 等解析结果，这些结果只和键值有关，不需要刷新
+ * <p>
+ * 线程安全；条目保存在 ConcurrentHashMap 中，命中时不加锁，只记录条目的访问时间，
+ * 所以多个线程同时读缓存不会在同一个锁上排队。访问时间是一个只在放入新条目时前进的时钟，
+ * 淘汰按这个时间进行，是近似的 LRU：两次放入之间访问过的条目不区分先后。
+ * 超出容量时一次多淘汰 1/8 的条目，避免每次放入都扫描整个缓存，所以缓存的条目数会在
+ * maxSize 的 7/8 到 maxSize 之间波动
+ * <p>
+ * 加载数据在锁外面执行，并发加载同一个键值时以先放入的为准；键值为 null 时不缓存
+ *
+ * @param <K> 键值类型
+ * @param <V> 缓存对象的类型
+ */
+public class LruCachedMap<K, V> {
+
+    private static final class Node<V> {
+        private final V value;
+        private volatile long accessTime;
+
+        Node(V value, long accessTime) {
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+
+    /**
+     * 淘汰时对访问时间做快照，排序过程中访问时间的变化不影响排序
+     */
+    private static final class Candidate<K, V> {
+        private final K key;
+        private final Node<V> node;
+        private final long accessTime;
+
+        Candidate(K key, Node<V> node) {
+            this.key = key;
+            this.node = node;
+            this.accessTime = node.accessTime;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<V>> targetMap;
+    /**
+     * 淘汰时的锁，只有放入新条目并且超出容量时才会用到
+     */
+    private final Object evictLock = new Object();
+    private final AtomicLong clock = new AtomicLong();
+    private volatile int maxSize;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maxSize 最多缓存的条目数
+     */
+    public LruCachedMap(int maxSize) {
+        this.maxSize = maxSize;
+        this.targetMap = new ConcurrentHashMap<>(Math.min(Math.max(maxSize, 16), 4096));
+    }
+
+    private V touch(Node<V> node) {
+        long now = clock.get();
+        // 访问时间没有变化时不写，避免多个线程反复写同一个条目
+        if (node.accessTime != now) {
+            node.accessTime = now;
+        }
+        return node.value;
+    }
+
+    /**
+     * 获取缓存对象，如果没有则调用 loader 加载并放入缓存
+     *
+     * @param key    键值
+     * @param loader 加载函数，返回 null 时不缓存
+     * @return 缓存对象
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        if (key == null) {
+            return loader.apply(null);
+        }
+        Node<V> node = targetMap.get(key);
+        if (node != null) {
+            hitCount.increment();
+            return touch(node);
+        }
+        missCount.increment();
+        V value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        Node<V> oldNode = targetMap.putIfAbsent(key, new Node<>(value, clock.incrementAndGet()));
+        if (oldNode != null) {
+            return touch(oldNode);
+        }
+        evictIfNeeded();
+        return value;
+    }
+
+    /**
+     * 只从缓存中获取，不加载
+     *
+     * @param key 键值
+     * @return 缓存对象，没有返回 null
+     */
+    public V getIfPresent(K key) {
+        if (key == null) {
+            return null;
+        }
+        Node<V> node = targetMap.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return touch(node);
+    }
+
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        targetMap.put(key, new Node<>(value, clock.incrementAndGet()));
+        evictIfNeeded();
+    }
+
+    public void evict(K key) {
+        if (key != null) {
+            targetMap.remove(key);
+        }
+    }
+
+    public void clear() {
+        targetMap.clear();
+    }
+
+    public int size() {
+        return targetMap.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 修改容量，容量变小时立即淘汰多余的条目
+     *
+     * @param maxSize 最多缓存的条目数
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        if (targetMap.size() <= maxSize) {
+            return;
+        }
+        synchronized (evictLock) {
+            int max = maxSize;
+            int size = targetMap.size();
+            if (size <= max) {
+                return;
+            }
+            List<Candidate<K, V>> candidates = new ArrayList<>(size);
+            for (Map.Entry<K, Node<V>> ent : targetMap.entrySet()) {
+                candidates.add(new Candidate<>(ent.getKey(), ent.getValue()));
+            }
+            candidates.sort(Comparator.comparingLong(c -> c.accessTime));
+            int removeCount = Math.min(candidates.size(), size - max + max / 8);
+            for (int i = 0; i < removeCount; i++) {
+                Candidate<K, V> candidate = candidates.get(i);
+                if (targetMap.remove(candidate.key, candidate.node)) {
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 清空统计计数，不影响缓存的内容
+     */
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "LruCachedMap{size=" + targetMap.size() + ", maxSize=" + maxSize +
+            ", hit=" + hitCount.sum() + ", miss=" + missCount.sum() + ", eviction=" + evictionCount.sum() + "}";
+    }
+}
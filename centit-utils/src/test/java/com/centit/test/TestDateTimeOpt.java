@@ -6,11 +6,14 @@ import com.centit.support.algorithm.StringRegularOpt;
 import com.centit.support.network.UrlOptUtils;
 
 import java.time.Instant;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 
 public class TestDateTimeOpt {
     public static void main(String[] args) {
+        testEpochDay();
 
         System.out.println(DatetimeOpt.convertDateToSmartString(DatetimeOpt.currentUtilDate()));
 
@@ -61,6 +64,61 @@ public class TestDateTimeOpt {
     //T代表后面跟着时间，Z代表UTC统一时间
 
 
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * 以 long 为参数的日期计算和 Calendar 的结果对比，包括有夏令时的时区，
+     * 运行中切换默认时区后 long 的方法也要跟着切换
+     */
+    public static void testEpochDay() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            for (String zoneId : new String[]{"Asia/Shanghai", "America/New_York", "Europe/London", "UTC"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zoneId));
+                // 从 1900 年开始每次前进 7 天 13 小时 17 分，覆盖各个月份、闰年和夏令时切换的日子
+                for (long millis = DatetimeOpt.createUtilDate(1900, 1, 1).getTime();
+                     millis < DatetimeOpt.createUtilDate(2100, 1, 1).getTime();
+                     millis += ((7 * 24 + 13) * 60 + 17) * 60000L) {
+                    Date date = new Date(millis);
+                    String at = zoneId + " " + date;
+                    check(DatetimeOpt.getYear(date) == DatetimeOpt.getYear(millis), "getYear " + at);
+                    check(DatetimeOpt.getMonth(date) == DatetimeOpt.getMonth(millis), "getMonth " + at);
+                    check(DatetimeOpt.getDay(date) == DatetimeOpt.getDay(millis), "getDay " + at);
+                    check(DatetimeOpt.getDayOfYear(date) == DatetimeOpt.getDayOfYear(millis), "getDayOfYear " + at);
+                    check(DatetimeOpt.getDayOfWeek(date) == DatetimeOpt.getDayOfWeek(millis), "getDayOfWeek " + at);
+                    check(DatetimeOpt.truncateToDay(date).getTime() == DatetimeOpt.truncateToDay(millis),
+                        "truncateToDay " + at);
+                    check(DatetimeOpt.truncateToMonth(date).getTime() == DatetimeOpt.truncateToMonth(millis),
+                        "truncateToMonth " + at);
+                    check(DatetimeOpt.truncateToYear(date).getTime() == DatetimeOpt.truncateToYear(millis),
+                        "truncateToYear " + at);
+                    check(DatetimeOpt.seekEndOfMonth(date).getTime() == DatetimeOpt.seekEndOfMonth(millis),
+                        "seekEndOfMonth " + at);
+                    check(DatetimeOpt.addDays(date, 40).getTime() == DatetimeOpt.addDays(millis, 40),
+                        "addDays " + at);
+                    check(DatetimeOpt.addMonths(date, 13).getTime() == DatetimeOpt.addMonths(millis, 13),
+                        "addMonths " + at);
+                    check(DatetimeOpt.addYears(date, -3).getTime() == DatetimeOpt.addYears(millis, -3),
+                        "addYears " + at);
+                    check(DatetimeOpt.calcSpanDays(date, DatetimeOpt.addDays(date, 40))
+                        == DatetimeOpt.calcSpanDays(millis, DatetimeOpt.addDays(millis, 40)), "calcSpanDays " + at);
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+        long epochDay = DatetimeOpt.toEpochDay(2024, 2, 29);
+        check(DatetimeOpt.yearOfEpochDay(epochDay) == 2024 && DatetimeOpt.monthOfEpochDay(epochDay) == 2
+            && DatetimeOpt.dayOfEpochDay(epochDay) == 29, "epochDay 2024-2-29");
+        check(DatetimeOpt.dayOfEpochDay(DatetimeOpt.addMonthsToEpochDay(epochDay, 12)) == 28,
+            "addMonthsToEpochDay 2024-2-29");
+        System.out.println("testEpochDay passed");
+    }
+
     public static void testTPTime() throws Exception {
         System.out.println(System.currentTimeMillis());
         System.out.println(Instant.now().toString());
@@ -0,0 +1,60 @@
+package com.centit.test;
+
+import com.centit.support.common.LruCachedMap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLruCachedMap {
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LruCachedMap<Integer, String> cache = new LruCachedMap<>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.get(i, String::valueOf);
+        }
+        // 最近访问过的条目在淘汰时保留
+        for (int i = 0; i < 10; i++) {
+            check(String.valueOf(i).equals(cache.getIfPresent(i)), "hit " + i);
+        }
+        for (int i = 100; i < 110; i++) {
+            cache.get(i, String::valueOf);
+        }
+        check(cache.size() <= 100, "size " + cache.size());
+        for (int i = 0; i < 10; i++) {
+            check(cache.getIfPresent(i) != null, "recently used key evicted " + i);
+        }
+        check(cache.getIfPresent(10) == null, "least recently used key kept");
+        System.out.println(cache);
+
+        // 多个线程同时读写，结果总是和键值对应
+        LruCachedMap<Integer, String> shared = new LruCachedMap<>(500);
+        AtomicInteger errors = new AtomicInteger();
+        int threadCount = 8;
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            int seed = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200000; i++) {
+                        int key = (i * 31 + seed) % 1000;
+                        if (!String.valueOf(key).equals(shared.get(key, String::valueOf))) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        check(errors.get() == 0, "concurrent errors " + errors.get());
+        check(shared.size() <= 500, "concurrent size " + shared.size());
+        System.out.println(shared);
+    }
+}